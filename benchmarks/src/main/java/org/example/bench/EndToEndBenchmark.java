@@ -0,0 +1,85 @@
+package org.example.bench;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import org.example.App;
+import org.example.AppAsync;
+import org.example.ClientRegistry;
+import org.example.InstanceActionResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end App operations against {@link LocalAwsStub}, including the batch and parallel paths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+    @Param({"0", "20"})
+    public long latencyMillis;
+
+    @Param({"0.0", "0.05"})
+    public double throttleRate;
+
+    @Param({"400"})
+    public int fleetSize;
+
+    private LocalAwsStub stub;
+    private ClientRegistry registry;
+    private AppAsync async;
+    private List<String> fleet;
+
+    @Setup
+    public void setup() throws Exception {
+        stub = new LocalAwsStub(latencyMillis, throttleRate);
+        registry = ClientRegistry.forEndpoint(new AWSStaticCredentialsProvider(new BasicAWSCredentials("bench", "bench")),
+                stub.getEndpoint(), Collections.singletonList(Regions.US_EAST_1));
+        App.useClients(registry);
+        async = new AppAsync(64);
+        fleet = new ArrayList<>();
+        for (int i = 0; i < fleetSize; i++)
+            fleet.add("i-" + Integer.toHexString(0x100000 + i));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%nstub requests=%d throttled=%d%n", stub.getRequests(), stub.getThrottled());
+        async.close();
+        registry.shutdown();
+        stub.close();
+    }
+
+    @Benchmark
+    public void stopInstanceSequential() {
+        for (int i = 0; i < 10; i++)
+            App.stopInstance(fleet.get(i));
+    }
+
+    @Benchmark
+    public Map<String, InstanceActionResult> stopFleetBatched() {
+        return App.stopInstances(fleet);
+    }
+
+    @Benchmark
+    public List<String> createVolumesParallel() {
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            futures.add(async.createVolume("bench-" + i, 10, "us-east-1a"));
+        List<String> volumeIds = new ArrayList<>();
+        for (CompletableFuture<String> future : futures)
+            volumeIds.add(future.join());
+        return volumeIds;
+    }
+}
@@ -0,0 +1,303 @@
+package org.example.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback HTTP server that answers the EC2 and ELBv2 Query API actions App uses with canned XML.
+ * Latency and the share of throttled responses are configurable, so client-side batching, parallelism and
+ * retry behaviour can be measured without AWS access.
+ */
+public class LocalAwsStub implements AutoCloseable {
+
+    static final String EC2_NS = "http://ec2.amazonaws.com/doc/2016-11-15/";
+    static final String ELB_NS = "http://elasticloadbalancing.amazonaws.com/doc/2015-12-01/";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile long latencyMillis;
+    private volatile double throttleRate;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong ids = new AtomicLong();
+
+    public LocalAwsStub() throws IOException {
+        this(0, 0.0);
+    }
+
+    public LocalAwsStub(long latencyMillis, double throttleRate) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.throttleRate = throttleRate;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 512);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "aws-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        Map<String, List<String>> params;
+        try (InputStream in = exchange.getRequestBody()) {
+            params = parseForm(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        String action = first(params, "Action");
+        boolean elb = "2015-12-01".equals(first(params, "Version"));
+
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate) {
+            throttled.incrementAndGet();
+            if (elb)
+                send(exchange, 400, elbError("Throttling", "Rate exceeded"));
+            else
+                send(exchange, 503, ec2Error("RequestLimitExceeded", "Request limit exceeded."));
+            return;
+        }
+        if ("true".equals(first(params, "DryRun"))) {
+            send(exchange, 412, ec2Error("DryRunOperation", "Request would have succeeded, but DryRun flag is set."));
+            return;
+        }
+
+        String body = elb ? elbResponse(action, params) : ec2Response(action, params);
+        if (body == null)
+            send(exchange, 400, ec2Error("InvalidAction", "The action " + action + " is not valid for this web service."));
+        else
+            send(exchange, 200, body);
+    }
+
+    private String ec2Response(String action, Map<String, List<String>> params) {
+        StringBuilder sb = new StringBuilder();
+        switch (action) {
+            case "StartInstances":
+            case "StopInstances": {
+                boolean start = action.equals("StartInstances");
+                sb.append("<instancesSet>");
+                for (String id : indexed(params, "InstanceId"))
+                    sb.append("<item><instanceId>").append(id).append("</instanceId>")
+                            .append(state("currentState", start ? 0 : 64, start ? "pending" : "stopping"))
+                            .append(state("previousState", start ? 80 : 16, start ? "stopped" : "running"))
+                            .append("</item>");
+                sb.append("</instancesSet>");
+                return ec2(action, sb);
+            }
+            case "RunInstances": {
+                int count = Integer.parseInt(Objects.requireNonNullElse(first(params, "MaxCount"), "1"));
+                sb.append("<reservationId>r-").append(ids.incrementAndGet()).append("</reservationId>")
+                        .append("<ownerId>123456789012</ownerId><instancesSet>");
+                for (int i = 0; i < count; i++)
+                    sb.append("<item><instanceId>i-").append(Long.toHexString(ids.incrementAndGet()))
+                            .append("</instanceId>").append(state("instanceState", 0, "pending"))
+                            .append("<instanceType>").append(first(params, "InstanceType")).append("</instanceType>")
+                            .append("</item>");
+                sb.append("</instancesSet>");
+                return ec2(action, sb);
+            }
+            case "DescribeInstances": {
+                sb.append("<reservationSet><item><reservationId>r-1</reservationId><instancesSet>");
+                for (String id : filterOrIds(params, "InstanceId", 10))
+                    sb.append("<item><instanceId>").append(id).append("</instanceId>")
+                            .append(state("instanceState", 16, "running"))
+                            .append("<instanceType>t2.micro</instanceType><subnetId>subnet-1</subnetId></item>");
+                sb.append("</instancesSet></item></reservationSet>");
+                return ec2(action, sb);
+            }
+            case "CreateTags":
+            case "DeleteTags":
+            case "AttachInternetGateway":
+            case "DeleteVolume":
+            case "DeleteVpc":
+            case "AuthorizeSecurityGroupIngress":
+            case "RevokeSecurityGroupIngress":
+                return ec2(action, sb.append("<return>true</return>"));
+            case "CreateVolume":
+                return ec2(action, sb.append("<volumeId>vol-").append(Long.toHexString(ids.incrementAndGet()))
+                        .append("</volumeId><size>").append(first(params, "Size"))
+                        .append("</size><availabilityZone>").append(first(params, "AvailabilityZone"))
+                        .append("</availabilityZone><status>creating</status><volumeType>gp2</volumeType>"));
+            case "DescribeVolumes":
+                sb.append("<volumeSet>");
+                for (String id : filterOrIds(params, "VolumeId", 10))
+                    sb.append("<item><volumeId>").append(id).append("</volumeId><status>available</status></item>");
+                return ec2(action, sb.append("</volumeSet>"));
+            case "AttachVolume":
+                return ec2(action, sb.append("<volumeId>").append(first(params, "VolumeId"))
+                        .append("</volumeId><instanceId>").append(first(params, "InstanceId"))
+                        .append("</instanceId><device>").append(first(params, "Device"))
+                        .append("</device><status>attaching</status>"));
+            case "CreateSnapshot":
+                return ec2(action, sb.append("<snapshotId>snap-").append(Long.toHexString(ids.incrementAndGet()))
+                        .append("</snapshotId><volumeId>").append(first(params, "VolumeId"))
+                        .append("</volumeId><status>pending</status><progress>0%</progress>"));
+            case "DescribeSnapshots":
+                sb.append("<snapshotSet>");
+                for (String id : filterOrIds(params, "SnapshotId", 10))
+                    sb.append("<item><snapshotId>").append(id)
+                            .append("</snapshotId><status>completed</status><progress>100%</progress></item>");
+                return ec2(action, sb.append("</snapshotSet>"));
+            case "DescribeSubnets":
+                sb.append("<subnetSet>");
+                for (int i = 0; i < 6; i++)
+                    sb.append("<item><subnetId>subnet-").append(i).append("</subnetId><vpcId>vpc-1</vpcId>")
+                            .append("<cidrBlock>10.0.").append(i).append(".0/24</cidrBlock>")
+                            .append("<availabilityZone>us-east-1a</availabilityZone><state>available</state></item>");
+                return ec2(action, sb.append("</subnetSet>"));
+            case "CreateVpc":
+                return ec2(action, sb.append("<vpc><vpcId>vpc-").append(Long.toHexString(ids.incrementAndGet()))
+                        .append("</vpcId><cidrBlock>10.0.0.0/16</cidrBlock><state>pending</state></vpc>"));
+            case "CreateSubnet":
+                return ec2(action, sb.append("<subnet><subnetId>subnet-").append(Long.toHexString(ids.incrementAndGet()))
+                        .append("</subnetId><vpcId>").append(first(params, "VpcId"))
+                        .append("</vpcId><cidrBlock>").append(first(params, "CidrBlock"))
+                        .append("</cidrBlock><state>pending</state></subnet>"));
+            default:
+                return null;
+        }
+    }
+
+    private String elbResponse(String action, Map<String, List<String>> params) {
+        StringBuilder sb = new StringBuilder();
+        switch (action) {
+            case "RegisterTargets":
+            case "DeregisterTargets":
+                return elb(action, sb);
+            case "DescribeTargetHealth":
+                sb.append("<TargetHealthDescriptions>");
+                for (int i = 0; i < 10; i++)
+                    sb.append("<member><Target><Id>i-").append(i).append("</Id><Port>80</Port></Target>")
+                            .append("<TargetHealth><State>healthy</State></TargetHealth></member>");
+                return elb(action, sb.append("</TargetHealthDescriptions>"));
+            case "CreateTargetGroup":
+                return elb(action, sb.append("<TargetGroups><member><TargetGroupArn>")
+                        .append("arn:aws:elasticloadbalancing:us-east-1:123456789012:targetgroup/")
+                        .append(first(params, "Name")).append("/").append(ids.incrementAndGet())
+                        .append("</TargetGroupArn><TargetGroupName>").append(first(params, "Name"))
+                        .append("</TargetGroupName></member></TargetGroups>"));
+            default:
+                return null;
+        }
+    }
+
+    private static String state(String element, int code, String name) {
+        return "<" + element + "><code>" + code + "</code><name>" + name + "</name></" + element + ">";
+    }
+
+    private static String ec2(String action, CharSequence body) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><" + action + "Response xmlns=\"" + EC2_NS
+                + "\"><requestId>stub</requestId>" + body + "</" + action + "Response>";
+    }
+
+    private static String elb(String action, CharSequence body) {
+        return "<" + action + "Response xmlns=\"" + ELB_NS + "\"><" + action + "Result>" + body + "</" + action
+                + "Result><ResponseMetadata><RequestId>stub</RequestId></ResponseMetadata></" + action + "Response>";
+    }
+
+    private static String ec2Error(String code, String message) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Response><Errors><Error><Code>" + code + "</Code><Message>"
+                + message + "</Message></Error></Errors><RequestID>stub</RequestID></Response>";
+    }
+
+    private static String elbError(String code, String message) {
+        return "<ErrorResponse xmlns=\"" + ELB_NS + "\"><Error><Type>Sender</Type><Code>" + code + "</Code><Message>"
+                + message + "</Message></Error><RequestId>stub</RequestId></ErrorResponse>";
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/xml;charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    static Map<String, List<String>> parseForm(String body) {
+        Map<String, List<String>> params = new HashMap<>();
+        for (String pair : body.split("&")) {
+            if (pair.isEmpty())
+                continue;
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+    private static String first(Map<String, List<String>> params, String key) {
+        List<String> values = params.get(key);
+        return values == null ? null : values.get(0);
+    }
+
+    /**
+     * Values of EC2 list parameters such as InstanceId.1, InstanceId.2, ...
+     */
+    private static List<String> indexed(Map<String, List<String>> params, String prefix) {
+        List<String> values = new ArrayList<>();
+        for (int i = 1; ; i++) {
+            String value = first(params, prefix + "." + i);
+            if (value == null)
+                return values;
+            values.add(value);
+        }
+    }
+
+    private static List<String> filterOrIds(Map<String, List<String>> params, String idParam, int fallback) {
+        List<String> values = indexed(params, idParam);
+        if (values.isEmpty())
+            values = indexed(params, "Filter.1.Value");
+        if (values.isEmpty()) {
+            for (int i = 0; i < fallback; i++)
+                values.add(idParam.toLowerCase(Locale.ROOT) + "-" + i);
+        }
+        return values;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
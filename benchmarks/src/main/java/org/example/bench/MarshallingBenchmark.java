@@ -0,0 +1,106 @@
+package org.example.bench;
+
+import com.amazonaws.Request;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.InstanceNetworkInterfaceSpecification;
+import com.amazonaws.services.ec2.model.InstanceType;
+import com.amazonaws.services.ec2.model.ResourceType;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.TagSpecification;
+import com.amazonaws.services.ec2.model.transform.CreateTagsRequestMarshaller;
+import com.amazonaws.services.ec2.model.transform.DescribeInstancesResultStaxUnmarshaller;
+import com.amazonaws.services.ec2.model.transform.RunInstancesRequestMarshaller;
+import com.amazonaws.services.ec2.model.transform.StartInstancesRequestMarshaller;
+import com.amazonaws.transform.StaxUnmarshallerContext;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of building and marshalling the requests App sends and of parsing a large DescribeInstances response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarshallingBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int instances;
+
+    private List<String> instanceIds;
+    private byte[] describeInstancesXml;
+    private XMLInputFactory xmlInputFactory;
+
+    @Setup
+    public void setup() {
+        instanceIds = new ArrayList<>();
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                .append("<DescribeInstancesResponse xmlns=\"").append(LocalAwsStub.EC2_NS).append("\">")
+                .append("<requestId>bench</requestId><reservationSet><item><reservationId>r-1</reservationId>")
+                .append("<instancesSet>");
+        for (int i = 0; i < instances; i++) {
+            String id = "i-" + Integer.toHexString(0x100000 + i);
+            instanceIds.add(id);
+            xml.append("<item><instanceId>").append(id).append("</instanceId><imageId>ami-1</imageId>")
+                    .append("<instanceState><code>16</code><name>running</name></instanceState>")
+                    .append("<instanceType>t2.micro</instanceType><subnetId>subnet-1</subnetId>")
+                    .append("<tagSet><item><key>Name</key><value>node-").append(i).append("</value></item></tagSet>")
+                    .append("</item>");
+        }
+        xml.append("</instancesSet></item></reservationSet></DescribeInstancesResponse>");
+        describeInstancesXml = xml.toString().getBytes(StandardCharsets.UTF_8);
+        xmlInputFactory = XMLInputFactory.newInstance();
+    }
+
+    @Benchmark
+    public Request<RunInstancesRequest> runInstancesRequest() {
+        RunInstancesRequest request = new RunInstancesRequest()
+                .withImageId("ami-0f9fc25dd2506cf6d")
+                .withInstanceType(InstanceType.T2Micro)
+                .withMinCount(instances)
+                .withMaxCount(instances)
+                .withNetworkInterfaces(new InstanceNetworkInterfaceSpecification()
+                        .withDeviceIndex(0)
+                        .withAssociatePublicIpAddress(true)
+                        .withSubnetId("subnet-1"))
+                .withTagSpecifications(new TagSpecification()
+                        .withResourceType(ResourceType.Instance)
+                        .withTags(new Tag("Name", "bench")))
+                .withKeyName("keypair");
+        return new RunInstancesRequestMarshaller().marshall(request);
+    }
+
+    @Benchmark
+    public Request<StartInstancesRequest> startInstancesRequest() {
+        return new StartInstancesRequestMarshaller().marshall(new StartInstancesRequest().withInstanceIds(instanceIds));
+    }
+
+    @Benchmark
+    public Request<CreateTagsRequest> createTagsRequest() {
+        return new CreateTagsRequestMarshaller().marshall(new CreateTagsRequest()
+                .withResources(instanceIds)
+                .withTags(new Tag("CostCenter", "1234"), new Tag("Owner", "platform")));
+    }
+
+    @Benchmark
+    public DescribeInstancesResult describeInstancesResponse() throws Exception {
+        XMLEventReader reader = xmlInputFactory.createXMLEventReader(new ByteArrayInputStream(describeInstancesXml));
+        try {
+            return DescribeInstancesResultStaxUnmarshaller.getInstance().unmarshall(new StaxUnmarshallerContext(reader));
+        } finally {
+            reader.close();
+        }
+    }
+}
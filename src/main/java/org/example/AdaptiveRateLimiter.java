@@ -0,0 +1,127 @@
+package org.example;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Client-side token buckets, one per API action, mirroring EC2's request-rate throttling. Describe-style
+ * (non-mutating) and mutating actions start from separate defaults. Each bucket adapts AIMD-style: a throttling
+ * response halves its rate, every successful call adds a small fixed increment up to a ceiling.
+ */
+public class AdaptiveRateLimiter {
+
+    public static class Limits {
+        final double ratePerSecond;
+        final double burst;
+        final double maxRatePerSecond;
+
+        public Limits(double ratePerSecond, double burst, double maxRatePerSecond) {
+            this.ratePerSecond = ratePerSecond;
+            this.burst = burst;
+            this.maxRatePerSecond = maxRatePerSecond;
+        }
+    }
+
+    // EC2's documented default bucket sizes and refill rates
+    static final Limits DEFAULT_DESCRIBE_LIMITS = new Limits(20, 100, 80);
+    static final Limits DEFAULT_MUTATING_LIMITS = new Limits(5, 200, 20);
+    static final double MIN_RATE_PER_SECOND = 0.5;
+    static final double DECREASE_FACTOR = 0.5;
+    static final double INCREASE_PER_SUCCESS = 0.1;
+
+    private static final AdaptiveRateLimiter GLOBAL =
+            new AdaptiveRateLimiter(DEFAULT_DESCRIBE_LIMITS, DEFAULT_MUTATING_LIMITS, System::nanoTime);
+
+    private final Limits describeLimits;
+    private final Limits mutatingLimits;
+    private final LongSupplier nanoClock;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public AdaptiveRateLimiter(Limits describeLimits, Limits mutatingLimits) {
+        this(describeLimits, mutatingLimits, System::nanoTime);
+    }
+
+    AdaptiveRateLimiter(Limits describeLimits, Limits mutatingLimits, LongSupplier nanoClock) {
+        this.describeLimits = describeLimits;
+        this.mutatingLimits = mutatingLimits;
+        this.nanoClock = nanoClock;
+    }
+
+    public static AdaptiveRateLimiter global() {
+        return GLOBAL;
+    }
+
+    static boolean isMutating(String key) {
+        String action = key.substring(key.lastIndexOf('.') + 1);
+        return !(action.startsWith("Describe") || action.startsWith("Get") || action.startsWith("List"));
+    }
+
+    private Bucket bucket(String key) {
+        return buckets.computeIfAbsent(key,
+                k -> new Bucket(isMutating(k) ? mutatingLimits : describeLimits, nanoClock.getAsLong()));
+    }
+
+    /**
+     * Blocks until a token for the action is available.
+     */
+    public void acquire(String action) throws InterruptedException {
+        long waitNanos = reserve(action);
+        if (waitNanos > 0)
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    /**
+     * Takes a token, going into debt if none is left, and returns how long the caller must wait before using it.
+     */
+    long reserve(String action) {
+        return bucket(action).reserve(nanoClock.getAsLong());
+    }
+
+    public void onThrottle(String action) {
+        bucket(action).decrease();
+    }
+
+    public void onSuccess(String action) {
+        bucket(action).increase();
+    }
+
+    public double getRate(String action) {
+        Bucket bucket = bucket(action);
+        synchronized (bucket) {
+            return bucket.rate;
+        }
+    }
+
+    private static class Bucket {
+        final Limits limits;
+        double rate;
+        double tokens;
+        long lastRefill;
+
+        Bucket(Limits limits, long now) {
+            this.limits = limits;
+            this.rate = limits.ratePerSecond;
+            this.tokens = limits.burst;
+            this.lastRefill = now;
+        }
+
+        synchronized long reserve(long now) {
+            tokens = Math.min(limits.burst, tokens + (now - lastRefill) / 1e9 * rate);
+            lastRefill = now;
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+        }
+
+        synchronized void decrease() {
+            rate = Math.max(MIN_RATE_PER_SECOND, rate * DECREASE_FACTOR);
+            // Drop the burst allowance so the lower rate takes effect immediately
+            tokens = Math.min(tokens, 0);
+        }
+
+        synchronized void increase() {
+            rate = Math.min(limits.maxRatePerSecond, rate + INCREASE_PER_SUCCESS);
+        }
+    }
+}
@@ -1,44 +1,400 @@
 package org.example;
+import com.amazonaws.SdkClientException;
 import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSCredentialsProviderChain;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.auth.PropertiesCredentials;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.*;
 import com.amazonaws.services.ec2.model.Tag;
 import com.amazonaws.services.elasticloadbalancingv2.AmazonElasticLoadBalancing;
 import com.amazonaws.services.elasticloadbalancingv2.AmazonElasticLoadBalancingClient;
-import com.amazonaws.services.elasticloadbalancingv2.AmazonElasticLoadBalancingClientBuilder;
 import com.amazonaws.services.elasticloadbalancingv2.model.*;
 
 import java.io.*;
-import java.net.URL;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.TimerTask;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class App
 {
-    static File awsCredentialsFile=new File("src/main/java/org/example/credFile.txt");
-    static AWSCredentials credentials;
+    static final String CREDENTIALS_FILE_PROPERTY = "aws.credentialsFile";
+    static final String DEFAULT_CREDENTIALS_FILE = "src/main/java/org/example/credFile.txt";
 
-    static {
+    static final Regions DEFAULT_REGION = Regions.US_EAST_1;
+    static final int DEFAULT_DAEMON_PORT = 7421;
+    static final String DEFAULT_DAEMON_TOKEN_FILE = System.getProperty("user.home") + "/.awstest/daemon.token";
+
+    // Credentials and clients are resolved on first use, so loading App costs no SDK bootstrap
+    private static volatile AWSCredentialsProvider credentialsProvider;
+    private static volatile ClientRegistry clients;
+
+    private static final ThreadLocal<Regions> region = ThreadLocal.withInitial(() -> DEFAULT_REGION);
+
+    private static final Map<Regions, ResourceWaiter> waiters = new ConcurrentHashMap<>();
+    private static final Map<Regions, TagCoalescer> tagWriters = new ConcurrentHashMap<>();
+    private static final Map<Regions, RequestHedger> hedgers = new ConcurrentHashMap<>();
+    private static volatile Double hedgePercentile;
+
+    static final InventoryCache cache = new InventoryCache();
+
+    static volatile EgressIp egressIp = new EgressIp();
+
+    private static volatile ResourceJournal journal;
+    private static final ThreadLocal<String> journalStep = new ThreadLocal<>();
+
+    static List<Regions> configuredRegions(){
+        String value = System.getenv("AWS_REGIONS");
+        if (value == null || value.trim().isEmpty())
+            return Collections.singletonList(DEFAULT_REGION);
+        List<Regions> regions = new ArrayList<>();
+        for (String name : value.split(","))
+            regions.add(Regions.fromName(name.trim()));
+        return regions;
+    }
+
+    static AWSCredentialsProvider defaultCredentialsProvider(){
+        File file = new File(System.getProperty(CREDENTIALS_FILE_PROPERTY, DEFAULT_CREDENTIALS_FILE));
+        return new AWSCredentialsProviderChain(new FileCredentialsProvider(file),
+                DefaultAWSCredentialsProviderChain.getInstance());
+    }
+
+    public static synchronized void setCredentialsProvider(AWSCredentialsProvider provider){
+        if (clients != null)
+            throw new IllegalStateException("Clients are already initialized");
+        credentialsProvider = provider;
+    }
+
+    /**
+     * Replaces the client registry, e.g. to point App at a local endpoint. Clears region-bound state.
+     */
+    public static synchronized void useClients(ClientRegistry registry){
+        clients = registry;
+        for (ResourceWaiter waiter : waiters.values())
+            waiter.close();
+        waiters.clear();
+        for (TagCoalescer tagWriter : tagWriters.values())
+            tagWriter.close();
+        tagWriters.clear();
+        hedgers.clear();
+        cache.clear();
+    }
+
+    static ClientRegistry clients(){
+        ClientRegistry registry = clients;
+        if (registry == null) {
+            synchronized (App.class) {
+                if (clients == null) {
+                    AWSCredentialsProvider provider =
+                            credentialsProvider != null ? credentialsProvider : defaultCredentialsProvider();
+                    clients = new ClientRegistry(provider, configuredRegions());
+                }
+                registry = clients;
+            }
+        }
+        return registry;
+    }
+
+    static AmazonEC2 ec2(){
+        Double percentile = hedgePercentile;
+        if (percentile == null)
+            return clients().ec2(region.get());
+        return hedgers.computeIfAbsent(region.get(), r -> new RequestHedger(clients().ec2(r), percentile)).client();
+    }
+
+    /**
+     * Hedges idempotent EC2 calls that run past the given latency percentile of their action with a duplicate
+     * request; null turns hedging off. See {@link RequestHedger}.
+     */
+    public static void useHedging(Double percentile){
+        hedgePercentile = percentile;
+        hedgers.clear();
+    }
+
+    /**
+     * Hedging statistics for the current region, or null when hedging is off or no call was made yet.
+     */
+    public static RequestHedger hedger(){
+        return hedgers.get(region.get());
+    }
+
+    static AmazonElasticLoadBalancing elb(){
+        return clients().elb(region.get());
+    }
+
+    static ResourceWaiter waiter(){
+        return waiters.computeIfAbsent(region.get(), r -> new ResourceWaiter(clients().ec2(r)));
+    }
+
+    /**
+     * Tag writer for the current region. Buffered changes are sent within
+     * {@link TagCoalescer#DEFAULT_FLUSH_INTERVAL_MS}, or right away with {@link #flushTags()}.
+     */
+    public static TagCoalescer tags(){
+        return tagWriters.computeIfAbsent(region.get(), r -> new TagCoalescer(clients().ec2(r),
+                TagCoalescer.DEFAULT_MAX_PENDING, TagCoalescer.DEFAULT_FLUSH_INTERVAL_MS, App::invalidateTagged));
+    }
+
+    /**
+     * Writes every queued tag change of the current region and returns once they have landed.
+     *
+     * @throws com.amazonaws.SdkClientException the first failed write; transient failures stay queued
+     */
+    public static void flushTags(){
+        tags().flush();
+    }
+
+    private static void invalidateTagged(String resourceId){
+        if (resourceId.startsWith("vpc-"))
+            cache.invalidate(InventoryCache.Type.VPC, resourceId);
+        else if (resourceId.startsWith("subnet-"))
+            cache.invalidateAll(InventoryCache.Type.SUBNET);
+        else if (resourceId.startsWith("rtb-"))
+            cache.invalidateAll(InventoryCache.Type.ROUTE_TABLE);
+        else if (resourceId.startsWith("i-"))
+            cache.invalidate(InventoryCache.Type.INSTANCE, resourceId);
+        else if (resourceId.startsWith("vol-"))
+            cache.invalidate(InventoryCache.Type.VOLUME, resourceId);
+        else if (resourceId.startsWith("snap-"))
+            cache.invalidate(InventoryCache.Type.SNAPSHOT, resourceId);
+    }
+
+    /**
+     * Records every resource created or deleted through App in the given journal; null turns journaling off.
+     */
+    public static void useJournal(ResourceJournal resourceJournal){
+        journal = resourceJournal;
+    }
+
+    /**
+     * Runs a create step at most once per journal. If the step already completed, its recorded resource ID is
+     * returned without calling AWS; if an earlier run began it, the create call reuses that run's client token.
+     */
+    public static String journaled(String step, ResourceJournal.Kind kind, Supplier<String> create){
+        ResourceJournal current = journal;
+        if (current == null)
+            return create.get();
+        ResourceJournal.Entry done = current.completed(step);
+        if (done != null) {
+            Log.event("journal.step_skipped", "step", step, "resourceId", done.getResourceId());
+            return done.getResourceId();
+        }
+        current.begin(step);
+        String previous = journalStep.get();
+        journalStep.set(step);
         try {
-            credentials = new PropertiesCredentials(awsCredentialsFile);
-        } catch (IOException e) {
-            e.printStackTrace();
+            String resourceId = create.get();
+            if (current.completed(step) == null)
+                current.created(step, kind, resourceId, null);
+            return resourceId;
+        } finally {
+            journalStep.set(previous);
+        }
+    }
+
+    /**
+     * Client token of the journaled step running on this thread, so a resumed run reuses it; a fresh one outside
+     * a step. Either way retries and hedged duplicates of the call are deduplicated by EC2.
+     */
+    static String clientToken(){
+        ResourceJournal current = journal;
+        String step = journalStep.get();
+        return current == null || step == null ? ClientTokenRequestHandler.newToken() : current.begin(step);
+    }
+
+    private static void journalCreated(ResourceJournal.Kind kind, String resourceId, String parentId){
+        journalCreated(journalStep.get(), kind, resourceId, parentId);
+    }
+
+    // For resources created on worker threads, which do not see the caller's step
+    private static void journalCreated(String step, ResourceJournal.Kind kind, String resourceId, String parentId){
+        ResourceJournal current = journal;
+        if (current != null)
+            current.created(step, kind, resourceId, parentId);
+    }
+
+    private static void journalDeleted(String resourceId){
+        ResourceJournal current = journal;
+        if (current != null)
+            current.deleted(resourceId);
+    }
+
+    /**
+     * Deletes every live resource in the journal in parallel, in reverse dependency order, without describing
+     * the account.
+     */
+    public static TaskGraph.Result teardownFromJournal(){
+        ResourceJournal current = journal;
+        if (current == null)
+            throw new IllegalStateException("No journal in use");
+        TeardownEngine engine = new TeardownEngine(ec2(), new ResourceDeleter(ec2(), elb(), waiter()));
+        TaskGraph.Result result = engine.teardown(current.getLiveResources(), current::deleted);
+        cache.clear();
+        return result;
+    }
+
+    /**
+     * Deletes a VPC and everything in it that would block its deletion, load balancers and target groups included.
+     */
+    public static TaskGraph.Result teardownVpc(String vpcId){
+        TeardownEngine engine = new TeardownEngine(ec2(), elb(), new ResourceDeleter(ec2(), elb(), waiter()),
+                TeardownEngine.DEFAULT_PARALLELISM);
+        TaskGraph.Result result = engine.teardown(engine.discoverVpc(vpcId), App::journalDeleted);
+        cache.clear();
+        return result;
+    }
+
+    /**
+     * Deletes every EC2 resource carrying the given tag.
+     */
+    public static TaskGraph.Result teardownTagged(String key, String value){
+        TeardownEngine engine = new TeardownEngine(ec2(), new ResourceDeleter(ec2(), null, waiter()));
+        TaskGraph.Result result = engine.teardown(engine.discoverTagged(key, value), App::journalDeleted);
+        cache.clear();
+        return result;
+    }
+
+    /**
+     * Converges the current region to the desired state; see {@link StateReconciler}.
+     */
+    public static TaskGraph.Result reconcile(DesiredState state){
+        return new StateReconciler(ec2(), waiter()).reconcile(state);
+    }
+
+    public static StateReconciler.Plan planState(DesiredState state){
+        return new StateReconciler(ec2(), waiter()).plan(state);
+    }
+
+    public static Regions currentRegion(){
+        return region.get();
+    }
+
+    public static MetricsServer startMetricsServer(int port) throws IOException {
+        return new MetricsServer(port, AwsMetrics.global());
+    }
+
+    /**
+     * Like {@link #startMetricsServer(int)}, but on an explicit address, e.g. to expose it to a remote scraper.
+     */
+    public static MetricsServer startMetricsServer(InetSocketAddress address) throws IOException {
+        return new MetricsServer(address, AwsMetrics.global());
+    }
+
+    /**
+     * Starts the command socket on a loopback port with the everyday operations registered, and builds the
+     * clients up front so the first command does not pay for it. A fresh token is written to {@code tokenFile},
+     * readable by the owner only; clients send it as their first line.
+     */
+    public static CommandServer startDaemon(int port, Path tokenFile) throws IOException {
+        ec2();
+        String token = CommandServer.newToken();
+        writeOwnerOnly(tokenFile, token);
+        return new CommandServer(port, token)
+                .register("start", args -> {
+                    startInstance(args.get(0));
+                    return null;
+                })
+                .register("stop", args -> {
+                    stopInstance(args.get(0));
+                    return null;
+                })
+                .register("start-many", args -> summarize(startInstances(args).values()))
+                .register("stop-many", args -> summarize(stopInstances(args).values()))
+                .register("describe-instance", args -> describeInstance(args.get(0)).getState().getName())
+                .register("create-volume", args ->
+                        createVolume(args.get(0), Integer.parseInt(args.get(1)), args.get(2)))
+                .register("attach-volume", args -> {
+                    attachVolume(args.get(0), args.get(1), args.get(2));
+                    return null;
+                })
+                .register("snapshot", args -> createSnapshot(args.get(0), args.get(1)))
+                .registerAsync("wait", args -> waiter()
+                        .await(ResourceWaiter.Kind.valueOf(args.get(0).toUpperCase()), args.get(1), args.get(2))
+                        .thenApply(state -> null))
+                .register("flush-tags", args -> {
+                    flushTags();
+                    return null;
+                });
+    }
+
+    private static void writeOwnerOnly(Path file, String content) throws IOException {
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        Files.deleteIfExists(file);
+        try {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(
+                    EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(file);
         }
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String summarize(Collection<InstanceActionResult> results){
+        return results.stream()
+                .map(result -> result.getInstanceId() + ":" + result.getStatus())
+                .collect(Collectors.joining(" "));
+    }
+
+    public static <T> T inRegion(Regions target, Supplier<T> operation){
+        Regions previous = region.get();
+        region.set(target);
+        try {
+            return operation.get();
+        } finally {
+            region.set(previous);
+        }
+    }
+
+    public static void inRegion(Regions target, Runnable operation){
+        inRegion(target, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    public static Stream<Instance> describeInstancesInAllRegions(){
+        return clients().fanOut(client -> Paginators.instances(client).collect(Collectors.toList()));
+    }
+
+    public static Stream<Instance> streamInstances(Filter... filters){
+        return Paginators.instances(ec2(), filters);
     }
 
-    static final AmazonEC2 ec2 = AmazonEC2ClientBuilder.standard().withRegion(Regions.US_EAST_1)
-            .withCredentials(new AWSStaticCredentialsProvider(credentials)).build();
+    public static Stream<Subnet> streamSubnets(Filter... filters){
+        return Paginators.subnets(ec2(), filters);
+    }
 
-    static final AmazonElasticLoadBalancing elb = AmazonElasticLoadBalancingClientBuilder.standard().withRegion(Regions.US_EAST_1)
-            .withCredentials(new AWSStaticCredentialsProvider(credentials)).build();
+    public static Stream<Volume> streamVolumes(Filter... filters){
+        return Paginators.volumes(ec2(), filters);
+    }
+
+    public static Stream<Snapshot> streamSnapshots(Filter... filters){
+        return Paginators.snapshots(ec2(), filters);
+    }
+
+    public static Stream<SecurityGroup> streamSecurityGroups(Filter... filters){
+        return Paginators.securityGroups(ec2(), filters);
+    }
 
     public static void startInstance(String instanceId)
     {
@@ -50,11 +406,10 @@ public class App
                     return request.getDryRunRequest();
                 };
 
-        DryRunResult<StartInstancesRequest> dryResponse = ec2.dryRun(dryRequest);
+        DryRunResult<StartInstancesRequest> dryResponse = ec2().dryRun(dryRequest);
 
         if(!dryResponse.isSuccessful()) {
-            System.out.printf(
-                    "Failed dry run to start instance %s", instanceId);
+            Log.event("instance.start_dry_run_failed", "instanceId", instanceId);
 
             throw dryResponse.getDryRunResponse();
         }
@@ -62,9 +417,10 @@ public class App
         StartInstancesRequest request = new StartInstancesRequest()
                 .withInstanceIds(instanceId);
 
-        ec2.startInstances(request);
+        ec2().startInstances(request);
+        cache.invalidate(InventoryCache.Type.INSTANCE, instanceId);
 
-        System.out.printf("Successfully started instance %s", instanceId);
+        Log.event("instance.started", "instanceId", instanceId);
     }
 
     public static void stopInstance(String instanceId)
@@ -77,26 +433,53 @@ public class App
                     return request.getDryRunRequest();
                 };
 
-        DryRunResult<StopInstancesRequest> dryResponse = ec2.dryRun(dryRequest);
+        DryRunResult<StopInstancesRequest> dryResponse = ec2().dryRun(dryRequest);
 
         if(!dryResponse.isSuccessful()) {
-            System.out.printf(
-                    "Failed dry run to stop instance %s", instanceId);
+            Log.event("instance.stop_dry_run_failed", "instanceId", instanceId);
             throw dryResponse.getDryRunResponse();
         }
 
         StopInstancesRequest request = new StopInstancesRequest()
                 .withInstanceIds(instanceId);
 
-        ec2.stopInstances(request);
+        ec2().stopInstances(request);
+        cache.invalidate(InventoryCache.Type.INSTANCE, instanceId);
+
+        Log.event("instance.stopped", "instanceId", instanceId);
+    }
 
-        System.out.printf("Successfully stop instance %s", instanceId);
+    public static Map<String, InstanceActionResult> startInstances(Collection<String> instanceIds){
+        return startInstances(instanceIds, FleetController.DEFAULT_PARALLELISM);
+    }
+
+    public static Map<String, InstanceActionResult> startInstances(Collection<String> instanceIds, int parallelism){
+        Map<String, InstanceActionResult> results =
+                new FleetController(ec2(), FleetController.MAX_INSTANCE_IDS_PER_REQUEST, parallelism)
+                        .startInstances(instanceIds);
+        for (String instanceId : results.keySet())
+            cache.invalidate(InventoryCache.Type.INSTANCE, instanceId);
+        return results;
+    }
+
+    public static Map<String, InstanceActionResult> stopInstances(Collection<String> instanceIds){
+        return stopInstances(instanceIds, FleetController.DEFAULT_PARALLELISM);
+    }
+
+    public static Map<String, InstanceActionResult> stopInstances(Collection<String> instanceIds, int parallelism){
+        Map<String, InstanceActionResult> results =
+                new FleetController(ec2(), FleetController.MAX_INSTANCE_IDS_PER_REQUEST, parallelism)
+                        .stopInstances(instanceIds);
+        for (String instanceId : results.keySet())
+            cache.invalidate(InventoryCache.Type.INSTANCE, instanceId);
+        return results;
     }
 
     public static void createKeyPair(String keyName){
         CreateKeyPairRequest createKeyPairRequest = new CreateKeyPairRequest()
                 .withKeyName(keyName);
-        CreateKeyPairResult createKeyPairResult = ec2.createKeyPair(createKeyPairRequest);
+        CreateKeyPairResult createKeyPairResult = ec2().createKeyPair(createKeyPairRequest);
+        journalCreated(ResourceJournal.Kind.KEY_PAIR, keyName, null);
         KeyPair keyPair = createKeyPairResult.getKeyPair();
         String privateKey = keyPair.getKeyMaterial();
         File file = new File(keyName + ".pem");
@@ -110,7 +493,8 @@ public class App
     public static void deleteKeyPair(String keyName){
         DeleteKeyPairRequest deleteKeyPairRequest = new DeleteKeyPairRequest()
                 .withKeyName(keyName);
-        ec2.deleteKeyPair(deleteKeyPairRequest);
+        ec2().deleteKeyPair(deleteKeyPairRequest);
+        journalDeleted(keyName);
         try {
             Files.delete(Path.of(keyName + ".pem"));
         } catch (IOException e) {
@@ -131,38 +515,69 @@ public class App
 //            throw new RuntimeException(e);
 //        }
 
+        Tag tag = new Tag()
+                .withKey("Name")
+                .withValue(name);
+        TagSpecification tagSpecification = new TagSpecification()
+                .withResourceType(ResourceType.Instance)
+                .withTags(tag);
+
         RunInstancesRequest runRequest = new RunInstancesRequest()
                 .withImageId(amiId)
                 .withInstanceType(InstanceType.T2Micro)
                 .withMaxCount(1)
                 .withMinCount(1)
                 .withNetworkInterfaces(interfaceSpecification)
-                .withKeyName(keyName);
+                .withKeyName(keyName)
+                .withTagSpecifications(tagSpecification)
+                .withClientToken(clientToken());
 //                .withUserData(base64Data);
 
-        RunInstancesResult runResponse = ec2.runInstances(runRequest);
+        RunInstancesResult runResponse = ec2().runInstances(runRequest);
         String reservationId = runResponse.getReservation().getInstances().get(0).getInstanceId();
+        journalCreated(ResourceJournal.Kind.INSTANCE, reservationId, subnetId);
 
-        Tag tag = new Tag()
-                .withKey("Name")
-                .withValue(name);
-
-        CreateTagsRequest tagRequest = new CreateTagsRequest()
-                .withResources(reservationId)
-                .withTags(tag);
+        Log.event("instance.created", "instanceId", reservationId, "amiId", amiId);
+        return  reservationId;
+    }
 
-        ec2.createTags(tagRequest);
+    /**
+     * Launches {@code count} instances spread over the given subnets, falling back through the instance types in
+     * order when an AZ runs out of capacity. Returns once the count is reached or every subnet/type is exhausted.
+     */
+    public static LaunchResult launchInstances(String name, String amiId, String keyName, int count,
+                                               List<String> subnetIds, String... instanceTypes){
+        LaunchResult result = new CapacityLauncher(ec2(), amiId, subnetIds, Arrays.asList(instanceTypes))
+                .keyName(keyName)
+                .tag("Name", name)
+                .clientToken(clientToken())
+                .launch(count);
+        for (String instanceId : result.getInstanceIds())
+            journalCreated(ResourceJournal.Kind.INSTANCE, instanceId, result.getSubnetId(instanceId));
+        return result;
+    }
 
-        System.out.printf(
-                "Successfully started EC2 instance %s based on AMI %s %n",
-                reservationId, amiId);
-        return  reservationId;
+    /**
+     * Starts a warm pool of stopped instances and unassociated Elastic IPs in the current region and begins
+     * filling it. Close the pool to stop refilling.
+     */
+    public static WarmPool warmPool(String name, String amiId, String subnetId, String keyName,
+                                    int instances, int addresses){
+        Regions target = currentRegion();
+        WarmPool pool = new WarmPool(ec2(), waiter(),
+                () -> inRegion(target, () -> createInstance(name, amiId, subnetId, keyName)),
+                () -> inRegion(target, () -> createElasticAddress(name)),
+                instances, addresses);
+        pool.refill();
+        return pool;
     }
 
     public static void terminateInstance(String instanceId){
         TerminateInstancesRequest instancesRequest = new TerminateInstancesRequest()
                 .withInstanceIds(instanceId);
-        ec2.terminateInstances(instancesRequest);
+        ec2().terminateInstances(instancesRequest);
+        journalDeleted(instanceId);
+        cache.invalidate(InventoryCache.Type.INSTANCE, instanceId);
     }
 
     public static String createVpc(String name){
@@ -177,27 +592,36 @@ public class App
         tagSpecification.setResourceType(resourceType);
         CreateVpcRequest vpcRequest = new CreateVpcRequest("10.0.0.0/16")
                 .withTagSpecifications(tagSpecification);
-        CreateVpcResult vpcResult = ec2.createVpc(vpcRequest);
-        System.out.println(vpcResult.getVpc().toString());
+        CreateVpcResult vpcResult = ec2().createVpc(vpcRequest);
+        journalCreated(ResourceJournal.Kind.VPC, vpcResult.getVpc().getVpcId(), null);
+        Log.event("vpc.created", "vpcId", vpcResult.getVpc().getVpcId(), "cidr", vpcResult.getVpc().getCidrBlock());
         return vpcResult.getVpc().getVpcId();
     }
 
     public static void deleteVpc(String vpcId){
         DeleteVpcRequest deleteVpcRequest = new DeleteVpcRequest()
                 .withVpcId(vpcId);
-        ec2.deleteVpc(deleteVpcRequest);
+        ec2().deleteVpc(deleteVpcRequest);
+        journalDeleted(vpcId);
+        cache.invalidate(InventoryCache.Type.VPC, vpcId);
+        cache.invalidate(InventoryCache.Type.SUBNET, vpcId);
+        cache.invalidate(InventoryCache.Type.ROUTE_TABLE, vpcId);
     }
 
+    /**
+     * Queued on {@link #tags()} and merged with other pending tag changes, so this returns before the tags are
+     * written and does not throw when the write fails. Call {@link #flushTags()} to wait for the write and see
+     * its failure.
+     */
     public static void setVpcTag(List<Tag> tagList, String vpcId){
-        CreateTagsRequest tagsRequest = new CreateTagsRequest().withResources(vpcId);
-        tagsRequest.withTags(tagList);
-        ec2.createTags(tagsRequest);
+        tags().set(vpcId, tagList);
     }
 
+    /**
+     * Queued like {@link #setVpcTag}.
+     */
     public static void deleteVpcTag(List<Tag> tagList, String vpcId){
-        DeleteTagsRequest tagsRequest = new DeleteTagsRequest().withResources(vpcId);
-        tagsRequest.withTags(tagList);
-        ec2.deleteTags(tagsRequest);
+        tags().delete(vpcId, tagList);
     }
 
     public static String createSubnet(String name, String vpcId, String cidr, String availabilityZone){
@@ -212,8 +636,10 @@ public class App
                 .withAvailabilityZone(availabilityZone)
                 .withTagSpecifications(tagSpecification);
 
-        CreateSubnetResult subnetResult = ec2.createSubnet(subnetRequest);
-        System.out.println(subnetResult.toString());
+        CreateSubnetResult subnetResult = ec2().createSubnet(subnetRequest);
+        journalCreated(ResourceJournal.Kind.SUBNET, subnetResult.getSubnet().getSubnetId(), vpcId);
+        cache.invalidate(InventoryCache.Type.SUBNET, vpcId);
+        Log.event("subnet.created", "subnetId", subnetResult.getSubnet().getSubnetId(), "vpcId", vpcId);
         return subnetResult.getSubnet().getSubnetId();
     }
 
@@ -228,16 +654,17 @@ public class App
         CreateInternetGatewayRequest request = new CreateInternetGatewayRequest()
                 .withTagSpecifications(tagSpecification);
 
-        CreateInternetGatewayResult result = ec2.createInternetGateway(request);
-        System.out.println(result.toString());
+        CreateInternetGatewayResult result = ec2().createInternetGateway(request);
+        journalCreated(ResourceJournal.Kind.INTERNET_GATEWAY, result.getInternetGateway().getInternetGatewayId(), vpcId);
+        Log.event("igw.created", "igwId", result.getInternetGateway().getInternetGatewayId(), "vpcId", vpcId);
         AttachInternetGatewayRequest attachInternetGatewayRequest = new AttachInternetGatewayRequest()
                 .withInternetGatewayId(result.getInternetGateway().getInternetGatewayId())
                 .withVpcId(vpcId);
-        ec2.attachInternetGateway(attachInternetGatewayRequest);
+        ec2().attachInternetGateway(attachInternetGatewayRequest);
         return result.getInternetGateway().getInternetGatewayId();
     }
 
-    public static void createRouteTableWithIGW(String name, String vpcId, String subnetId, String igwId){
+    public static String createRouteTableWithIGW(String name, String vpcId, String subnetId, String igwId){
         Tag tag = new Tag()
                 .withKey("Name")
                 .withValue(name);
@@ -248,20 +675,23 @@ public class App
         CreateRouteTableRequest request = new CreateRouteTableRequest()
                 .withTagSpecifications(tagSpecification)
                 .withVpcId(vpcId);
-        CreateRouteTableResult result = ec2.createRouteTable(request);
-        System.out.println(result.toString());
+        CreateRouteTableResult result = ec2().createRouteTable(request);
+        journalCreated(ResourceJournal.Kind.ROUTE_TABLE, result.getRouteTable().getRouteTableId(), vpcId);
+        cache.invalidate(InventoryCache.Type.ROUTE_TABLE, vpcId);
+        Log.event("route_table.created", "routeTableId", result.getRouteTable().getRouteTableId(), "vpcId", vpcId);
         AssociateRouteTableRequest associateRouteTableRequest = new AssociateRouteTableRequest()
                 .withRouteTableId(result.getRouteTable().getRouteTableId())
                 .withSubnetId(subnetId);
-        ec2.associateRouteTable(associateRouteTableRequest);
+        ec2().associateRouteTable(associateRouteTableRequest);
         CreateRouteRequest createRouteRequest = new CreateRouteRequest()
                 .withRouteTableId(result.getRouteTable().getRouteTableId())
                 .withDestinationCidrBlock("0.0.0.0/0")
                 .withGatewayId(igwId);
-        ec2.createRoute(createRouteRequest);
+        ec2().createRoute(createRouteRequest);
+        return result.getRouteTable().getRouteTableId();
     }
 
-    public static void createRouteTableWithNGW(String name, String vpcId, String subnetId, String ngwId){
+    public static String createRouteTableWithNGW(String name, String vpcId, String subnetId, String ngwId){
         Tag tag = new Tag()
                 .withKey("Name")
                 .withValue(name);
@@ -272,17 +702,20 @@ public class App
         CreateRouteTableRequest request = new CreateRouteTableRequest()
                 .withTagSpecifications(tagSpecification)
                 .withVpcId(vpcId);
-        CreateRouteTableResult result = ec2.createRouteTable(request);
-        System.out.println(result.toString());
+        CreateRouteTableResult result = ec2().createRouteTable(request);
+        journalCreated(ResourceJournal.Kind.ROUTE_TABLE, result.getRouteTable().getRouteTableId(), vpcId);
+        cache.invalidate(InventoryCache.Type.ROUTE_TABLE, vpcId);
+        Log.event("route_table.created", "routeTableId", result.getRouteTable().getRouteTableId(), "vpcId", vpcId);
         AssociateRouteTableRequest associateRouteTableRequest = new AssociateRouteTableRequest()
                 .withRouteTableId(result.getRouteTable().getRouteTableId())
                 .withSubnetId(subnetId);
-        ec2.associateRouteTable(associateRouteTableRequest);
+        ec2().associateRouteTable(associateRouteTableRequest);
         CreateRouteRequest createRouteRequest = new CreateRouteRequest()
                 .withRouteTableId(result.getRouteTable().getRouteTableId())
                 .withDestinationCidrBlock("0.0.0.0/0")
                 .withNatGatewayId(ngwId);
-        ec2.createRoute(createRouteRequest);
+        ec2().createRoute(createRouteRequest);
+        return result.getRouteTable().getRouteTableId();
     }
 
     public static void allocateElasticIP(String elasticIP, String instanceId){
@@ -293,8 +726,10 @@ public class App
                         .withPublicIp(elasticIP);
 
         AssociateAddressResult associateAddressResult =
-                ec2.associateAddress(associateAddressRequest);
-        System.out.println(associateAddressResult.toString());
+                ec2().associateAddress(associateAddressRequest);
+        cache.invalidate(InventoryCache.Type.INSTANCE, instanceId);
+        Log.event("eip.associated", "associationId", associateAddressResult.getAssociationId(),
+                "instanceId", instanceId);
     }
 
     public static String createElasticAddress(String name){
@@ -307,8 +742,10 @@ public class App
         tagSpecification.setResourceType(resourceType);
         AllocateAddressRequest allocateAddressRequest = new AllocateAddressRequest()
                 .withTagSpecifications(tagSpecification);
-        AllocateAddressResult allocateAddressResult = ec2.allocateAddress(allocateAddressRequest);
-        System.out.println(allocateAddressResult.toString());
+        AllocateAddressResult allocateAddressResult = ec2().allocateAddress(allocateAddressRequest);
+        journalCreated(ResourceJournal.Kind.ELASTIC_IP, allocateAddressResult.getAllocationId(), null);
+        Log.event("eip.allocated", "allocationId", allocateAddressResult.getAllocationId(),
+                "publicIp", allocateAddressResult.getPublicIp());
         return allocateAddressResult.getAllocationId();
     }
 
@@ -324,39 +761,52 @@ public class App
                 .withTagSpecifications(tagSpecification)
                 .withSubnetId(subnetId)
                 .withConnectivityType(ConnectivityType.Public)
-                .withAllocationId(allocationId);
-        CreateNatGatewayResult result =  ec2.createNatGateway(createNatGatewayRequest);
-        System.out.println(result);
+                .withAllocationId(allocationId)
+                .withClientToken(clientToken());
+        CreateNatGatewayResult result =  ec2().createNatGateway(createNatGatewayRequest);
+        journalCreated(ResourceJournal.Kind.NAT_GATEWAY, result.getNatGateway().getNatGatewayId(), subnetId);
+        Log.event("nat.created", "natGatewayId", result.getNatGateway().getNatGatewayId(), "subnetId", subnetId);
         return result.getNatGateway().getNatGatewayId();
     }
 
     public static String createSecurityGroup(){
-        String myIp = null;
-        try{
-            URL url = new URL("http://checkip.amazonaws.com/");
-            BufferedReader br = new BufferedReader(new InputStreamReader(url.openStream()));
-            myIp = br.readLine();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        IpRange ipRange1 = new IpRange().withCidrIp(myIp+ "/32");
-        IpPermission ipPermission = new IpPermission()
-                .withIpv4Ranges(ipRange1)
+        return createSecurityGroup("TestSG", "Test SG", null);
+    }
+
+    /**
+     * Creates a group in the given VPC (the default VPC when null) that allows SSH from this host.
+     */
+    public static String createSecurityGroup(String name, String description, String vpcId){
+        CreateSecurityGroupRequest securityGroupRequest = new CreateSecurityGroupRequest()
+                .withGroupName(name)
+                .withDescription(description)
+                .withVpcId(vpcId);
+        CreateSecurityGroupResult securityGroupResult = ec2().createSecurityGroup(securityGroupRequest);
+        journalCreated(ResourceJournal.Kind.SECURITY_GROUP, securityGroupResult.getGroupId(), vpcId);
+        Log.event("security_group.created", "groupId", securityGroupResult.getGroupId());
+
+        // A new group has no ingress rules, so there is nothing to diff against; describing it right after the
+        // create could also fail while reads are still catching up. Existing groups go through the sync.
+        ec2().authorizeSecurityGroupIngress(new AuthorizeSecurityGroupIngressRequest()
+                .withGroupId(securityGroupResult.getGroupId())
+                .withIpPermissions(sshFromEgressIp()));
+        return securityGroupResult.getGroupId();
+    }
+
+    public static IpPermission sshFromEgressIp(){
+        return new IpPermission()
+                .withIpv4Ranges(new IpRange().withCidrIp(egressIp.cidr()))
                 .withIpProtocol("tcp")
                 .withFromPort(22)
                 .withToPort(22);
-        CreateSecurityGroupRequest securityGroupRequest = new CreateSecurityGroupRequest()
-                .withGroupName("TestSG")
-                .withDescription("Test SG");
-        CreateSecurityGroupResult securityGroupResult = ec2.createSecurityGroup(securityGroupRequest);
-        System.out.println(securityGroupResult.toString());
-
-        AuthorizeSecurityGroupIngressRequest authorizeSecurityGroupIngressRequest =
-                new AuthorizeSecurityGroupIngressRequest()
-                        .withGroupName("TestSG")
-                        .withIpPermissions(ipPermission);
-        ec2.authorizeSecurityGroupIngress(authorizeSecurityGroupIngressRequest);
-        return securityGroupResult.getGroupId();
+    }
+
+    /**
+     * Makes the ingress rules of each group exactly match the given permissions, sending only the difference.
+     */
+    public static Map<String, RuleSyncResult> syncSecurityGroupRules(
+            Map<String, ? extends Collection<IpPermission>> desired){
+        return new SecurityGroupSync(ec2()).sync(desired);
     }
 
     public static String createVolume(String name, int size, String az){
@@ -372,23 +822,28 @@ public class App
                 .withAvailabilityZone(az)
                 .withVolumeType(VolumeType.Gp2)
                 .withSize(size)
-                .withEncrypted(false);
-        CreateVolumeResult volumeResult = ec2.createVolume(createVolumeRequest);
-        System.out.println(volumeResult.toString());
+                .withEncrypted(false)
+                .withClientToken(clientToken());
+        CreateVolumeResult volumeResult = ec2().createVolume(createVolumeRequest);
+        journalCreated(ResourceJournal.Kind.VOLUME, volumeResult.getVolume().getVolumeId(), null);
+        Log.event("volume.created", "volumeId", volumeResult.getVolume().getVolumeId(), "az", az);
         return volumeResult.getVolume().getVolumeId();
     }
 
     public static void deleteVolume(String volumeId){
         DeleteVolumeRequest deleteVolumeRequest = new DeleteVolumeRequest()
                 .withVolumeId(volumeId);
-        ec2.deleteVolume(deleteVolumeRequest);
+        ec2().deleteVolume(deleteVolumeRequest);
+        journalDeleted(volumeId);
+        cache.invalidate(InventoryCache.Type.VOLUME, volumeId);
     }
 
     public static void modifyVolume(String volumeId, int size){
         ModifyVolumeRequest modifyVolumeRequest = new ModifyVolumeRequest()
                 .withVolumeId(volumeId)
                 .withSize(size);
-        ec2.modifyVolume(modifyVolumeRequest);
+        ec2().modifyVolume(modifyVolumeRequest);
+        cache.invalidate(InventoryCache.Type.VOLUME, volumeId);
     }
 
     public static void attachVolume(String volumeId, String instanceId, String device){
@@ -396,14 +851,31 @@ public class App
                 .withVolumeId(volumeId)
                 .withInstanceId(instanceId)
                 .withDevice(device);
-        ec2.attachVolume(attachVolumeRequest);
+        ec2().attachVolume(attachVolumeRequest);
+        cache.invalidate(InventoryCache.Type.VOLUME, volumeId);
+        cache.invalidate(InventoryCache.Type.INSTANCE, instanceId);
+    }
+
+    /**
+     * Creates a volume for each (instance, device) pair and attaches it as soon as it is available.
+     */
+    public static List<VolumeAttachmentResult> createAndAttachVolumes(List<VolumePipeline.Spec> specs){
+        List<VolumeAttachmentResult> results = new VolumePipeline(ec2(), waiter()).createAndAttach(specs);
+        for (VolumeAttachmentResult result : results) {
+            if (result.getVolumeId() != null)
+                cache.invalidate(InventoryCache.Type.VOLUME, result.getVolumeId());
+            cache.invalidate(InventoryCache.Type.INSTANCE, result.getInstanceId());
+        }
+        return results;
     }
 
     public static void detachVolume(String volumeId){
         DetachVolumeRequest detachVolumeRequest = new DetachVolumeRequest()
                 .withVolumeId(volumeId)
                 .withForce(true);
-        ec2.detachVolume(detachVolumeRequest);
+        ec2().detachVolume(detachVolumeRequest);
+        cache.invalidate(InventoryCache.Type.VOLUME, volumeId);
+        cache.invalidateAll(InventoryCache.Type.INSTANCE);
     }
 
     public static String createSnapshot(String name, String volumeId){
@@ -418,24 +890,39 @@ public class App
                 .withTagSpecifications(tagSpecification)
                 .withVolumeId(volumeId)
                 .withDescription("SnapShot of volume");
-        CreateSnapshotResult createSnapshotResult = ec2.createSnapshot(createSnapshotRequest);
-        System.out.println(createSnapshotResult.toString());
-        DescribeSnapshotsRequest describeSnapshotsRequest = new DescribeSnapshotsRequest()
-                .withSnapshotIds(createSnapshotResult.getSnapshot().getSnapshotId());
-        Snapshot snapshot = null;
-        do{
-            snapshot = ec2.describeSnapshots(describeSnapshotsRequest).getSnapshots().get(0);
-            if(snapshot.getState().equals("error")){
-                System.out.println("Error creating snapshot.");
-                break;
-            }
-            if(snapshot.getState().equals("completed")){
-                System.out.println("Completed creating snapshot.");
-            }
-        }while (!snapshot.getState().equals("completed"));
+        CreateSnapshotResult createSnapshotResult = ec2().createSnapshot(createSnapshotRequest);
+        journalCreated(ResourceJournal.Kind.SNAPSHOT, createSnapshotResult.getSnapshot().getSnapshotId(), volumeId);
+        Log.event("snapshot.created", "snapshotId", createSnapshotResult.getSnapshot().getSnapshotId(),
+                "volumeId", volumeId);
+        try {
+            waiter().await(ResourceWaiter.Kind.SNAPSHOT, createSnapshotResult.getSnapshot().getSnapshotId(), "completed")
+                    .join();
+            Log.event("snapshot.completed", "snapshotId", createSnapshotResult.getSnapshot().getSnapshotId());
+        } catch (CompletionException e) {
+            Log.event("snapshot.failed", "snapshotId", createSnapshotResult.getSnapshot().getSnapshotId(),
+                    "error", e.getCause());
+        }
         return createSnapshotResult.getSnapshot().getSnapshotId();
     }
 
+    /**
+     * Starts a snapshot of each volume in parallel; use {@link SnapshotFanOut.SnapshotSet#await} to track them.
+     */
+    public static SnapshotFanOut.SnapshotSet snapshotVolumes(Collection<String> volumeIds, String description){
+        return new SnapshotFanOut(ec2(), waiter()).snapshotVolumes(volumeIds, description);
+    }
+
+    /**
+     * Starts a crash-consistent snapshot set of all volumes of each instance.
+     */
+    public static SnapshotFanOut.SnapshotSet snapshotInstances(Collection<String> instanceIds, String description){
+        return new SnapshotFanOut(ec2(), waiter()).snapshotInstances(instanceIds, description);
+    }
+
+    public static void waitFor(ResourceWaiter.Kind kind, String resourceId, String targetState){
+        waiter().await(kind, resourceId, targetState).join();
+    }
+
     public static String createVolumeFromSnapshot(String name, String snapshotId, String az){
         Tag tag = new Tag()
                 .withKey("Name")
@@ -447,12 +934,24 @@ public class App
         CreateVolumeRequest createVolumeRequest = new CreateVolumeRequest()
                 .withTagSpecifications(tagSpecification)
                 .withSnapshotId(snapshotId)
-                .withAvailabilityZone(az);
-        CreateVolumeResult volumeResult = ec2.createVolume(createVolumeRequest);
-        System.out.println(volumeResult);
+                .withAvailabilityZone(az)
+                .withClientToken(clientToken());
+        CreateVolumeResult volumeResult = ec2().createVolume(createVolumeRequest);
+        journalCreated(ResourceJournal.Kind.VOLUME, volumeResult.getVolume().getVolumeId(), snapshotId);
+        Log.event("volume.created", "volumeId", volumeResult.getVolume().getVolumeId(), "snapshotId", snapshotId);
         return volumeResult.getVolume().getVolumeId();
     }
 
+    /**
+     * Restores one volume per snapshot and returns once they are all available.
+     */
+    public static List<ResourceResult> createVolumesFromSnapshots(Collection<String> snapshotIds, String az){
+        return new SnapshotFanOut(ec2(), waiter()).restore(snapshotIds, az);
+    }
+
+    /**
+     * Creates a TCP:80 instance target group, registers the given instances and returns the group's ARN.
+     */
     public static String createTargetGroup(String name, String vpcId, String... instanceIds){
         CreateTargetGroupRequest createTargetGroupRequest = new CreateTargetGroupRequest()
                 .withTargetType(TargetTypeEnum.Instance)
@@ -462,38 +961,154 @@ public class App
                 .withPort(80)
                 .withVpcId(vpcId)
                 .withHealthCheckProtocol(ProtocolEnum.TCP);
-        CreateTargetGroupResult createTargetGroupResult = elb.createTargetGroup(createTargetGroupRequest);
-        List<TargetDescription> targetDescriptions = new ArrayList<>();
-        for(String instanceId : instanceIds)
-            targetDescriptions.add(new TargetDescription().withId(instanceId));
-        RegisterTargetsRequest registerTargetsRequest = new RegisterTargetsRequest()
-                .withTargets(targetDescriptions)
-                .withTargetGroupArn(createTargetGroupResult.getTargetGroups().get(0).getTargetGroupArn());
-        elb.registerTargets(registerTargetsRequest);
-        System.out.println(createTargetGroupResult);
-        return createTargetGroupResult.getTargetGroups().toString();
+        CreateTargetGroupResult createTargetGroupResult = elb().createTargetGroup(createTargetGroupRequest);
+        String targetGroupArn = createTargetGroupResult.getTargetGroups().get(0).getTargetGroupArn();
+        journalCreated(ResourceJournal.Kind.TARGET_GROUP, targetGroupArn, vpcId);
+        if (instanceIds.length > 0) {
+            for (TargetActionResult result : reconcileTargets(
+                    Collections.singletonMap(targetGroupArn, Arrays.asList(instanceIds))).get(targetGroupArn)) {
+                if (result.isFailed())
+                    Log.event("target_group.register_failed", "targetGroupArn", targetGroupArn, "result", result);
+            }
+        }
+        Log.event("target_group.created", "targetGroupArn", targetGroupArn, "targets", instanceIds.length);
+        return targetGroupArn;
+    }
+
+    /**
+     * Registers and deregisters only what differs between each group's current and desired targets.
+     */
+    public static Map<String, List<TargetActionResult>> reconcileTargets(
+            Map<String, ? extends Collection<String>> desired){
+        return new TargetGroupReconciler(elb()).reconcile(desired);
     }
 
     public static void getSubnetsFromVpc(String vpcId){
-        DescribeSubnetsRequest describeSubnetsRequest = new DescribeSubnetsRequest()
-                .withFilters(new Filter().withName("vpc-id").withValues(vpcId));
-        DescribeSubnetsResult describeSubnetsResult = ec2.describeSubnets(describeSubnetsRequest);
-        System.out.println(describeSubnetsResult.getSubnets());
+        for (Subnet subnet : getSubnets(vpcId))
+            Log.event("subnet", "subnetId", subnet.getSubnetId(), "cidr", subnet.getCidrBlock(),
+                    "az", subnet.getAvailabilityZone());
     }
 
-    // Pending
-    public static void createLoadBalancer(String name, LoadBalancerTypeEnum type, LoadBalancerSchemeEnum scheme){
+    public static List<Subnet> getSubnets(String vpcId){
+        return cache.get(InventoryCache.Type.SUBNET, vpcId, () -> Collections.unmodifiableList(
+                streamSubnets(new Filter().withName("vpc-id").withValues(vpcId)).collect(Collectors.toList())));
+    }
 
-        CreateLoadBalancerRequest createLoadBalancerRequest = new CreateLoadBalancerRequest()
-                .withTags(new com.amazonaws.services.elasticloadbalancingv2.model.Tag().withKey("Name").withValue(name))
-                .withName(name)
-                .withType(type)
-                .withScheme(scheme)
-                .withSubnetMappings();
+    public static List<RouteTable> getRouteTables(String vpcId){
+        return cache.get(InventoryCache.Type.ROUTE_TABLE, vpcId, () -> {
+            DescribeRouteTablesRequest describeRouteTablesRequest = new DescribeRouteTablesRequest()
+                    .withFilters(new Filter().withName("vpc-id").withValues(vpcId));
+            return Collections.unmodifiableList(ec2().describeRouteTables(describeRouteTablesRequest).getRouteTables());
+        });
+    }
+
+    public static Vpc describeVpc(String vpcId){
+        return cache.get(InventoryCache.Type.VPC, vpcId, () -> {
+            DescribeVpcsRequest describeVpcsRequest = new DescribeVpcsRequest()
+                    .withFilters(new Filter().withName("vpc-id").withValues(vpcId));
+            List<Vpc> vpcs = ec2().describeVpcs(describeVpcsRequest).getVpcs();
+            return vpcs.isEmpty() ? null : vpcs.get(0);
+        });
+    }
+
+    public static Instance describeInstance(String instanceId){
+        return cache.get(InventoryCache.Type.INSTANCE, instanceId, () -> {
+            DescribeInstancesRequest describeInstancesRequest = new DescribeInstancesRequest()
+                    .withFilters(new Filter().withName("instance-id").withValues(instanceId));
+            for (Reservation reservation : ec2().describeInstances(describeInstancesRequest).getReservations())
+                for (Instance instance : reservation.getInstances())
+                    return instance;
+            return null;
+        });
+    }
+
+    public static Volume describeVolume(String volumeId){
+        return cache.get(InventoryCache.Type.VOLUME, volumeId, () -> {
+            DescribeVolumesRequest describeVolumesRequest = new DescribeVolumesRequest()
+                    .withFilters(new Filter().withName("volume-id").withValues(volumeId));
+            List<Volume> volumes = ec2().describeVolumes(describeVolumesRequest).getVolumes();
+            return volumes.isEmpty() ? null : volumes.get(0);
+        });
+    }
+
+    public static Snapshot describeSnapshot(String snapshotId){
+        return cache.get(InventoryCache.Type.SNAPSHOT, snapshotId, () -> {
+            DescribeSnapshotsRequest describeSnapshotsRequest = new DescribeSnapshotsRequest()
+                    .withFilters(new Filter().withName("snapshot-id").withValues(snapshotId));
+            List<Snapshot> snapshots = ec2().describeSnapshots(describeSnapshotsRequest).getSnapshots();
+            return snapshots.isEmpty() ? null : snapshots.get(0);
+        });
     }
 
-    public static void main( String[] args )
+    /**
+     * Creates a load balancer across one subnet per AZ of the VPC, a target group with the given instances and a
+     * listener forwarding to it on the same port, and returns the load balancer's ARN once it is active.
+     * Network load balancers use TCP, application load balancers HTTP.
+     */
+    public static String createLoadBalancer(String name, String vpcId, LoadBalancerTypeEnum type,
+                                            LoadBalancerSchemeEnum scheme, int port, String... instanceIds){
+        Regions target = region.get();
+        String step = journalStep.get();
+        ProtocolEnum protocol = type == LoadBalancerTypeEnum.Application ? ProtocolEnum.HTTP : ProtocolEnum.TCP;
+        TaskGraph.Result result = new LoadBalancerStack(elb(), () -> inRegion(target, () -> getSubnets(vpcId)),
+                name, vpcId, type, scheme)
+                // The load balancer is the step's output; target groups are recorded without completing it
+                .onCreated((kind, resourceId) -> journalCreated(
+                        kind == ResourceJournal.Kind.LOAD_BALANCER ? step : null, kind, resourceId, vpcId))
+                .targetGroup(name + "-tg", protocol, port, instanceIds)
+                .listener(protocol, port, name + "-tg")
+                .provision();
+        return result.get(LoadBalancerStack.LOAD_BALANCER);
+    }
+
+    /**
+     * Reads the properties credentials file once, on first use. A missing file lets the chain fall through.
+     */
+    static class FileCredentialsProvider implements AWSCredentialsProvider {
+        private final File file;
+        private volatile AWSCredentials credentials;
+
+        FileCredentialsProvider(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public AWSCredentials getCredentials() {
+            AWSCredentials loaded = credentials;
+            if (loaded == null) {
+                try {
+                    loaded = new PropertiesCredentials(file);
+                } catch (IOException | IllegalArgumentException e) {
+                    throw new SdkClientException("Unable to load credentials from " + file, e);
+                }
+                credentials = loaded;
+            }
+            return loaded;
+        }
+
+        @Override
+        public void refresh() {
+            credentials = null;
+        }
+    }
+
+    public static void main( String[] args ) throws Exception
     {
+        // Long-running mode: java org.example.App daemon [port]; clients authenticate with the token file
+        if (args.length > 0 && "daemon".equals(args[0])) {
+            CommandServer daemon = startDaemon(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DAEMON_PORT,
+                    Path.of(DEFAULT_DAEMON_TOKEN_FILE));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    daemon.close();
+                } catch (IOException e) {
+                    Log.event("daemon.close_failed", "error", e);
+                }
+                flushTags();
+            }));
+            Thread.currentThread().join();
+        }
+
         // Start/Stop Instance
 //        boolean start = false;
 //        String instanceId = "instanceId";
@@ -545,12 +1160,22 @@ public class App
         // Create NAT Gateway
 //        String natGId = createNATGateway("testNAT", subnetId, allocationId);
 
-        //For Sleep
-//        try {
-//            TimeUnit.SECONDS.sleep(190);
-//        } catch (InterruptedException e) {
-//            e.printStackTrace();
-//        }
+        // Wait for NAT Gateway
+//        waitFor(ResourceWaiter.Kind.NAT_GATEWAY, natGId, "available");
+
+        // Provision the same network as a dependency graph, independent steps run in parallel
+//        TaskGraph.Result topology = new TopologyBuilder()
+//                .vpc("vpc", "testVPC")
+//                .subnet("public-a", "vpc", "10.0.0.0/27", "us-east-1a")
+//                .subnet("private-a", "vpc", "10.0.0.32/27", "us-east-1a")
+//                .internetGateway("igw", "vpc")
+//                .publicRouteTable("public-rt", "vpc", "public-a", "igw")
+//                .elasticIp("nat-eip")
+//                .natGateway("nat", "public-a", "nat-eip")
+//                .privateRouteTable("private-rt", "vpc", "private-a", "nat")
+//                .keyPair("keypair", "keypair")
+//                .instance("testInstance", "ami-0f9fc25dd2506cf6d", "public-a", "keypair")
+//                .provision(8);
 
         // endpoints pending
 
@@ -558,17 +1183,20 @@ public class App
 //        String volumeId = createVolume("testVolume", 50, "us-east-1a");
 //        deleteVolume("vol-01d8e8933647c9cd8");
 //        modifyVolume("vol-01d8e8933647c9cd8", 10);
-//        try {
-//            System.out.println("Waiting for 10 seconds...");
-//            TimeUnit.SECONDS.sleep(10);
-//        } catch (InterruptedException e) {
-//            e.printStackTrace();
-//        }
+//        waitFor(ResourceWaiter.Kind.VOLUME, volumeId, "available");
 //        attachVolume(volumeId, instanceId, "/dev/sdf");
+//        List<VolumeAttachmentResult> dataDisks = createAndAttachVolumes(Arrays.asList(
+//                new VolumePipeline.Spec(instanceId, "/dev/sdg", 8),
+//                new VolumePipeline.Spec(instanceId, "/dev/sdh", 8)));
 //        detachVolume(volumeId);
 
 //        String snapshotId = createSnapshot("testSnapshot", volumeId);
 
+        // Remove the whole test environment, independent resources in parallel
+//        System.out.println(teardownVpc(vpcId));
+//        List<ResourceResult> backups = snapshotInstances(Arrays.asList(instanceId), "nightly")
+//                .await(TimeUnit.SECONDS.toMillis(15), TimeUnit.HOURS.toMillis(2));
+
 //        try {
 //            System.out.println("Waiting for 30 seconds...");
 //            TimeUnit.SECONDS.sleep(30);
@@ -583,7 +1211,8 @@ public class App
 //        createTargetGroup("testTargetGroup", "vpc-095d922694dfe4936", "i-0adbd2db81ca26eca");
 
         // Create Load Balancer
-//        createLoadBalancer("TestLB", "arn:aws:elasticloadbalancing:us-east-1:141259127249:targetgroup/testTargetGroup/597755878d45d261")
+//        createLoadBalancer("TestLB", "vpc-095d922694dfe4936", LoadBalancerTypeEnum.Network,
+//                LoadBalancerSchemeEnum.InternetFacing, 80, "i-0adbd2db81ca26eca");
 
     }
 }
@@ -0,0 +1,192 @@
+package org.example;
+
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.elasticloadbalancingv2.model.LoadBalancerSchemeEnum;
+import com.amazonaws.services.elasticloadbalancingv2.model.LoadBalancerTypeEnum;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking facade over {@link App}. Every operation is submitted to a bounded executor
+ * and returns a {@link CompletableFuture} instead of blocking the caller.
+ */
+public class AppAsync implements AutoCloseable {
+
+    static final int DEFAULT_THREADS = 32;
+
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+
+    public AppAsync() {
+        this(DEFAULT_THREADS);
+    }
+
+    public AppAsync(int threads) {
+        this.ownedExecutor = newBoundedExecutor(threads);
+        this.executor = ownedExecutor;
+    }
+
+    /**
+     * Runs operations on a caller-supplied executor, e.g. a virtual-thread-per-task executor on newer JDKs.
+     */
+    public AppAsync(Executor executor) {
+        this.ownedExecutor = null;
+        this.executor = executor;
+    }
+
+    static ExecutorService newBoundedExecutor(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "app-async-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    // The caller's region is captured at submit time so the operation targets the same region on the pool thread
+    private <T> CompletableFuture<T> supply(Supplier<T> operation) {
+        Regions region = App.currentRegion();
+        return CompletableFuture.supplyAsync(() -> App.inRegion(region, operation), executor);
+    }
+
+    private CompletableFuture<Void> run(Runnable operation) {
+        Regions region = App.currentRegion();
+        return CompletableFuture.runAsync(() -> App.inRegion(region, operation), executor);
+    }
+
+    public CompletableFuture<Void> startInstance(String instanceId) {
+        return run(() -> App.startInstance(instanceId));
+    }
+
+    public CompletableFuture<Void> stopInstance(String instanceId) {
+        return run(() -> App.stopInstance(instanceId));
+    }
+
+    public CompletableFuture<Map<String, InstanceActionResult>> startInstances(Collection<String> instanceIds) {
+        return supply(() -> App.startInstances(instanceIds));
+    }
+
+    public CompletableFuture<Map<String, InstanceActionResult>> stopInstances(Collection<String> instanceIds) {
+        return supply(() -> App.stopInstances(instanceIds));
+    }
+
+    public CompletableFuture<Void> createKeyPair(String keyName) {
+        return run(() -> App.createKeyPair(keyName));
+    }
+
+    public CompletableFuture<Void> deleteKeyPair(String keyName) {
+        return run(() -> App.deleteKeyPair(keyName));
+    }
+
+    public CompletableFuture<String> createInstance(String name, String amiId, String subnetId, String keyName) {
+        return supply(() -> App.createInstance(name, amiId, subnetId, keyName));
+    }
+
+    public CompletableFuture<Void> terminateInstance(String instanceId) {
+        return run(() -> App.terminateInstance(instanceId));
+    }
+
+    public CompletableFuture<String> createVpc(String name) {
+        return supply(() -> App.createVpc(name));
+    }
+
+    public CompletableFuture<Void> deleteVpc(String vpcId) {
+        return run(() -> App.deleteVpc(vpcId));
+    }
+
+    public CompletableFuture<Void> setVpcTag(List<Tag> tagList, String vpcId) {
+        return run(() -> App.setVpcTag(tagList, vpcId));
+    }
+
+    public CompletableFuture<Void> deleteVpcTag(List<Tag> tagList, String vpcId) {
+        return run(() -> App.deleteVpcTag(tagList, vpcId));
+    }
+
+    public CompletableFuture<String> createSubnet(String name, String vpcId, String cidr, String availabilityZone) {
+        return supply(() -> App.createSubnet(name, vpcId, cidr, availabilityZone));
+    }
+
+    public CompletableFuture<String> createIGW(String name, String vpcId) {
+        return supply(() -> App.createIGW(name, vpcId));
+    }
+
+    public CompletableFuture<String> createRouteTableWithIGW(String name, String vpcId, String subnetId, String igwId) {
+        return supply(() -> App.createRouteTableWithIGW(name, vpcId, subnetId, igwId));
+    }
+
+    public CompletableFuture<String> createRouteTableWithNGW(String name, String vpcId, String subnetId, String ngwId) {
+        return supply(() -> App.createRouteTableWithNGW(name, vpcId, subnetId, ngwId));
+    }
+
+    public CompletableFuture<Void> allocateElasticIP(String elasticIP, String instanceId) {
+        return run(() -> App.allocateElasticIP(elasticIP, instanceId));
+    }
+
+    public CompletableFuture<String> createElasticAddress(String name) {
+        return supply(() -> App.createElasticAddress(name));
+    }
+
+    public CompletableFuture<String> createNATGateway(String name, String subnetId, String allocationId) {
+        return supply(() -> App.createNATGateway(name, subnetId, allocationId));
+    }
+
+    public CompletableFuture<String> createSecurityGroup() {
+        return supply(App::createSecurityGroup);
+    }
+
+    public CompletableFuture<String> createVolume(String name, int size, String az) {
+        return supply(() -> App.createVolume(name, size, az));
+    }
+
+    public CompletableFuture<Void> deleteVolume(String volumeId) {
+        return run(() -> App.deleteVolume(volumeId));
+    }
+
+    public CompletableFuture<Void> modifyVolume(String volumeId, int size) {
+        return run(() -> App.modifyVolume(volumeId, size));
+    }
+
+    public CompletableFuture<Void> attachVolume(String volumeId, String instanceId, String device) {
+        return run(() -> App.attachVolume(volumeId, instanceId, device));
+    }
+
+    public CompletableFuture<Void> detachVolume(String volumeId) {
+        return run(() -> App.detachVolume(volumeId));
+    }
+
+    public CompletableFuture<String> createSnapshot(String name, String volumeId) {
+        return supply(() -> App.createSnapshot(name, volumeId));
+    }
+
+    public CompletableFuture<String> createVolumeFromSnapshot(String name, String snapshotId, String az) {
+        return supply(() -> App.createVolumeFromSnapshot(name, snapshotId, az));
+    }
+
+    public CompletableFuture<String> createTargetGroup(String name, String vpcId, String... instanceIds) {
+        return supply(() -> App.createTargetGroup(name, vpcId, instanceIds));
+    }
+
+    public CompletableFuture<Void> getSubnetsFromVpc(String vpcId) {
+        return run(() -> App.getSubnetsFromVpc(vpcId));
+    }
+
+    public CompletableFuture<String> createLoadBalancer(String name, String vpcId, LoadBalancerTypeEnum type,
+                                                        LoadBalancerSchemeEnum scheme, int port, String... instanceIds) {
+        return supply(() -> App.createLoadBalancer(name, vpcId, type, scheme, port, instanceIds));
+    }
+
+    @Override
+    public void close() {
+        if (ownedExecutor != null)
+            ownedExecutor.shutdown();
+    }
+}
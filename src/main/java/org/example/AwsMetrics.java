@@ -0,0 +1,167 @@
+package org.example;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-API-action call metrics: latency histogram, errors, throttles, retries and in-flight requests.
+ * Every action is registered as an MXBean under {@code org.example:type=AwsOperation,name=<action>}
+ * and the whole set can be rendered in Prometheus text format.
+ */
+public class AwsMetrics {
+
+    private static final AwsMetrics GLOBAL = new AwsMetrics(true);
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final boolean registerMBeans;
+
+    AwsMetrics(boolean registerMBeans) {
+        this.registerMBeans = registerMBeans;
+    }
+
+    public static AwsMetrics global() {
+        return GLOBAL;
+    }
+
+    public Operation operation(String action) {
+        Operation operation = operations.get(action);
+        if (operation == null) {
+            operation = operations.computeIfAbsent(action, Operation::new);
+            if (registerMBeans)
+                register(operation);
+        }
+        return operation;
+    }
+
+    public Map<String, Operation> getOperations() {
+        return new TreeMap<>(operations);
+    }
+
+    private static void register(Operation operation) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.example:type=AwsOperation,name=" + ObjectName.quote(operation.action));
+            if (!server.isRegistered(name))
+                server.registerMBean(operation, name);
+        } catch (Exception e) {
+            Log.event("metrics.jmx_failed", "action", operation.action, "error", e.toString());
+        }
+    }
+
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE aws_request_duration_seconds summary\n");
+        for (Operation op : getOperations().values()) {
+            for (double quantile : new double[]{0.5, 0.9, 0.99})
+                sb.append("aws_request_duration_seconds{action=\"").append(op.action).append("\",quantile=\"")
+                        .append(quantile).append("\"} ").append(op.latency.getPercentile(quantile * 100) / 1e6)
+                        .append('\n');
+            sb.append("aws_request_duration_seconds_sum{action=\"").append(op.action).append("\"} ")
+                    .append(op.latency.getSum() / 1e6).append('\n');
+            sb.append("aws_request_duration_seconds_count{action=\"").append(op.action).append("\"} ")
+                    .append(op.latency.getCount()).append('\n');
+        }
+        counter(sb, "aws_request_errors_total", Operation::getErrors);
+        counter(sb, "aws_request_throttles_total", Operation::getThrottles);
+        counter(sb, "aws_request_retries_total", Operation::getRetries);
+        sb.append("# TYPE aws_requests_in_flight gauge\n");
+        for (Operation op : getOperations().values())
+            sb.append("aws_requests_in_flight{action=\"").append(op.action).append("\"} ")
+                    .append(op.getInFlight()).append('\n');
+        return sb.toString();
+    }
+
+    private void counter(StringBuilder sb, String name, java.util.function.ToLongFunction<Operation> value) {
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (Operation op : getOperations().values())
+            sb.append(name).append("{action=\"").append(op.action).append("\"} ")
+                    .append(value.applyAsLong(op)).append('\n');
+    }
+
+    public interface OperationMXBean {
+        long getCount();
+
+        long getErrors();
+
+        long getThrottles();
+
+        long getRetries();
+
+        long getInFlight();
+
+        long getP50Micros();
+
+        long getP90Micros();
+
+        long getP99Micros();
+
+        long getMaxMicros();
+    }
+
+    public static class Operation implements OperationMXBean {
+        final String action;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong throttles = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong inFlight = new AtomicLong();
+
+        Operation(String action) {
+            this.action = action;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.get();
+        }
+
+        @Override
+        public long getThrottles() {
+            return throttles.get();
+        }
+
+        @Override
+        public long getRetries() {
+            return retries.get();
+        }
+
+        @Override
+        public long getInFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public long getP50Micros() {
+            return latency.getPercentile(50);
+        }
+
+        @Override
+        public long getP90Micros() {
+            return latency.getPercentile(90);
+        }
+
+        @Override
+        public long getP99Micros() {
+            return latency.getPercentile(99);
+        }
+
+        @Override
+        public long getMaxMicros() {
+            return latency.getMax();
+        }
+    }
+}
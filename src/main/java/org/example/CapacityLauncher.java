@@ -0,0 +1,220 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Launches many instances across several subnets (and so AZs) at once. The count is split evenly over the
+ * subnets and each subnet launches its share concurrently with MinCount=1/MaxCount batches, tagged at launch.
+ * When a subnet runs out of capacity for an instance type it falls back to the next type in the list; whatever a
+ * subnet could not launch with any type is spread over the subnets that still have capacity in the next round.
+ * Any other error stops the launch and is returned with the instances launched so far.
+ */
+public class CapacityLauncher {
+
+    static final int MAX_BATCH = 100;
+    static final Set<String> CAPACITY_ERRORS = new HashSet<>(Arrays.asList(
+            "InsufficientInstanceCapacity", "InsufficientCapacity", "Unsupported"));
+    static final Set<String> ACCOUNT_LIMIT_ERRORS = new HashSet<>(Arrays.asList(
+            "InstanceLimitExceeded", "VcpuLimitExceeded"));
+
+    private final AmazonEC2 ec2;
+    private final String amiId;
+    private final List<String> subnetIds;
+    private final List<String> instanceTypes;
+    private final List<Tag> tags = new ArrayList<>();
+    private String keyName;
+    private int batchSize = MAX_BATCH;
+    private String clientToken;
+
+    /**
+     * @param instanceTypes in order of preference
+     */
+    public CapacityLauncher(AmazonEC2 ec2, String amiId, List<String> subnetIds, List<String> instanceTypes) {
+        if (subnetIds.isEmpty() || instanceTypes.isEmpty())
+            throw new IllegalArgumentException("At least one subnet and one instance type are required");
+        this.ec2 = ec2;
+        this.amiId = amiId;
+        this.subnetIds = new ArrayList<>(subnetIds);
+        this.instanceTypes = new ArrayList<>(instanceTypes);
+    }
+
+    public CapacityLauncher keyName(String keyName) {
+        this.keyName = keyName;
+        return this;
+    }
+
+    public CapacityLauncher tag(String key, String value) {
+        tags.add(new Tag().withKey(key).withValue(value));
+        return this;
+    }
+
+    /**
+     * Base client token for the launch. Each RunInstances call derives its own token from it, the subnet, the
+     * instance type and its ordinal, so running the same launch again with the same token is deduplicated by
+     * EC2. A fresh token is used per launch if none is set.
+     */
+    public CapacityLauncher clientToken(String clientToken) {
+        this.clientToken = clientToken;
+        return this;
+    }
+
+    public CapacityLauncher batchSize(int batchSize) {
+        if (batchSize < 1 || batchSize > MAX_BATCH)
+            throw new IllegalArgumentException("batchSize must be between 1 and " + MAX_BATCH);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Launches up to {@code count} instances. Capacity errors move a subnet on to the next instance type; an
+     * account limit or any other error stops the launch. Either way the instances already launched are returned,
+     * with the stopping error in {@link LaunchResult#getFailure()}.
+     */
+    public LaunchResult launch(int count) {
+        long start = System.nanoTime();
+        Map<String, String> instanceIds = Collections.synchronizedMap(new LinkedHashMap<>());
+        Map<String, Integer> launched = new ConcurrentHashMap<>();
+        String baseToken = clientToken != null ? clientToken : ClientTokenRequestHandler.newToken();
+        Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        // Next instance type to try in each subnet; a subnet is done once it has tried them all
+        Map<String, AtomicInteger> typeIndex = new ConcurrentHashMap<>();
+        for (String subnetId : subnetIds)
+            typeIndex.put(subnetId, new AtomicInteger());
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(subnetIds.size());
+        boolean interrupted = false;
+        try {
+            int remaining = count;
+            while (remaining > 0 && !stopped.get()) {
+                List<String> open = new ArrayList<>();
+                for (String subnetId : subnetIds) {
+                    if (typeIndex.get(subnetId).get() < instanceTypes.size())
+                        open.add(subnetId);
+                }
+                if (open.isEmpty())
+                    break;
+
+                List<Future<Integer>> shares = new ArrayList<>();
+                for (int i = 0; i < open.size(); i++) {
+                    String subnetId = open.get(i);
+                    int share = remaining / open.size() + (i < remaining % open.size() ? 1 : 0);
+                    if (share > 0)
+                        shares.add(executor.submit(() -> launchShare(subnetId, share, typeIndex.get(subnetId),
+                                baseToken, calls, instanceIds, launched, errors, stopped, failure)));
+                }
+                for (Future<Integer> share : shares) {
+                    try {
+                        remaining -= share.get();
+                    } catch (ExecutionException e) {
+                        stopped.set(true);
+                        failure.compareAndSet(null, e.getCause() instanceof Exception
+                                ? (Exception) e.getCause() : new RuntimeException(e.getCause()));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+            stopped.set(true);
+            failure.compareAndSet(null, e);
+        } finally {
+            // Let shares in flight finish their current call, so every instance launched is in the result
+            executor.shutdown();
+            while (true) {
+                try {
+                    if (executor.awaitTermination(1, TimeUnit.MINUTES))
+                        break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        Map<String, String> subnets;
+        synchronized (instanceIds) {
+            subnets = new LinkedHashMap<>(instanceIds);
+        }
+        LaunchResult result = new LaunchResult(count, new ArrayList<>(subnets.keySet()), subnets,
+                new TreeMap<>(launched), new ArrayList<>(errors), failure.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        Log.event("instances.launched", "launched", instanceIds.size(), "requested", count,
+                "ms", result.getWallClockMillis());
+        return result;
+    }
+
+    // Returns how many of the share were launched
+    private int launchShare(String subnetId, int share, AtomicInteger typeIndex, String baseToken,
+                            Map<String, AtomicInteger> calls, Map<String, String> instanceIds,
+                            Map<String, Integer> launched, List<String> errors, AtomicBoolean stopped,
+                            AtomicReference<Exception> failure) {
+        int done = 0;
+        while (done < share && typeIndex.get() < instanceTypes.size() && !stopped.get()) {
+            String instanceType = instanceTypes.get(typeIndex.get());
+            int batch = Math.min(batchSize, share - done);
+            try {
+                String pool = subnetId + "/" + instanceType;
+                String token = UUID.nameUUIDFromBytes((baseToken + "/" + pool + "/"
+                        + calls.computeIfAbsent(pool, k -> new AtomicInteger()).getAndIncrement())
+                        .getBytes(StandardCharsets.UTF_8)).toString();
+                List<String> ids = runInstances(subnetId, instanceType, batch, token);
+                for (String instanceId : ids)
+                    instanceIds.put(instanceId, subnetId);
+                launched.merge(subnetId + "/" + instanceType, ids.size(), Integer::sum);
+                done += ids.size();
+                // A partial launch means the pool is drying up; try the next type for the rest
+                if (ids.size() < batch)
+                    typeIndex.incrementAndGet();
+            } catch (AmazonServiceException e) {
+                errors.add(subnetId + "/" + instanceType + ": " + e.getErrorCode());
+                if (CAPACITY_ERRORS.contains(e.getErrorCode())) {
+                    typeIndex.incrementAndGet();
+                } else {
+                    // An account limit, throttling that outlasted the retries or a bad request: other types and
+                    // subnets would fail the same way
+                    Log.event("instances.launch_failed", "subnetId", subnetId, "error", e.getErrorCode());
+                    stopped.set(true);
+                    if (!ACCOUNT_LIMIT_ERRORS.contains(e.getErrorCode()))
+                        failure.compareAndSet(null, e);
+                }
+            } catch (RuntimeException e) {
+                errors.add(subnetId + "/" + instanceType + ": " + e.getClass().getSimpleName());
+                Log.event("instances.launch_failed", "subnetId", subnetId, "error", e);
+                stopped.set(true);
+                failure.compareAndSet(null, e);
+            }
+        }
+        return done;
+    }
+
+    private List<String> runInstances(String subnetId, String instanceType, int count, String clientToken) {
+        RunInstancesRequest request = new RunInstancesRequest()
+                .withImageId(amiId)
+                .withInstanceType(instanceType)
+                .withMinCount(1)
+                .withMaxCount(count)
+                .withSubnetId(subnetId)
+                .withKeyName(keyName)
+                .withClientToken(clientToken);
+        if (!tags.isEmpty())
+            request.withTagSpecifications(
+                    new TagSpecification().withResourceType(ResourceType.Instance).withTags(tags),
+                    new TagSpecification().withResourceType(ResourceType.Volume).withTags(tags));
+        List<String> ids = new ArrayList<>();
+        for (Instance instance : ec2.runInstances(request).getReservation().getInstances())
+            ids.add(instance.getInstanceId());
+        return ids;
+    }
+}
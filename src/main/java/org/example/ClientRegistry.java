@@ -0,0 +1,142 @@
+package org.example;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import com.amazonaws.services.elasticloadbalancingv2.AmazonElasticLoadBalancing;
+import com.amazonaws.services.elasticloadbalancingv2.AmazonElasticLoadBalancingClientBuilder;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Region-keyed EC2 and ELBv2 clients. A client is built the first time its region is used and then reused,
+ * so each region keeps one tuned connection pool. Fan-out helpers query several regions in parallel.
+ */
+public class ClientRegistry {
+
+    static final int MAX_CONNECTIONS = 200;
+    static final long CONNECTION_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Function<Regions, AmazonEC2> ec2Factory;
+    private final Function<Regions, AmazonElasticLoadBalancing> elbFactory;
+    private final Map<Regions, AmazonEC2> ec2Clients = new ConcurrentHashMap<>();
+    private final Map<Regions, AmazonElasticLoadBalancing> elbClients = new ConcurrentHashMap<>();
+    private final List<Regions> regions;
+
+    public ClientRegistry(AWSCredentialsProvider credentialsProvider, Collection<Regions> regions) {
+        this(region -> AmazonEC2ClientBuilder.standard()
+                        .withRegion(region)
+                        .withClientConfiguration(clientConfiguration())
+                        .withCredentials(credentialsProvider)
+                        .withRequestHandlers(requestHandlers())
+                        .build(),
+                region -> AmazonElasticLoadBalancingClientBuilder.standard()
+                        .withRegion(region)
+                        .withClientConfiguration(clientConfiguration())
+                        .withCredentials(credentialsProvider)
+                        .withRequestHandlers(requestHandlers())
+                        .build(),
+                regions);
+    }
+
+    /**
+     * Points every client at a fixed endpoint instead of the regional AWS one, e.g. a local stub.
+     */
+    public static ClientRegistry forEndpoint(AWSCredentialsProvider credentialsProvider, String endpoint,
+                                             Collection<Regions> regions) {
+        return new ClientRegistry(region -> AmazonEC2ClientBuilder.standard()
+                        .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region.getName()))
+                        .withClientConfiguration(clientConfiguration())
+                        .withCredentials(credentialsProvider)
+                        .withRequestHandlers(requestHandlers())
+                        .build(),
+                region -> AmazonElasticLoadBalancingClientBuilder.standard()
+                        .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region.getName()))
+                        .withClientConfiguration(clientConfiguration())
+                        .withCredentials(credentialsProvider)
+                        .withRequestHandlers(requestHandlers())
+                        .build(),
+                regions);
+    }
+
+    ClientRegistry(Function<Regions, AmazonEC2> ec2Factory, Function<Regions, AmazonElasticLoadBalancing> elbFactory,
+                   Collection<Regions> regions) {
+        this.ec2Factory = ec2Factory;
+        this.elbFactory = elbFactory;
+        this.regions = new ArrayList<>(regions);
+    }
+
+    static ClientConfiguration clientConfiguration() {
+        return new ClientConfiguration()
+                .withMaxConnections(MAX_CONNECTIONS)
+                .withTcpKeepAlive(true)
+                .withConnectionTTL(CONNECTION_TTL_MS)
+                .withUseExpectContinue(false);
+    }
+
+    static RequestHandler2[] requestHandlers() {
+        return new RequestHandler2[]{
+                new ClientTokenRequestHandler(),
+                new MetricsRequestHandler(AwsMetrics.global()),
+                new RateLimitRequestHandler(AdaptiveRateLimiter.global())
+        };
+    }
+
+    public AmazonEC2 ec2(Regions region) {
+        return ec2Clients.computeIfAbsent(region, ec2Factory);
+    }
+
+    public AmazonElasticLoadBalancing elb(Regions region) {
+        return elbClients.computeIfAbsent(region, elbFactory);
+    }
+
+    public List<Regions> getRegions() {
+        return Collections.unmodifiableList(regions);
+    }
+
+    public boolean isInitialized(Regions region) {
+        return ec2Clients.containsKey(region) || elbClients.containsKey(region);
+    }
+
+    /**
+     * Runs the query against every configured region in parallel and merges the results into one stream.
+     * A failure in any region fails the whole call.
+     */
+    public <T> Stream<T> fanOut(Function<AmazonEC2, ? extends Collection<T>> query) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, regions.size()));
+        try {
+            List<Future<? extends Collection<T>>> futures = new ArrayList<>();
+            for (Regions region : regions)
+                futures.add(executor.submit(() -> query.apply(ec2(region))));
+            List<Collection<T>> results = new ArrayList<>();
+            for (Future<? extends Collection<T>> future : futures)
+                results.add(future.get());
+            return results.stream().flatMap(Collection::stream);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void shutdown() {
+        for (AmazonEC2 client : ec2Clients.values())
+            client.shutdown();
+        for (AmazonElasticLoadBalancing client : elbClients.values())
+            client.shutdown();
+        ec2Clients.clear();
+        elbClients.clear();
+    }
+}
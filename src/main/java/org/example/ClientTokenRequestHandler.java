@@ -0,0 +1,54 @@
+package org.example;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.ec2.model.CreateNatGatewayRequest;
+import com.amazonaws.services.ec2.model.CreateVolumeRequest;
+import com.amazonaws.services.ec2.model.CreateVpcEndpointRequest;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+
+import java.util.UUID;
+
+/**
+ * Gives every create call that supports idempotency a client token if the caller did not set one, so an SDK
+ * retry or a hedged duplicate of the same request cannot create the resource twice. The token is written into
+ * the caller's request object; build a new request for each resource you mean to create.
+ */
+public class ClientTokenRequestHandler extends RequestHandler2 {
+
+    @Override
+    public AmazonWebServiceRequest beforeExecution(AmazonWebServiceRequest request) {
+        ensureToken(request);
+        return request;
+    }
+
+    /**
+     * Sets a fresh token on requests that take one and have none; returns whether the request is idempotent.
+     */
+    static boolean ensureToken(AmazonWebServiceRequest request) {
+        if (request instanceof RunInstancesRequest) {
+            RunInstancesRequest run = (RunInstancesRequest) request;
+            if (run.getClientToken() == null)
+                run.setClientToken(newToken());
+        } else if (request instanceof CreateVolumeRequest) {
+            CreateVolumeRequest volume = (CreateVolumeRequest) request;
+            if (volume.getClientToken() == null)
+                volume.setClientToken(newToken());
+        } else if (request instanceof CreateNatGatewayRequest) {
+            CreateNatGatewayRequest natGateway = (CreateNatGatewayRequest) request;
+            if (natGateway.getClientToken() == null)
+                natGateway.setClientToken(newToken());
+        } else if (request instanceof CreateVpcEndpointRequest) {
+            CreateVpcEndpointRequest endpoint = (CreateVpcEndpointRequest) request;
+            if (endpoint.getClientToken() == null)
+                endpoint.setClientToken(newToken());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    static String newToken() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,289 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Line-oriented command socket for running the app as a long-lived daemon, so clients, caches and JIT-compiled
+ * code stay warm between operations. Listens on loopback only.
+ *
+ * <p>Loopback is reachable by every local user, so the first line of each connection must be the shared token the
+ * server was created with. Anything else gets {@code 0 ERR 0 Unauthorized} and the connection is closed.
+ *
+ * <p>Each request is one line, {@code <id> <command> [args...]}, and gets one response line,
+ * {@code <id> OK <micros> [result]} or {@code <id> ERR <micros> <code> <message>}. Requests on a connection run
+ * concurrently and responses are written as they complete, so clients can pipeline and match them up by id. A
+ * client may shut down its sending side once it has written its last request; the connection stays open until
+ * every outstanding response has been written.
+ *
+ * <p>Commands run on a fixed pool of workers. Anything that waits on AWS for longer than a call should be
+ * registered with {@link #registerAsync}, so that it holds no worker while it waits and cannot starve
+ * {@code ping}, {@code stats} and every other command.
+ */
+public class CommandServer implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface Command {
+        /**
+         * Runs the command and returns a single-line result, or null for none.
+         */
+        String run(List<String> args) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface AsyncCommand {
+        /**
+         * Starts the command and returns a future for its single-line result, or for null for none. The response
+         * is written when the future completes.
+         */
+        CompletableFuture<String> start(List<String> args) throws Exception;
+    }
+
+    static final int DEFAULT_PARALLELISM = 32;
+
+    private final ServerSocket server;
+    private final byte[] token;
+    private final ExecutorService workers;
+    private final Thread acceptor;
+    private final Map<String, AsyncCommand> commands = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentSkipListMap<>();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public CommandServer(int port, String token) throws IOException {
+        this(port, DEFAULT_PARALLELISM, token);
+    }
+
+    public CommandServer(int port, int parallelism, String token) throws IOException {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        if (token == null || token.isEmpty())
+            throw new IllegalArgumentException("token must not be empty");
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        workers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "command-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        register("ping", args -> "pong");
+        register("stats", args -> stats());
+        acceptor = new Thread(this::accept, "command-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Log.event("daemon.listening", "port", getPort());
+    }
+
+    /**
+     * Returns a random token suitable for {@link #CommandServer(int, String)}.
+     */
+    public static String newToken() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    public CommandServer register(String name, Command command) {
+        commands.put(name, args -> CompletableFuture.completedFuture(command.run(args)));
+        return this;
+    }
+
+    /**
+     * Registers a command that returns as soon as it has started its work. The worker is released right away.
+     */
+    public CommandServer registerAsync(String name, AsyncCommand command) {
+        commands.put(name, command);
+        return this;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Server-side latency of each command in microseconds, from parsing the request to writing the response.
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        return latencies;
+    }
+
+    // One space-separated entry per command: name:count:p50:p99:max, all in microseconds
+    private String stats() {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (result.length() > 0)
+                result.append(' ');
+            result.append(entry.getKey()).append(':').append(histogram.getCount())
+                    .append(':').append(histogram.getPercentile(50))
+                    .append(':').append(histogram.getPercentile(99))
+                    .append(':').append(histogram.getMax());
+        }
+        return result.toString();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                Thread reader = new Thread(() -> serve(socket), "command-connection");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!closed)
+                    Log.event("daemon.accept_failed", "error", e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Connection connection = null;
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            connection = new Connection(socket);
+            if (!authorized(in.readLine())) {
+                Log.event("daemon.unauthorized", "remote", socket.getRemoteSocketAddress());
+                connection.write("0 ERR 0 Unauthorized");
+                connection.close();
+                return;
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                long start = System.nanoTime();
+                String request = line;
+                Connection target = connection;
+                target.outstanding.incrementAndGet();
+                try {
+                    workers.execute(() -> respond(target, request, start).whenComplete((v, e) -> target.release()));
+                } catch (RejectedExecutionException e) {
+                    // Server is closing
+                    target.release();
+                }
+            }
+            // End of input: the last finishing request closes the connection
+            connection.release();
+        } catch (IOException e) {
+            if (!closed)
+                Log.event("daemon.connection_failed", "error", e);
+            if (connection != null)
+                connection.close();
+            else
+                connections.remove(socket);
+        }
+    }
+
+    private boolean authorized(String line) {
+        return line != null && MessageDigest.isEqual(token, line.trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Completes once the response has been written, or has failed to be
+    private CompletableFuture<Void> respond(Connection connection, String request, long start) {
+        String[] parts = request.trim().split("\\s+");
+        String id = parts[0];
+        String name = parts.length > 1 ? parts[1] : "";
+        AsyncCommand command = commands.get(name);
+        if (command == null) {
+            write(connection, id, "ERR", "UnknownCommand " + name, start);
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<String> result;
+        try {
+            result = command.start(Arrays.asList(parts).subList(2, parts.length));
+        } catch (Exception e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        // Finished commands are answered on this worker; the rest from a worker rather than whichever thread
+        // completed them, e.g. the resource waiter's
+        Executor writer = result.isDone() ? Runnable::run : workers;
+        return result.whenCompleteAsync((value, error) -> {
+            latencies.computeIfAbsent(name, k -> new LatencyHistogram())
+                    .record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            if (error == null)
+                write(connection, id, "OK", value == null ? "" : value, start);
+            else
+                write(connection, id, "ERR", describe(error), start);
+        }, writer).thenApply(value -> null);
+    }
+
+    private static String describe(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null)
+            error = error.getCause();
+        if (error instanceof AmazonServiceException) {
+            AmazonServiceException e = (AmazonServiceException) error;
+            return e.getErrorCode() + " " + e.getErrorMessage();
+        }
+        return error.getClass().getSimpleName() + " " + error.getMessage();
+    }
+
+    private void write(Connection connection, String id, String status, String body, long start) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        String response = id + " " + status + " " + micros + (body.isEmpty() ? "" : " " + body.replace('\n', ' '));
+        try {
+            connection.write(response);
+        } catch (IOException e) {
+            Log.event("daemon.write_failed", "id", id, "error", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Socket socket : connections)
+            socket.close();
+        workers.shutdownNow();
+    }
+
+    /**
+     * A client socket and the number of holders keeping it open: one for the reader until end of input, plus one
+     * per request that has not been answered yet.
+     */
+    private final class Connection {
+        final Socket socket;
+        final Writer out;
+        final AtomicInteger outstanding = new AtomicInteger(1);
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        synchronized void write(String line) throws IOException {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        }
+
+        void release() {
+            if (outstanding.decrementAndGet() == 0)
+                close();
+        }
+
+        void close() {
+            connections.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.event("daemon.close_failed", "error", e);
+            }
+        }
+    }
+}
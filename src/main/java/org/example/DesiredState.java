@@ -0,0 +1,174 @@
+package org.example;
+
+import java.util.*;
+
+/**
+ * Declarative description of a stack: VPCs, subnets, route tables, instances and volumes, each identified by
+ * its Name tag and referring to other resources by name. {@link StateReconciler} compares it with what exists in
+ * the account and applies only the difference.
+ *
+ * <pre>
+ * DesiredState state = new DesiredState("web")
+ *         .vpc("web-vpc", "10.0.0.0/16")
+ *         .subnet("web-a", "web-vpc", "10.0.0.0/24", "us-east-1a")
+ *         .routeTable("web-rt", "web-vpc", "web-a")
+ *         .instance("web-1", "web-a", "ami-0f9fc25dd2506cf6d", "t3.micro", "keypair")
+ *         .volume("web-1-data", 50, "web-1", "/dev/sdf")
+ *         .tag("web-1", "Owner", "ops");
+ * </pre>
+ */
+public class DesiredState {
+
+    public static class Resource {
+        private final ResourceJournal.Kind kind;
+        private final String name;
+        private final Map<String, String> attributes;
+        private final List<String> references;
+        private final Map<String, String> tags = new TreeMap<>();
+
+        Resource(ResourceJournal.Kind kind, String name, Map<String, String> attributes, List<String> references) {
+            this.kind = kind;
+            this.name = name;
+            this.attributes = attributes;
+            this.references = references;
+        }
+
+        public ResourceJournal.Kind getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String get(String attribute) {
+            return attributes.get(attribute);
+        }
+
+        /**
+         * Names of the resources this one refers to, which must exist before it can be created.
+         */
+        public List<String> getReferences() {
+            return references;
+        }
+
+        public Map<String, String> getTags() {
+            return tags;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + name;
+        }
+    }
+
+    static final String CIDR = "cidr";
+    static final String VPC = "vpc";
+    static final String SUBNET = "subnet";
+    static final String AVAILABILITY_ZONE = "availabilityZone";
+    static final String AMI = "ami";
+    static final String INSTANCE_TYPE = "instanceType";
+    static final String KEY_NAME = "keyName";
+    static final String SIZE = "size";
+    static final String INSTANCE = "instance";
+    static final String DEVICE = "device";
+
+    private final String stack;
+    private final Map<String, Resource> resources = new LinkedHashMap<>();
+
+    /**
+     * @param stack value of the {@link StateReconciler#STACK_TAG} tag that marks resources as owned by this state
+     */
+    public DesiredState(String stack) {
+        this.stack = stack;
+    }
+
+    public String getStack() {
+        return stack;
+    }
+
+    public Collection<Resource> getResources() {
+        return resources.values();
+    }
+
+    public Resource get(String name) {
+        return resources.get(name);
+    }
+
+    private DesiredState add(ResourceJournal.Kind kind, String name, Map<String, String> attributes,
+                             String... references) {
+        if (resources.containsKey(name))
+            throw new IllegalArgumentException("Duplicate resource " + name);
+        List<String> refs = new ArrayList<>();
+        for (String reference : references) {
+            if (reference == null)
+                continue;
+            if (!resources.containsKey(reference))
+                throw new IllegalArgumentException(name + " refers to undeclared resource " + reference);
+            refs.add(reference);
+        }
+        resources.put(name, new Resource(kind, name, attributes, refs));
+        return this;
+    }
+
+    private static Map<String, String> attributes(String... keyValues) {
+        Map<String, String> attributes = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            if (keyValues[i + 1] != null)
+                attributes.put(keyValues[i], keyValues[i + 1]);
+        }
+        return attributes;
+    }
+
+    public DesiredState vpc(String name, String cidr) {
+        return add(ResourceJournal.Kind.VPC, name, attributes(CIDR, cidr));
+    }
+
+    public DesiredState subnet(String name, String vpc, String cidr, String availabilityZone) {
+        return add(ResourceJournal.Kind.SUBNET, name,
+                attributes(VPC, vpc, CIDR, cidr, AVAILABILITY_ZONE, availabilityZone), vpc);
+    }
+
+    /**
+     * A route table associated with exactly the given subnets.
+     */
+    public DesiredState routeTable(String name, String vpc, String... subnets) {
+        String[] references = new String[subnets.length + 1];
+        references[0] = vpc;
+        System.arraycopy(subnets, 0, references, 1, subnets.length);
+        return add(ResourceJournal.Kind.ROUTE_TABLE, name, attributes(VPC, vpc), references);
+    }
+
+    public DesiredState instance(String name, String subnet, String amiId, String instanceType, String keyName) {
+        return add(ResourceJournal.Kind.INSTANCE, name,
+                attributes(SUBNET, subnet, AMI, amiId, INSTANCE_TYPE, instanceType, KEY_NAME, keyName), subnet);
+    }
+
+    /**
+     * A volume attached to an instance of this state, created in that instance's availability zone.
+     */
+    public DesiredState volume(String name, int sizeGiB, String instance, String device) {
+        Resource owner = resources.get(instance);
+        if (owner == null || owner.getKind() != ResourceJournal.Kind.INSTANCE)
+            throw new IllegalArgumentException(name + " refers to undeclared instance " + instance);
+        String az = resources.get(owner.get(SUBNET)).get(AVAILABILITY_ZONE);
+        return add(ResourceJournal.Kind.VOLUME, name, attributes(SIZE, String.valueOf(sizeGiB),
+                AVAILABILITY_ZONE, az, INSTANCE, instance, DEVICE, device), instance);
+    }
+
+    /**
+     * A detached volume.
+     */
+    public DesiredState volume(String name, int sizeGiB, String availabilityZone) {
+        return add(ResourceJournal.Kind.VOLUME, name,
+                attributes(SIZE, String.valueOf(sizeGiB), AVAILABILITY_ZONE, availabilityZone));
+    }
+
+    public DesiredState tag(String name, String key, String value) {
+        Resource resource = resources.get(name);
+        if (resource == null)
+            throw new IllegalArgumentException("Undeclared resource " + name);
+        resource.tags.put(key, value);
+        return this;
+    }
+}
@@ -0,0 +1,77 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongSupplier;
+
+/**
+ * This host's public IPv4 address as seen by AWS, looked up once and reused until the TTL expires.
+ */
+public class EgressIp {
+
+    static final String DEFAULT_ENDPOINT = "http://checkip.amazonaws.com/";
+    static final long DEFAULT_TTL_MS = 10 * 60 * 1000;
+    static final int TIMEOUT_MS = 5000;
+
+    private final String endpoint;
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private String address;
+    private long expiresAt;
+
+    public EgressIp() {
+        this(DEFAULT_ENDPOINT, DEFAULT_TTL_MS);
+    }
+
+    /**
+     * @param endpoint URL answering with the caller's address as plain text, e.g. a local stub in tests
+     */
+    public EgressIp(String endpoint, long ttlMs) {
+        this(endpoint, ttlMs, System::currentTimeMillis);
+    }
+
+    EgressIp(String endpoint, long ttlMs, LongSupplier clock) {
+        this.endpoint = endpoint;
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+    }
+
+    public synchronized String get() {
+        long now = clock.getAsLong();
+        if (address == null || now >= expiresAt) {
+            address = lookup();
+            expiresAt = now + ttlMs;
+        }
+        return address;
+    }
+
+    public String cidr() {
+        return get() + "/32";
+    }
+
+    public synchronized void invalidate() {
+        address = null;
+    }
+
+    private String lookup() {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(endpoint).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String line = reader.readLine();
+                if (line == null || line.trim().isEmpty())
+                    throw new IOException("Empty response from " + endpoint);
+                return line.trim();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.example;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Starts and stops many instances at once. IDs are packed into batches, each batch is
+ * permission-checked with a single dry run and the batches run concurrently.
+ */
+public class FleetController {
+
+    static final int MAX_INSTANCE_IDS_PER_REQUEST = 1000;
+    static final int DEFAULT_PARALLELISM = 4;
+
+    private final AmazonEC2 ec2;
+    private final int batchSize;
+    private final int parallelism;
+
+    public FleetController(AmazonEC2 ec2) {
+        this(ec2, MAX_INSTANCE_IDS_PER_REQUEST, DEFAULT_PARALLELISM);
+    }
+
+    public FleetController(AmazonEC2 ec2, int batchSize, int parallelism) {
+        if (batchSize < 1 || batchSize > MAX_INSTANCE_IDS_PER_REQUEST)
+            throw new IllegalArgumentException("batchSize must be between 1 and " + MAX_INSTANCE_IDS_PER_REQUEST);
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.ec2 = ec2;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+    }
+
+    public Map<String, InstanceActionResult> startInstances(Collection<String> instanceIds) {
+        return run(instanceIds, new BatchAction() {
+            @Override
+            DryRunResult<?> dryRun(List<String> ids) {
+                DryRunSupportedRequest<StartInstancesRequest> dryRequest =
+                        () -> new StartInstancesRequest().withInstanceIds(ids).getDryRunRequest();
+                return ec2.dryRun(dryRequest);
+            }
+
+            @Override
+            List<InstanceStateChange> execute(List<String> ids) {
+                return ec2.startInstances(new StartInstancesRequest().withInstanceIds(ids)).getStartingInstances();
+            }
+
+            @Override
+            InstanceActionResult.Status classify(String previousState) {
+                return "running".equals(previousState) || "pending".equals(previousState)
+                        ? InstanceActionResult.Status.ALREADY_RUNNING
+                        : InstanceActionResult.Status.STARTED;
+            }
+        });
+    }
+
+    public Map<String, InstanceActionResult> stopInstances(Collection<String> instanceIds) {
+        return run(instanceIds, new BatchAction() {
+            @Override
+            DryRunResult<?> dryRun(List<String> ids) {
+                DryRunSupportedRequest<StopInstancesRequest> dryRequest =
+                        () -> new StopInstancesRequest().withInstanceIds(ids).getDryRunRequest();
+                return ec2.dryRun(dryRequest);
+            }
+
+            @Override
+            List<InstanceStateChange> execute(List<String> ids) {
+                return ec2.stopInstances(new StopInstancesRequest().withInstanceIds(ids)).getStoppingInstances();
+            }
+
+            @Override
+            InstanceActionResult.Status classify(String previousState) {
+                return "stopped".equals(previousState) || "stopping".equals(previousState)
+                        ? InstanceActionResult.Status.ALREADY_STOPPED
+                        : InstanceActionResult.Status.STOPPED;
+            }
+        });
+    }
+
+    static <T> List<List<T>> partition(Collection<T> items, int size) {
+        List<List<T>> batches = new ArrayList<>();
+        List<T> current = new ArrayList<>(Math.min(size, items.size()));
+        for (T item : items) {
+            current.add(item);
+            if (current.size() == size) {
+                batches.add(current);
+                current = new ArrayList<>(size);
+            }
+        }
+        if (!current.isEmpty())
+            batches.add(current);
+        return batches;
+    }
+
+    private Map<String, InstanceActionResult> run(Collection<String> instanceIds, BatchAction action) {
+        Set<String> unique = new LinkedHashSet<>(instanceIds);
+        Map<String, InstanceActionResult> results = new ConcurrentHashMap<>();
+        List<List<String>> batches = partition(unique, batchSize);
+        if (batches.isEmpty())
+            return new LinkedHashMap<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, batches.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<String> batch : batches)
+                futures.add(executor.submit(() -> runBatch(batch, action, results)));
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, InstanceActionResult> ordered = new LinkedHashMap<>();
+        for (String instanceId : unique)
+            ordered.put(instanceId, results.get(instanceId));
+        return ordered;
+    }
+
+    private void runBatch(List<String> batch, BatchAction action, Map<String, InstanceActionResult> results) {
+        DryRunResult<?> dryResponse;
+        try {
+            dryResponse = action.dryRun(batch);
+        } catch (AmazonClientException e) {
+            // The client rethrows anything but a permission answer as a plain client exception, so a stale or
+            // unknown ID in the batch shows up here with the service error as its cause
+            AmazonServiceException cause = serviceError(e);
+            if (batch.size() == 1 || !namesBadInstance(cause)) {
+                failAll(batch, "dry run failed: " + cause.getErrorMessage(), results);
+            } else {
+                for (List<String> half : bisect(batch))
+                    runBatch(half, action, results);
+            }
+            return;
+        }
+        if (!dryResponse.isSuccessful()) {
+            failAll(batch, "dry run failed: " + dryResponse.getMessage(), results);
+            return;
+        }
+        execute(batch, action, results);
+    }
+
+    // One bad ID rejects the whole request, so split the batch in halves until the bad IDs are isolated. Anything
+    // else (throttling, server or permission errors) applies to every half alike and fails the batch as it is.
+    private void execute(List<String> batch, BatchAction action, Map<String, InstanceActionResult> results) {
+        try {
+            record(batch, action.execute(batch), action, results);
+        } catch (AmazonServiceException e) {
+            if (batch.size() == 1 || !namesBadInstance(e)) {
+                failAll(batch, e.getErrorMessage(), results);
+                return;
+            }
+            for (List<String> half : bisect(batch))
+                execute(half, action, results);
+        }
+    }
+
+    private static AmazonServiceException serviceError(AmazonClientException e) {
+        if (e instanceof AmazonServiceException)
+            return (AmazonServiceException) e;
+        if (e.getCause() instanceof AmazonServiceException)
+            return (AmazonServiceException) e.getCause();
+        throw e;
+    }
+
+    private static boolean namesBadInstance(AmazonServiceException e) {
+        String code = e.getErrorCode();
+        return code != null && (code.startsWith("InvalidInstanceID.") || code.equals("IncorrectInstanceState"));
+    }
+
+    static <T> List<List<T>> bisect(List<T> batch) {
+        int middle = batch.size() / 2;
+        return Arrays.asList(batch.subList(0, middle), batch.subList(middle, batch.size()));
+    }
+
+    private static void record(List<String> batch, List<InstanceStateChange> changes, BatchAction action,
+                               Map<String, InstanceActionResult> results) {
+        for (InstanceStateChange change : changes) {
+            String previous = change.getPreviousState() == null ? null : change.getPreviousState().getName();
+            results.put(change.getInstanceId(),
+                    new InstanceActionResult(change.getInstanceId(), action.classify(previous), null));
+        }
+        for (String instanceId : batch)
+            results.putIfAbsent(instanceId, InstanceActionResult.failed(instanceId, "not returned by EC2"));
+    }
+
+    private static void failAll(List<String> batch, String reason, Map<String, InstanceActionResult> results) {
+        for (String instanceId : batch)
+            results.put(instanceId, InstanceActionResult.failed(instanceId, reason));
+    }
+
+    private abstract static class BatchAction {
+        abstract DryRunResult<?> dryRun(List<String> ids);
+
+        abstract List<InstanceStateChange> execute(List<String> ids);
+
+        abstract InstanceActionResult.Status classify(String previousState);
+    }
+}
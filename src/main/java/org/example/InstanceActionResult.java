@@ -0,0 +1,47 @@
+package org.example;
+
+public class InstanceActionResult {
+
+    public enum Status {
+        STARTED,
+        ALREADY_RUNNING,
+        STOPPED,
+        ALREADY_STOPPED,
+        FAILED
+    }
+
+    private final String instanceId;
+    private final Status status;
+    private final String reason;
+
+    public InstanceActionResult(String instanceId, Status status, String reason) {
+        this.instanceId = instanceId;
+        this.status = status;
+        this.reason = reason;
+    }
+
+    public static InstanceActionResult failed(String instanceId, String reason) {
+        return new InstanceActionResult(instanceId, Status.FAILED, reason);
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public boolean isFailed() {
+        return status == Status.FAILED;
+    }
+
+    @Override
+    public String toString() {
+        return reason == null ? instanceId + "=" + status : instanceId + "=" + status + " (" + reason + ")";
+    }
+}
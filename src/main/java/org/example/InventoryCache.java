@@ -0,0 +1,133 @@
+package org.example;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * In-process cache for describe results with a TTL per resource type and LRU eviction once the size bound
+ * is reached. App's mutating operations invalidate the entries they touch.
+ */
+public class InventoryCache {
+
+    public enum Type {
+        VPC(60000),
+        SUBNET(60000),
+        ROUTE_TABLE(60000),
+        INSTANCE(5000),
+        VOLUME(5000),
+        SNAPSHOT(10000);
+
+        final long defaultTtlMs;
+
+        Type(long defaultTtlMs) {
+            this.defaultTtlMs = defaultTtlMs;
+        }
+    }
+
+    static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final Map<Type, Long> ttls = new EnumMap<>(Type.class);
+    private final LinkedHashMap<String, Entry> entries;
+    private final LongSupplier clock;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long generation;
+
+    public InventoryCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public InventoryCache(int maxEntries) {
+        this(maxEntries, System::currentTimeMillis);
+    }
+
+    InventoryCache(int maxEntries, LongSupplier clock) {
+        this.clock = clock;
+        for (Type type : Type.values())
+            ttls.put(type, type.defaultTtlMs);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= maxEntries)
+                    return false;
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    public synchronized void setTtl(Type type, long ttlMs) {
+        ttls.put(type, ttlMs);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(Type type, String key, Supplier<T> loader) {
+        String cacheKey = cacheKey(type, key);
+        long now = clock.getAsLong();
+        long loadGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(cacheKey);
+            if (entry != null && entry.expiresAt > now) {
+                hits.incrementAndGet();
+                return (T) entry.value;
+            }
+            loadGeneration = generation;
+        }
+        misses.incrementAndGet();
+        T value = loader.get();
+        synchronized (this) {
+            // Skip the store if something was invalidated while loading, the value may already be stale
+            if (loadGeneration == generation)
+                entries.put(cacheKey, new Entry(value, now + ttls.get(type)));
+        }
+        return value;
+    }
+
+    public synchronized void invalidate(Type type, String key) {
+        generation++;
+        entries.remove(cacheKey(type, key));
+    }
+
+    public synchronized void invalidateAll(Type type) {
+        generation++;
+        entries.keySet().removeIf(cacheKey -> cacheKey.startsWith(type.name() + ':'));
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private static String cacheKey(Type type, String key) {
+        return type.name() + ':' + key;
+    }
+
+    private static class Entry {
+        final Object value;
+        final long expiresAt;
+
+        Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.example;
+
+import java.util.*;
+
+public class LaunchResult {
+
+    private final int requested;
+    private final List<String> instanceIds;
+    private final Map<String, String> subnetIds;
+    private final Map<String, Integer> launchedBySubnetAndType;
+    private final List<String> errors;
+    private final Exception failure;
+    private final long wallClockMillis;
+
+    public LaunchResult(int requested, List<String> instanceIds, Map<String, String> subnetIds,
+                        Map<String, Integer> launchedBySubnetAndType, List<String> errors, Exception failure,
+                        long wallClockMillis) {
+        this.requested = requested;
+        this.instanceIds = instanceIds;
+        this.subnetIds = subnetIds;
+        this.launchedBySubnetAndType = launchedBySubnetAndType;
+        this.errors = errors;
+        this.failure = failure;
+        this.wallClockMillis = wallClockMillis;
+    }
+
+    public int getRequested() {
+        return requested;
+    }
+
+    public List<String> getInstanceIds() {
+        return instanceIds;
+    }
+
+    /**
+     * The subnet the instance was launched in, or null if it is not part of this result.
+     */
+    public String getSubnetId(String instanceId) {
+        return subnetIds.get(instanceId);
+    }
+
+    /**
+     * Instances launched per {@code subnetId/instanceType}.
+     */
+    public Map<String, Integer> getLaunchedBySubnetAndType() {
+        return launchedBySubnetAndType;
+    }
+
+    /**
+     * Capacity and other errors met along the way, including ones a fallback recovered from.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * The error that stopped the launch early, or null if it ran until the count was met, capacity ran out or
+     * an account limit was hit.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    public int getShortfall() {
+        return requested - instanceIds.size();
+    }
+
+    public boolean isComplete() {
+        return instanceIds.size() >= requested;
+    }
+
+    public long getWallClockMillis() {
+        return wallClockMillis;
+    }
+
+    @Override
+    public String toString() {
+        return instanceIds.size() + "/" + requested + " launched in " + wallClockMillis + " ms "
+                + launchedBySubnetAndType + (errors.isEmpty() ? "" : " errors=" + errors)
+                + (failure == null ? "" : " failure=" + failure);
+    }
+}
@@ -0,0 +1,200 @@
+package org.example;
+
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.elasticloadbalancingv2.AmazonElasticLoadBalancing;
+import com.amazonaws.services.elasticloadbalancingv2.model.*;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Provisions a load balancer with its target groups and listeners as a {@link TaskGraph}. Subnet lookup, load
+ * balancer creation and target group creation run concurrently; each listener starts as soon as the load balancer
+ * and its target group exist, and the {@link #ACTIVE} node polls until the load balancer is active.
+ *
+ * <pre>
+ * TaskGraph.Result result = new LoadBalancerStack(elb, subnets, "web", vpcId,
+ *         LoadBalancerTypeEnum.Network, LoadBalancerSchemeEnum.InternetFacing)
+ *         .targetGroup("web-tg", ProtocolEnum.TCP, 80, "i-1", "i-2")
+ *         .listener(ProtocolEnum.TCP, 80, "web-tg")
+ *         .provision();
+ * String loadBalancerArn = result.get(LoadBalancerStack.LOAD_BALANCER);
+ * </pre>
+ */
+public class LoadBalancerStack {
+
+    public static final String SUBNETS = "subnets";
+    public static final String LOAD_BALANCER = "load-balancer";
+    /** Output is the load balancer's DNS name. */
+    public static final String ACTIVE = "active";
+
+    static final long DEFAULT_BASE_DELAY_MS = 2000;
+    static final long DEFAULT_MAX_DELAY_MS = 15000;
+    static final long DEFAULT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final AmazonElasticLoadBalancing elb;
+    private final String name;
+    private final String vpcId;
+    private final LoadBalancerSchemeEnum scheme;
+    private final TaskGraph graph = new TaskGraph();
+    private long baseDelayMs = DEFAULT_BASE_DELAY_MS;
+    private long maxDelayMs = DEFAULT_MAX_DELAY_MS;
+    private BiConsumer<ResourceJournal.Kind, String> onCreated = (kind, resourceId) -> { };
+
+    /**
+     * @param subnets the VPC's subnets; called on a worker thread, so it must not depend on the caller's region
+     */
+    public LoadBalancerStack(AmazonElasticLoadBalancing elb, Supplier<List<Subnet>> subnets, String name,
+                             String vpcId, LoadBalancerTypeEnum type, LoadBalancerSchemeEnum scheme) {
+        this.elb = elb;
+        this.name = name;
+        this.vpcId = vpcId;
+        this.scheme = scheme;
+        graph.add(SUBNETS, inputs -> String.join(",", pickSubnets(subnets.get())));
+        graph.add(LOAD_BALANCER, inputs -> createLoadBalancer(type, Arrays.asList(inputs.get(SUBNETS).split(","))),
+                SUBNETS);
+        graph.add(ACTIVE, inputs -> awaitActive(inputs.get(LOAD_BALANCER)), LOAD_BALANCER);
+    }
+
+    LoadBalancerStack pollDelays(long baseDelayMs, long maxDelayMs) {
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        return this;
+    }
+
+    /**
+     * Called on a worker thread with the load balancer and each target group as soon as it exists, before
+     * anything else can fail, e.g. to journal it.
+     */
+    public LoadBalancerStack onCreated(BiConsumer<ResourceJournal.Kind, String> listener) {
+        this.onCreated = listener;
+        return this;
+    }
+
+    /**
+     * Adds a target group node named after the group; its output is the group's ARN. Targets are registered
+     * before the node completes.
+     */
+    public LoadBalancerStack targetGroup(String targetGroupName, ProtocolEnum protocol, int port, String... instanceIds) {
+        graph.add(targetGroupName, inputs -> {
+            String targetGroupArn = elb.createTargetGroup(new CreateTargetGroupRequest()
+                    .withName(targetGroupName)
+                    .withTargetType(TargetTypeEnum.Instance)
+                    .withProtocol(protocol)
+                    .withPort(port)
+                    .withVpcId(vpcId)
+                    .withTags(new Tag().withKey("Name").withValue(targetGroupName)))
+                    .getTargetGroups().get(0).getTargetGroupArn();
+            onCreated.accept(ResourceJournal.Kind.TARGET_GROUP, targetGroupArn);
+            if (instanceIds.length > 0) {
+                for (TargetActionResult result : new TargetGroupReconciler(elb).reconcile(
+                        Collections.singletonMap(targetGroupArn, Arrays.asList(instanceIds))).get(targetGroupArn)) {
+                    if (result.isFailed())
+                        Log.event("target_group.register_failed", "targetGroupArn", targetGroupArn, "result", result);
+                }
+            }
+            Log.event("target_group.created", "targetGroupArn", targetGroupArn, "targets", instanceIds.length);
+            return targetGroupArn;
+        });
+        return this;
+    }
+
+    /**
+     * Adds a listener forwarding to the given target group node; the node is named {@code listener-<port>}.
+     */
+    public LoadBalancerStack listener(ProtocolEnum protocol, int port, String targetGroupNode) {
+        graph.add("listener-" + port, inputs -> {
+            String listenerArn = elb.createListener(new CreateListenerRequest()
+                    .withLoadBalancerArn(inputs.get(LOAD_BALANCER))
+                    .withProtocol(protocol)
+                    .withPort(port)
+                    .withDefaultActions(new Action()
+                            .withType(ActionTypeEnum.Forward)
+                            .withTargetGroupArn(inputs.get(targetGroupNode))))
+                    .getListeners().get(0).getListenerArn();
+            Log.event("listener.created", "listenerArn", listenerArn, "port", port);
+            return listenerArn;
+        }, LOAD_BALANCER, targetGroupNode);
+        return this;
+    }
+
+    public TaskGraph build() {
+        return graph;
+    }
+
+    public TaskGraph.Result provision() {
+        TaskGraph.Result result = graph.execute(graph.getNodeNames().size());
+        Log.event("load_balancer.provisioned", "wallClockMs", result.getWallClockMillis(),
+                "criticalPath", result.getCriticalPath());
+        return result;
+    }
+
+    // One subnet per availability zone; internet-facing load balancers prefer subnets that assign public IPs
+    private List<String> pickSubnets(List<Subnet> subnets) {
+        boolean internetFacing = scheme == LoadBalancerSchemeEnum.InternetFacing;
+        Map<String, Subnet> byZone = new TreeMap<>();
+        for (Subnet subnet : subnets) {
+            Subnet chosen = byZone.get(subnet.getAvailabilityZone());
+            if (chosen == null || (internetFacing && isPublic(subnet) && !isPublic(chosen)))
+                byZone.put(subnet.getAvailabilityZone(), subnet);
+        }
+        if (byZone.isEmpty())
+            throw new IllegalStateException("No subnets found in " + vpcId);
+        List<String> subnetIds = new ArrayList<>();
+        for (Subnet subnet : byZone.values())
+            subnetIds.add(subnet.getSubnetId());
+        return subnetIds;
+    }
+
+    private static boolean isPublic(Subnet subnet) {
+        return Boolean.TRUE.equals(subnet.getMapPublicIpOnLaunch());
+    }
+
+    private String createLoadBalancer(LoadBalancerTypeEnum type, List<String> subnetIds) {
+        List<SubnetMapping> mappings = new ArrayList<>();
+        for (String subnetId : subnetIds)
+            mappings.add(new SubnetMapping().withSubnetId(subnetId));
+        LoadBalancer loadBalancer = elb.createLoadBalancer(new CreateLoadBalancerRequest()
+                .withTags(new Tag().withKey("Name").withValue(name))
+                .withName(name)
+                .withType(type)
+                .withScheme(scheme)
+                .withSubnetMappings(mappings)).getLoadBalancers().get(0);
+        onCreated.accept(ResourceJournal.Kind.LOAD_BALANCER, loadBalancer.getLoadBalancerArn());
+        Log.event("load_balancer.created", "loadBalancerArn", loadBalancer.getLoadBalancerArn(),
+                "subnets", subnetIds.size());
+        return loadBalancer.getLoadBalancerArn();
+    }
+
+    private String awaitActive(String loadBalancerArn) throws TimeoutException, InterruptedException {
+        long deadline = System.currentTimeMillis() + DEFAULT_TIMEOUT_MS;
+        long delay = baseDelayMs;
+        while (true) {
+            // Describe is eventually consistent right after creation; not found counts as still provisioning
+            List<LoadBalancer> found;
+            try {
+                found = elb.describeLoadBalancers(new DescribeLoadBalancersRequest()
+                        .withLoadBalancerArns(loadBalancerArn)).getLoadBalancers();
+            } catch (LoadBalancerNotFoundException e) {
+                found = Collections.emptyList();
+            }
+            LoadBalancer loadBalancer = found == null || found.isEmpty() ? null : found.get(0);
+            String state = loadBalancer == null ? "not-found" : loadBalancer.getState().getCode();
+            if (LoadBalancerStateEnum.Active.toString().equals(state)) {
+                Log.event("load_balancer.active", "loadBalancerArn", loadBalancerArn);
+                return loadBalancer.getDNSName();
+            }
+            if (LoadBalancerStateEnum.Failed.toString().equals(state))
+                throw new IllegalStateException(loadBalancerArn + " entered state failed");
+            if (System.currentTimeMillis() >= deadline)
+                throw new TimeoutException(loadBalancerArn + " did not become active, last state " + state);
+            // Equal jitter, as in ResourceWaiter
+            Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            delay = Math.min(delay * 2, maxDelayMs);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.example;
+
+import java.io.PrintStream;
+
+/**
+ * Minimal structured logging: one {@code event=<name> key=value ...} line per event. Turned off with
+ * {@code -Dapp.log=false} (or {@link #setEnabled}), in which case no message is built at all.
+ */
+public final class Log {
+
+    private static volatile boolean enabled = !"false".equals(System.getProperty("app.log"));
+    private static volatile PrintStream out = System.out;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(128));
+
+    private Log() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    static void setOutput(PrintStream stream) {
+        out = stream;
+    }
+
+    public static void event(String event) {
+        if (enabled)
+            write(start(event));
+    }
+
+    public static void event(String event, String key, Object value) {
+        if (enabled)
+            write(append(start(event), key, value));
+    }
+
+    public static void event(String event, String k1, Object v1, String k2, Object v2) {
+        if (enabled)
+            write(append(append(start(event), k1, v1), k2, v2));
+    }
+
+    public static void event(String event, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        if (enabled)
+            write(append(append(append(start(event), k1, v1), k2, v2), k3, v3));
+    }
+
+    private static StringBuilder start(String event) {
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        return sb.append("event=").append(event);
+    }
+
+    private static StringBuilder append(StringBuilder sb, String key, Object value) {
+        return sb.append(' ').append(key).append('=').append(value);
+    }
+
+    private static void write(StringBuilder sb) {
+        out.println(sb);
+    }
+}
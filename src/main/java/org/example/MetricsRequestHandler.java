@@ -0,0 +1,82 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+
+/**
+ * SDK request handler that feeds {@link AwsMetrics}: one latency sample per logical call (retries included),
+ * plus throttle, retry, error and in-flight counts per API action.
+ */
+public class MetricsRequestHandler extends RequestHandler2 {
+
+    private static final HandlerContextKey<Long> START_NANOS = new HandlerContextKey<>("metrics.startNanos");
+    private static final HandlerContextKey<int[]> ATTEMPTS = new HandlerContextKey<>("metrics.attempts");
+
+    private final AwsMetrics metrics;
+
+    public MetricsRequestHandler(AwsMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    static String action(Request<?> request) {
+        return action(request.getOriginalRequest());
+    }
+
+    static String action(AmazonWebServiceRequest request) {
+        String name = request.getClass().getSimpleName();
+        return name.endsWith("Request") ? name.substring(0, name.length() - "Request".length()) : name;
+    }
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+        request.addHandlerContext(START_NANOS, System.nanoTime());
+        request.addHandlerContext(ATTEMPTS, new int[1]);
+        metrics.operation(action(request)).inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context) {
+        int[] attempts = context.getRequest().getHandlerContext(ATTEMPTS);
+        if (attempts != null && ++attempts[0] > 1)
+            metrics.operation(action(context.getRequest())).retries.incrementAndGet();
+    }
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context) {
+        Exception e = context.getException();
+        if (e instanceof SdkBaseException && RetryUtils.isThrottlingException((SdkBaseException) e))
+            metrics.operation(action(context.getRequest())).throttles.incrementAndGet();
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        complete(request, false);
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        // A dry run reports success through an error response
+        boolean dryRun = e instanceof AmazonServiceException
+                && "DryRunOperation".equals(((AmazonServiceException) e).getErrorCode());
+        complete(request, !dryRun);
+    }
+
+    private void complete(Request<?> request, boolean failed) {
+        AwsMetrics.Operation operation = metrics.operation(action(request));
+        Long start = request.getHandlerContext(START_NANOS);
+        if (start == null)
+            return;
+        operation.inFlight.decrementAndGet();
+        operation.latency.record((System.nanoTime() - start) / 1000);
+        if (failed)
+            operation.errors.incrementAndGet();
+    }
+}
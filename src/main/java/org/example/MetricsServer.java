@@ -0,0 +1,48 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves {@link AwsMetrics} in Prometheus text format on {@code /metrics}. The endpoint is unauthenticated, so it
+ * listens on loopback unless the caller passes another address.
+ */
+public class MetricsServer implements AutoCloseable {
+
+    private final HttpServer server;
+
+    public MetricsServer(int port, AwsMetrics metrics) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), metrics);
+    }
+
+    public MetricsServer(InetSocketAddress address, AwsMetrics metrics) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,149 @@
+package org.example;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy streams over paginated Describe* calls. Pages are fetched on demand by following NextToken, and the next
+ * page is requested in the background while the current one is consumed, so at most two pages are held at a time
+ * regardless of account size.
+ */
+public final class Paginators {
+
+    static final int PAGE_SIZE = 1000;
+    static final int VOLUME_PAGE_SIZE = 500;
+
+    private static final ExecutorService PREFETCH = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "describe-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Paginators() {
+    }
+
+    public static Stream<Instance> instances(AmazonEC2 ec2, Filter... filters) {
+        return stream(token -> {
+            DescribeInstancesResult result = ec2.describeInstances(new DescribeInstancesRequest()
+                    .withFilters(filters).withMaxResults(PAGE_SIZE).withNextToken(token));
+            List<Instance> instances = new ArrayList<>();
+            for (Reservation reservation : result.getReservations())
+                instances.addAll(reservation.getInstances());
+            return new Page<>(instances, result.getNextToken());
+        });
+    }
+
+    public static Stream<Subnet> subnets(AmazonEC2 ec2, Filter... filters) {
+        return stream(token -> {
+            DescribeSubnetsResult result = ec2.describeSubnets(new DescribeSubnetsRequest()
+                    .withFilters(filters).withMaxResults(PAGE_SIZE).withNextToken(token));
+            return new Page<>(result.getSubnets(), result.getNextToken());
+        });
+    }
+
+    public static Stream<Volume> volumes(AmazonEC2 ec2, Filter... filters) {
+        return stream(token -> {
+            DescribeVolumesResult result = ec2.describeVolumes(new DescribeVolumesRequest()
+                    .withFilters(filters).withMaxResults(VOLUME_PAGE_SIZE).withNextToken(token));
+            return new Page<>(result.getVolumes(), result.getNextToken());
+        });
+    }
+
+    /**
+     * Snapshots owned by this account; without an owner filter EC2 would also list every public snapshot.
+     */
+    public static Stream<Snapshot> snapshots(AmazonEC2 ec2, Filter... filters) {
+        return stream(token -> {
+            DescribeSnapshotsResult result = ec2.describeSnapshots(new DescribeSnapshotsRequest()
+                    .withOwnerIds("self").withFilters(filters).withMaxResults(PAGE_SIZE).withNextToken(token));
+            return new Page<>(result.getSnapshots(), result.getNextToken());
+        });
+    }
+
+    public static Stream<SecurityGroup> securityGroups(AmazonEC2 ec2, Filter... filters) {
+        return stream(token -> {
+            DescribeSecurityGroupsResult result = ec2.describeSecurityGroups(new DescribeSecurityGroupsRequest()
+                    .withFilters(filters).withMaxResults(PAGE_SIZE).withNextToken(token));
+            return new Page<>(result.getSecurityGroups(), result.getNextToken());
+        });
+    }
+
+    static <T> Stream<T> stream(Function<String, Page<T>> fetcher) {
+        PageIterator<T> iterator = new PageIterator<>(fetcher);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    static class Page<T> {
+        final List<T> items;
+        final String nextToken;
+
+        Page(List<T> items, String nextToken) {
+            this.items = items;
+            this.nextToken = nextToken == null || nextToken.isEmpty() ? null : nextToken;
+        }
+    }
+
+    static class PageIterator<T> implements Iterator<T> {
+        private final Function<String, Page<T>> fetcher;
+        private Iterator<T> current = Collections.emptyIterator();
+        private CompletableFuture<Page<T>> next;
+        private boolean firstFetched;
+
+        PageIterator(Function<String, Page<T>> fetcher) {
+            this.fetcher = fetcher;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                Page<T> page;
+                if (!firstFetched) {
+                    firstFetched = true;
+                    page = fetcher.apply(null);
+                } else if (next != null) {
+                    page = await(next);
+                } else {
+                    return false;
+                }
+                current = page.items.iterator();
+                // Start on the following page while the caller works through this one
+                String token = page.nextToken;
+                next = token == null ? null : CompletableFuture.supplyAsync(() -> fetcher.apply(token), PREFETCH);
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return current.next();
+        }
+
+        void close() {
+            if (next != null)
+                next.cancel(false);
+        }
+
+        private static <T> Page<T> await(CompletableFuture<Page<T>> future) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.example;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.Request;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+
+/**
+ * Gates every attempt, SDK retries included, on {@link AdaptiveRateLimiter} and feeds throttling responses
+ * back into it.
+ */
+public class RateLimitRequestHandler extends RequestHandler2 {
+
+    private final AdaptiveRateLimiter limiter;
+
+    public RateLimitRequestHandler(AdaptiveRateLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context) {
+        try {
+            limiter.acquire(key(context.getRequest()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException(e);
+        }
+    }
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context) {
+        Exception e = context.getException();
+        String key = key(context.getRequest());
+        if (e == null)
+            limiter.onSuccess(key);
+        else if (e instanceof SdkBaseException && RetryUtils.isThrottlingException((SdkBaseException) e))
+            limiter.onThrottle(key);
+    }
+
+    // EC2 and ELBv2 throttle independently and share some action names, so the service is part of the key.
+    // Throttling is also per region, and the limiter is shared by every regional client, so the endpoint is too.
+    static String key(Request<?> request) {
+        String endpoint = request.getEndpoint() == null ? "" : request.getEndpoint().getHost() + '/';
+        return endpoint + request.getServiceName() + '.' + MetricsRequestHandler.action(request);
+    }
+}
@@ -0,0 +1,173 @@
+package org.example;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.ec2.AmazonEC2;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedged requests for an EC2 client: when a call has not answered within a latency percentile of its action
+ * (taken from {@link AwsMetrics}), an identical second request is sent and whichever succeeds first wins.
+ * Only idempotent calls are hedged: describes, start/stop and tag changes by nature, and creates that carry a
+ * client token, which both copies share so EC2 returns the same resource to each. Everything else goes
+ * straight through.
+ */
+public class RequestHedger implements InvocationHandler {
+
+    static final double DEFAULT_PERCENTILE = 95;
+    static final long DEFAULT_MIN_SAMPLES = 20;
+    static final long DEFAULT_MIN_DELAY_MS = 20;
+
+    // Safe to send twice without a client token
+    static final Set<String> IDEMPOTENT_ACTIONS = new HashSet<>(Arrays.asList(
+            "StartInstances", "StopInstances", "CreateTags", "DeleteTags"));
+
+    private static final ExecutorService CALLS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "hedged-request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AmazonEC2 target;
+    private final AmazonEC2 client;
+    private final AwsMetrics metrics;
+    private final double percentile;
+    private final long minSamples;
+    private final long minDelayMicros;
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    public RequestHedger(AmazonEC2 target, double percentile) {
+        this(target, AwsMetrics.global(), percentile, DEFAULT_MIN_SAMPLES, DEFAULT_MIN_DELAY_MS);
+    }
+
+    /**
+     * @param minSamples latency samples an action needs before it is hedged, so early guesses do not double load
+     * @param minDelayMs lower bound on the hedge delay
+     */
+    public RequestHedger(AmazonEC2 target, AwsMetrics metrics, double percentile, long minSamples, long minDelayMs) {
+        if (percentile <= 0 || percentile >= 100)
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        this.target = target;
+        this.metrics = metrics;
+        this.percentile = percentile;
+        this.minSamples = minSamples;
+        this.minDelayMicros = TimeUnit.MILLISECONDS.toMicros(minDelayMs);
+        this.client = (AmazonEC2) Proxy.newProxyInstance(AmazonEC2.class.getClassLoader(),
+                new Class<?>[]{AmazonEC2.class}, this);
+    }
+
+    /**
+     * The hedging client; use it in place of the target.
+     */
+    public AmazonEC2 client() {
+        return client;
+    }
+
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    /**
+     * Hedged calls where the second request answered first.
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        // Only API calls; not shutdown(), waiters() or getCachedResponseMetadata(request)
+        if (args == null || args.length != 1 || !(args[0] instanceof AmazonWebServiceRequest)
+                || !method.getReturnType().getSimpleName().endsWith("Result"))
+            return call(method, args);
+        AmazonWebServiceRequest request = (AmazonWebServiceRequest) args[0];
+        String action = MetricsRequestHandler.action(request);
+        boolean idempotent = ClientTokenRequestHandler.ensureToken(request) || action.startsWith("Describe")
+                || IDEMPOTENT_ACTIONS.contains(action);
+        LatencyHistogram latency = metrics.operation(action).getLatency();
+        if (!idempotent || latency.getCount() < minSamples)
+            return call(method, args);
+        return hedge(method, request, action, Math.max(minDelayMicros, latency.getPercentile(percentile)));
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Object hedge(Method method, AmazonWebServiceRequest request, String action, long delayMicros)
+            throws Throwable {
+        CompletableFuture<Object> winner = new CompletableFuture<>();
+        AtomicBoolean won = new AtomicBoolean();
+        AtomicInteger failures = new AtomicInteger();
+        int[] sent = {1};
+        CompletableFuture<Object> primary = submit(method, request, winner, won, failures, sent, false);
+        try {
+            return primary.get(delayMicros, TimeUnit.MICROSECONDS);
+        } catch (TimeoutException e) {
+            // Slow past the threshold; race a duplicate against it
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+        synchronized (sent) {
+            // The primary finished in between; no need to hedge
+            if (!winner.isDone())
+                sent[0] = 2;
+        }
+        if (sent[0] == 1)
+            return await(winner);
+        hedged.incrementAndGet();
+        Log.event("request.hedged", "action", action, "afterMicros", delayMicros);
+        // A clone, so the two requests are marshalled independently; it keeps the client token
+        submit(method, request.clone(), winner, won, failures, sent, true);
+        return await(winner);
+    }
+
+    private static Object await(CompletableFuture<Object> winner) throws Throwable {
+        try {
+            return winner.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    // Completes the winner with the first success, or with this call's failure once every sent call has failed.
+    // The first success claims the win before completing, so a hedge win is counted before the caller resumes.
+    private CompletableFuture<Object> submit(Method method, AmazonWebServiceRequest request,
+                                             CompletableFuture<Object> winner, AtomicBoolean won,
+                                             AtomicInteger failures, int[] sent, boolean hedge) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Object result = call(method, new Object[]{request});
+                if (won.compareAndSet(false, true)) {
+                    if (hedge)
+                        hedgeWins.incrementAndGet();
+                    winner.complete(result);
+                }
+                return result;
+            } catch (Throwable e) {
+                int failed = failures.incrementAndGet();
+                synchronized (sent) {
+                    if (failed >= sent[0])
+                        winner.completeExceptionally(e);
+                }
+                throw e instanceof RuntimeException ? (RuntimeException) e : new CompletionException(e);
+            }
+        }, CALLS);
+    }
+}
@@ -0,0 +1,127 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+import com.amazonaws.services.elasticloadbalancingv2.AmazonElasticLoadBalancing;
+import com.amazonaws.services.elasticloadbalancingv2.model.DeleteLoadBalancerRequest;
+import com.amazonaws.services.elasticloadbalancingv2.model.DeleteTargetGroupRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Deletes a single resource of any journaled kind, including the detach/disassociate steps EC2 requires first,
+ * and returns only once the resource is gone or no longer blocks its parent. Resources that are already gone
+ * count as deleted.
+ */
+public class ResourceDeleter {
+
+    private final AmazonEC2 ec2;
+    private final AmazonElasticLoadBalancing elb;
+    private final ResourceWaiter waiter;
+
+    /**
+     * @param elb may be null when no load balancers or target groups are deleted
+     */
+    public ResourceDeleter(AmazonEC2 ec2, AmazonElasticLoadBalancing elb, ResourceWaiter waiter) {
+        this.ec2 = ec2;
+        this.elb = elb;
+        this.waiter = waiter;
+    }
+
+    public void delete(ResourceJournal.Kind kind, String resourceId, String parentId) {
+        try {
+            deleteOrThrow(kind, resourceId, parentId);
+        } catch (AmazonServiceException e) {
+            if (e.getErrorCode() == null || !e.getErrorCode().endsWith("NotFound"))
+                throw e;
+        }
+        Log.event("resource.deleted", "kind", kind, "resourceId", resourceId);
+    }
+
+    private void deleteOrThrow(ResourceJournal.Kind kind, String resourceId, String parentId) {
+        switch (kind) {
+            case INSTANCE:
+                ec2.terminateInstances(new TerminateInstancesRequest().withInstanceIds(resourceId));
+                waiter.await(ResourceWaiter.Kind.INSTANCE, resourceId, "terminated").join();
+                break;
+            case NAT_GATEWAY:
+                ec2.deleteNatGateway(new DeleteNatGatewayRequest().withNatGatewayId(resourceId));
+                waiter.await(ResourceWaiter.Kind.NAT_GATEWAY, resourceId, "deleted").join();
+                break;
+            case ELASTIC_IP:
+                ec2.releaseAddress(new ReleaseAddressRequest().withAllocationId(resourceId));
+                break;
+            case ROUTE_TABLE:
+                for (RouteTable routeTable : ec2.describeRouteTables(new DescribeRouteTablesRequest()
+                        .withRouteTableIds(resourceId)).getRouteTables()) {
+                    for (RouteTableAssociation association : routeTable.getAssociations()) {
+                        if (!Boolean.TRUE.equals(association.getMain()))
+                            ec2.disassociateRouteTable(new DisassociateRouteTableRequest()
+                                    .withAssociationId(association.getRouteTableAssociationId()));
+                    }
+                }
+                ec2.deleteRouteTable(new DeleteRouteTableRequest().withRouteTableId(resourceId));
+                break;
+            case INTERNET_GATEWAY:
+                if (parentId != null) {
+                    try {
+                        ec2.detachInternetGateway(new DetachInternetGatewayRequest()
+                                .withInternetGatewayId(resourceId).withVpcId(parentId));
+                    } catch (AmazonServiceException e) {
+                        // Already detached by an earlier attempt whose delete then hit DependencyViolation
+                        if (!"Gateway.NotAttached".equals(e.getErrorCode()))
+                            throw e;
+                    }
+                }
+                ec2.deleteInternetGateway(new DeleteInternetGatewayRequest().withInternetGatewayId(resourceId));
+                break;
+            case SUBNET:
+                ec2.deleteSubnet(new DeleteSubnetRequest().withSubnetId(resourceId));
+                break;
+            case SECURITY_GROUP:
+                ec2.deleteSecurityGroup(new DeleteSecurityGroupRequest().withGroupId(resourceId));
+                break;
+            case VPC:
+                ec2.deleteVpc(new DeleteVpcRequest().withVpcId(resourceId));
+                break;
+            case KEY_PAIR:
+                ec2.deleteKeyPair(new DeleteKeyPairRequest().withKeyName(resourceId));
+                try {
+                    Files.deleteIfExists(Path.of(resourceId + ".pem"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                break;
+            case VOLUME:
+                deleteVolume(resourceId);
+                break;
+            case SNAPSHOT:
+                ec2.deleteSnapshot(new DeleteSnapshotRequest().withSnapshotId(resourceId));
+                break;
+            case LOAD_BALANCER:
+                elb.deleteLoadBalancer(new DeleteLoadBalancerRequest().withLoadBalancerArn(resourceId));
+                break;
+            case TARGET_GROUP:
+                elb.deleteTargetGroup(new DeleteTargetGroupRequest().withTargetGroupArn(resourceId));
+                break;
+            case OTHER:
+                break;
+        }
+    }
+
+    private void deleteVolume(String volumeId) {
+        try {
+            ec2.deleteVolume(new DeleteVolumeRequest().withVolumeId(volumeId));
+        } catch (AmazonServiceException e) {
+            if (!"VolumeInUse".equals(e.getErrorCode()) && !"IncorrectState".equals(e.getErrorCode()))
+                throw e;
+            ec2.detachVolume(new DetachVolumeRequest().withVolumeId(volumeId).withForce(true));
+            waiter.await(ResourceWaiter.Kind.VOLUME, volumeId, "available").join();
+            ec2.deleteVolume(new DeleteVolumeRequest().withVolumeId(volumeId));
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped log of the resources a run has created. Each provisioning step is journaled with
+ * the client token it used and, once the call returns, the resource ID and its parent. A run that died halfway
+ * reopens the journal and skips the steps already completed; teardown reads the live resource set from the
+ * journal instead of describing the account.
+ *
+ * <p>Records are {@code [length][crc32][payload]} and the length is written last, so a record torn by a crash
+ * fails its checksum and the journal resumes from the previous one. Writes go to the page cache and survive a
+ * process crash; call {@link #force()} to also survive a machine crash.
+ */
+public class ResourceJournal implements AutoCloseable {
+
+    // Codes are persisted; only ever append new kinds
+    public enum Kind {
+        VPC,
+        SUBNET,
+        INTERNET_GATEWAY,
+        ROUTE_TABLE,
+        NAT_GATEWAY,
+        ELASTIC_IP,
+        KEY_PAIR,
+        INSTANCE,
+        SECURITY_GROUP,
+        VOLUME,
+        SNAPSHOT,
+        LOAD_BALANCER,
+        TARGET_GROUP,
+        /** Output of a custom step; journaled for resume but never torn down. */
+        OTHER
+    }
+
+    public static class Entry {
+        private final String step;
+        private final Kind kind;
+        private final String resourceId;
+        private final String parentId;
+        private final String clientToken;
+        private final long createdAt;
+
+        Entry(String step, Kind kind, String resourceId, String parentId, String clientToken, long createdAt) {
+            this.step = step;
+            this.kind = kind;
+            this.resourceId = resourceId;
+            this.parentId = parentId;
+            this.clientToken = clientToken;
+            this.createdAt = createdAt;
+        }
+
+        public String getStep() {
+            return step;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getResourceId() {
+            return resourceId;
+        }
+
+        public String getParentId() {
+            return parentId;
+        }
+
+        public String getClientToken() {
+            return clientToken;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + resourceId + (parentId == null ? "" : " in " + parentId);
+        }
+    }
+
+    static final int INITIAL_SIZE = 64 * 1024;
+    static final int HEADER_BYTES = 8;
+
+    private static final byte BEGIN = 1;
+    private static final byte CREATED = 2;
+    private static final byte DELETED = 3;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+    private final Map<String, String> tokens = new HashMap<>();
+    private final Map<String, Entry> steps = new HashMap<>();
+    private final LinkedHashMap<String, Entry> live = new LinkedHashMap<>();
+
+    private ResourceJournal(Path path) throws IOException {
+        this.file = new RandomAccessFile(path.toFile(), "rw");
+        this.channel = file.getChannel();
+        map(Math.max(INITIAL_SIZE, (int) channel.size()));
+        replay();
+    }
+
+    /**
+     * Opens the journal at the given path, creating it if needed, and replays the records already in it.
+     */
+    public static ResourceJournal open(Path path) throws IOException {
+        return new ResourceJournal(path);
+    }
+
+    private void map(int size) throws IOException {
+        if (file.length() < size)
+            file.setLength(size);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void replay() {
+        CRC32 crc = new CRC32();
+        while (position + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > buffer.capacity())
+                break;
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(position + HEADER_BYTES).limit(position + HEADER_BYTES + length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(position + 4))
+                break;
+            apply(payload);
+            position += HEADER_BYTES + length;
+        }
+        // Clear whatever a torn write left behind so the next append starts from a clean header
+        if (position + HEADER_BYTES <= buffer.capacity())
+            buffer.putInt(position, 0);
+    }
+
+    private void apply(ByteBuffer payload) {
+        byte type = payload.get();
+        byte kindCode = payload.get();
+        String step = readString(payload);
+        String resourceId = readString(payload);
+        String parentId = readString(payload);
+        String clientToken = readString(payload);
+        long time = payload.getLong();
+        switch (type) {
+            case BEGIN:
+                tokens.put(step, clientToken);
+                break;
+            case CREATED:
+                Entry entry = new Entry(step, Kind.values()[kindCode], resourceId, parentId, clientToken, time);
+                if (step != null)
+                    steps.put(step, entry);
+                live.put(resourceId, entry);
+                break;
+            case DELETED:
+                Entry removed = live.remove(resourceId);
+                // The step's output is gone, so provisioning again has to redo it, with a new token so EC2 does not
+                // hand back the deleted resource. A resource left over from an earlier attempt of the step does
+                // not undo a later completion.
+                if (removed != null && removed.step != null
+                        && Objects.equals(tokens.get(removed.step), removed.clientToken)) {
+                    steps.remove(removed.step);
+                    tokens.remove(removed.step);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    /**
+     * Starts a step and returns its client token. A step that was begun by an earlier run gets the same token
+     * back, so a retried create call is deduplicated by EC2 instead of creating a second resource.
+     */
+    public synchronized String begin(String step) {
+        String token = tokens.get(step);
+        if (token == null) {
+            token = UUID.randomUUID().toString();
+            append(BEGIN, null, step, null, null, token);
+        }
+        return token;
+    }
+
+    /**
+     * The entry recorded for a completed step, or null if the step has not completed or a resource it created
+     * has since been deleted.
+     */
+    public synchronized Entry completed(String step) {
+        return steps.get(step);
+    }
+
+    public synchronized void created(String step, Kind kind, String resourceId, String parentId) {
+        append(CREATED, kind, step, resourceId, parentId, step == null ? null : tokens.get(step));
+    }
+
+    public synchronized void deleted(String resourceId) {
+        if (live.containsKey(resourceId))
+            append(DELETED, null, null, resourceId, null, null);
+    }
+
+    /**
+     * Resources created and not yet deleted, oldest first.
+     */
+    public synchronized List<Entry> getLiveResources() {
+        return new ArrayList<>(live.values());
+    }
+
+    private void append(byte type, Kind kind, String step, String resourceId, String parentId, String clientToken) {
+        byte[][] strings = {bytes(step), bytes(resourceId), bytes(parentId), bytes(clientToken)};
+        int length = 2 + Long.BYTES;
+        for (byte[] string : strings)
+            length += Short.BYTES + (string == null ? 0 : string.length);
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        payload.put(type).put(kind == null ? -1 : (byte) kind.ordinal());
+        for (byte[] string : strings) {
+            payload.putShort(string == null ? -1 : (short) string.length);
+            if (string != null)
+                payload.put(string);
+        }
+        payload.putLong(System.currentTimeMillis());
+        payload.flip();
+
+        try {
+            // Keep room for the zero header that marks the end of the log
+            if (position + HEADER_BYTES + length + HEADER_BYTES > buffer.capacity())
+                map(Math.max(buffer.capacity() * 2, position + HEADER_BYTES * 2 + length));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        ByteBuffer target = buffer.duplicate();
+        target.position(position + HEADER_BYTES);
+        target.put(payload.duplicate());
+        buffer.putInt(position + HEADER_BYTES + length, 0);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, length);
+        position += HEADER_BYTES + length;
+        apply(payload);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer payload) {
+        short length = payload.getShort();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+        file.close();
+    }
+}
@@ -0,0 +1,46 @@
+package org.example;
+
+/**
+ * Outcome of one item in a bulk operation: the resource it started from, the resource it produced and, on
+ * failure, why.
+ */
+public class ResourceResult {
+
+    private final String sourceId;
+    private final String resourceId;
+    private final String error;
+
+    public ResourceResult(String sourceId, String resourceId, String error) {
+        this.sourceId = sourceId;
+        this.resourceId = resourceId;
+        this.error = error;
+    }
+
+    public static ResourceResult failed(String sourceId, String error) {
+        return new ResourceResult(sourceId, null, error);
+    }
+
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    /**
+     * Null when nothing was created.
+     */
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    @Override
+    public String toString() {
+        return error == null ? sourceId + "=" + resourceId : sourceId + "=" + resourceId + " FAILED (" + error + ")";
+    }
+}
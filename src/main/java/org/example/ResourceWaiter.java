@@ -0,0 +1,201 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background waiter shared by all callers. Pending waits of one resource kind are polled together with a
+ * single filtered Describe* call per tick, using jittered exponential backoff between ticks.
+ */
+public class ResourceWaiter implements AutoCloseable {
+
+    public enum Kind {
+        SNAPSHOT("snapshot-id", "error"),
+        VOLUME("volume-id", "error"),
+        INSTANCE("instance-id", "terminated"),
+        NAT_GATEWAY("nat-gateway-id", "failed");
+
+        final String filterName;
+        final String failureState;
+
+        Kind(String filterName, String failureState) {
+            this.filterName = filterName;
+            this.failureState = failureState;
+        }
+    }
+
+    static final int MAX_FILTER_VALUES = 200;
+    static final long DEFAULT_BASE_DELAY_MS = 1000;
+    static final long DEFAULT_MAX_DELAY_MS = 15000;
+    static final long DEFAULT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(30);
+
+    private final AmazonEC2 ec2;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Kind, Map<String, List<Pending>>> pending = new EnumMap<>(Kind.class);
+    private final Map<Kind, Long> delays = new EnumMap<>(Kind.class);
+    private final Set<Kind> scheduled = EnumSet.noneOf(Kind.class);
+    private final AtomicLong describeCalls = new AtomicLong();
+    private final AtomicLong resourcePolls = new AtomicLong();
+
+    public ResourceWaiter(AmazonEC2 ec2) {
+        this(ec2, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+    }
+
+    public ResourceWaiter(AmazonEC2 ec2, long baseDelayMs, long maxDelayMs) {
+        this.ec2 = ec2;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "resource-waiter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Kind kind : Kind.values())
+            pending.put(kind, new HashMap<>());
+    }
+
+    public CompletableFuture<String> await(Kind kind, String resourceId, String targetState) {
+        return await(kind, resourceId, targetState, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Returns a future that completes with the target state, or exceptionally when the resource reaches its
+     * failure state or the timeout elapses.
+     */
+    public CompletableFuture<String> await(Kind kind, String resourceId, String targetState, long timeoutMs) {
+        Pending waiter = new Pending(targetState, System.currentTimeMillis() + timeoutMs);
+        synchronized (this) {
+            Map<String, List<Pending>> byId = pending.get(kind);
+            // Start over from the base delay only when the kind was idle; a steady stream of new waits must not
+            // keep the poll rate pinned at its maximum
+            if (byId.isEmpty())
+                delays.put(kind, baseDelayMs);
+            byId.computeIfAbsent(resourceId, k -> new ArrayList<>()).add(waiter);
+            if (scheduled.add(kind))
+                scheduler.schedule(() -> tick(kind), jitter(baseDelayMs), TimeUnit.MILLISECONDS);
+        }
+        return waiter.future;
+    }
+
+    public long getDescribeCalls() {
+        return describeCalls.get();
+    }
+
+    /**
+     * Describe calls that per-resource polling would have made on top of the ones actually issued.
+     */
+    public long getSavedDescribeCalls() {
+        return resourcePolls.get() - describeCalls.get();
+    }
+
+    private void tick(Kind kind) {
+        List<String> ids;
+        synchronized (this) {
+            ids = new ArrayList<>(pending.get(kind).keySet());
+        }
+        Map<String, String> states = new HashMap<>();
+        try {
+            for (List<String> chunk : FleetController.partition(ids, MAX_FILTER_VALUES)) {
+                describeCalls.incrementAndGet();
+                states.putAll(describe(kind, chunk));
+            }
+            resourcePolls.addAndGet(ids.size());
+        } catch (RuntimeException e) {
+            // Throttling, a timeout or a reset connection; back off and try again on the next tick. Deadlines are
+            // still checked below, so waits time out even while every describe fails.
+            Log.event("waiter.describe_failed", "kind", kind,
+                    "error", e instanceof AmazonServiceException ? ((AmazonServiceException) e).getErrorCode() : e);
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Map<String, List<Pending>> byId = pending.get(kind);
+            for (Iterator<Map.Entry<String, List<Pending>>> it = byId.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, List<Pending>> entry = it.next();
+                String state = states.get(entry.getKey());
+                entry.getValue().removeIf(waiter -> waiter.update(entry.getKey(), state, kind.failureState, now));
+                if (entry.getValue().isEmpty())
+                    it.remove();
+            }
+            if (byId.isEmpty()) {
+                scheduled.remove(kind);
+                return;
+            }
+            long delay = Math.min(delays.get(kind) * 2, maxDelayMs);
+            delays.put(kind, delay);
+            scheduler.schedule(() -> tick(kind), jitter(delay), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Map<String, String> describe(Kind kind, List<String> ids) {
+        Filter filter = new Filter().withName(kind.filterName).withValues(ids);
+        Map<String, String> states = new HashMap<>();
+        switch (kind) {
+            case SNAPSHOT:
+                for (Snapshot snapshot : ec2.describeSnapshots(
+                        new DescribeSnapshotsRequest().withOwnerIds("self").withFilters(filter))
+                        .getSnapshots())
+                    states.put(snapshot.getSnapshotId(), snapshot.getState());
+                break;
+            case VOLUME:
+                for (Volume volume : ec2.describeVolumes(new DescribeVolumesRequest().withFilters(filter))
+                        .getVolumes())
+                    states.put(volume.getVolumeId(), volume.getState());
+                break;
+            case INSTANCE:
+                for (Reservation reservation : ec2.describeInstances(new DescribeInstancesRequest().withFilters(filter))
+                        .getReservations())
+                    for (Instance instance : reservation.getInstances())
+                        states.put(instance.getInstanceId(), instance.getState().getName());
+                break;
+            case NAT_GATEWAY:
+                for (NatGateway natGateway : ec2.describeNatGateways(new DescribeNatGatewaysRequest().withFilter(filter))
+                        .getNatGateways())
+                    states.put(natGateway.getNatGatewayId(), natGateway.getState());
+                break;
+        }
+        return states;
+    }
+
+    private long jitter(long delay) {
+        // Equal jitter: half the delay is fixed, the other half random
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private static class Pending {
+        final String targetState;
+        final long deadline;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        Pending(String targetState, long deadline) {
+            this.targetState = targetState;
+            this.deadline = deadline;
+        }
+
+        boolean update(String resourceId, String state, String failureState, long now) {
+            if (future.isDone())
+                return true;
+            if (targetState.equals(state))
+                return future.complete(state);
+            if (failureState.equals(state))
+                return future.completeExceptionally(
+                        new IllegalStateException(resourceId + " entered state " + state));
+            if (now >= deadline)
+                return future.completeExceptionally(
+                        new TimeoutException(resourceId + " did not reach " + targetState + ", last state " + state));
+            return false;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.example;
+
+public class RuleSyncResult {
+
+    private final String groupId;
+    private final int added;
+    private final int removed;
+    private final String error;
+
+    public RuleSyncResult(String groupId, int added, int removed, String error) {
+        this.groupId = groupId;
+        this.added = added;
+        this.removed = removed;
+        this.error = error;
+    }
+
+    public static RuleSyncResult failed(String groupId, String error) {
+        return new RuleSyncResult(groupId, 0, 0, error);
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public int getAdded() {
+        return added;
+    }
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    public boolean isUnchanged() {
+        return error == null && added == 0 && removed == 0;
+    }
+
+    @Override
+    public String toString() {
+        return error == null
+                ? groupId + " +" + added + " -" + removed
+                : groupId + " FAILED (" + error + ")";
+    }
+}
@@ -0,0 +1,199 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Brings the ingress rules of many security groups to a desired state. Current rules are read with one filtered
+ * describe, each group's permissions are split into single (protocol, ports, source) rules and diffed, and each
+ * group gets at most one AuthorizeSecurityGroupIngress and one RevokeSecurityGroupIngress call. Rule
+ * descriptions are not compared.
+ */
+public class SecurityGroupSync {
+
+    static final int DEFAULT_PARALLELISM = 4;
+
+    private final AmazonEC2 ec2;
+    private final int parallelism;
+
+    public SecurityGroupSync(AmazonEC2 ec2) {
+        this(ec2, DEFAULT_PARALLELISM);
+    }
+
+    public SecurityGroupSync(AmazonEC2 ec2, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.ec2 = ec2;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param desired the complete ingress rule set for each group ID; rules not listed are revoked
+     */
+    public Map<String, RuleSyncResult> sync(Map<String, ? extends Collection<IpPermission>> desired) {
+        Map<String, RuleSyncResult> results = new ConcurrentHashMap<>();
+        if (desired.isEmpty())
+            return new LinkedHashMap<>();
+        Map<String, Set<Rule>> current = describe(desired.keySet());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, desired.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Map.Entry<String, ? extends Collection<IpPermission>> entry : desired.entrySet()) {
+                String groupId = entry.getKey();
+                futures.add(executor.submit(() -> results.put(groupId,
+                        apply(groupId, current.get(groupId), rules(entry.getValue())))));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, RuleSyncResult> ordered = new LinkedHashMap<>();
+        for (String groupId : desired.keySet())
+            ordered.put(groupId, results.get(groupId));
+        return ordered;
+    }
+
+    private Map<String, Set<Rule>> describe(Collection<String> groupIds) {
+        Map<String, Set<Rule>> current = new HashMap<>();
+        for (List<String> chunk : FleetController.partition(groupIds, ResourceWaiter.MAX_FILTER_VALUES)) {
+            try (Stream<SecurityGroup> groups =
+                         Paginators.securityGroups(ec2, new Filter().withName("group-id").withValues(chunk))) {
+                groups.forEach(group -> current.put(group.getGroupId(), rules(group.getIpPermissions())));
+            }
+        }
+        return current;
+    }
+
+    private RuleSyncResult apply(String groupId, Set<Rule> current, Set<Rule> desired) {
+        if (current == null)
+            return RuleSyncResult.failed(groupId, "security group not found");
+        Set<Rule> toAdd = new LinkedHashSet<>(desired);
+        toAdd.removeAll(current);
+        Set<Rule> toRemove = new LinkedHashSet<>(current);
+        toRemove.removeAll(desired);
+
+        // Authorize before revoking so traffic that is only moving between rules is never dropped
+        try {
+            if (!toAdd.isEmpty())
+                ec2.authorizeSecurityGroupIngress(new AuthorizeSecurityGroupIngressRequest()
+                        .withGroupId(groupId).withIpPermissions(permissions(toAdd)));
+        } catch (RuntimeException e) {
+            return RuleSyncResult.failed(groupId, "authorize failed: " + message(e));
+        }
+        try {
+            if (!toRemove.isEmpty())
+                ec2.revokeSecurityGroupIngress(new RevokeSecurityGroupIngressRequest()
+                        .withGroupId(groupId).withIpPermissions(permissions(toRemove)));
+        } catch (RuntimeException e) {
+            return new RuleSyncResult(groupId, toAdd.size(), 0, "revoke failed: " + message(e));
+        }
+        if (!toAdd.isEmpty() || !toRemove.isEmpty())
+            Log.event("security_group.synced", "groupId", groupId, "added", toAdd.size(), "removed", toRemove.size());
+        return new RuleSyncResult(groupId, toAdd.size(), toRemove.size(), null);
+    }
+
+    private static String message(RuntimeException error) {
+        if (error instanceof AmazonServiceException)
+            return ((AmazonServiceException) error).getErrorMessage();
+        return String.valueOf(error.getMessage());
+    }
+
+    static Set<Rule> rules(Collection<IpPermission> permissions) {
+        Set<Rule> rules = new LinkedHashSet<>();
+        if (permissions == null)
+            return rules;
+        for (IpPermission permission : permissions) {
+            String protocol = permission.getIpProtocol().toLowerCase(Locale.ROOT);
+            boolean allTraffic = "-1".equals(protocol);
+            Integer from = allTraffic ? null : permission.getFromPort();
+            Integer to = allTraffic ? null : permission.getToPort();
+            for (IpRange range : permission.getIpv4Ranges())
+                rules.add(new Rule(protocol, from, to, Rule.Source.IPV4, range.getCidrIp()));
+            for (Ipv6Range range : permission.getIpv6Ranges())
+                rules.add(new Rule(protocol, from, to, Rule.Source.IPV6, range.getCidrIpv6()));
+            for (PrefixListId prefixList : permission.getPrefixListIds())
+                rules.add(new Rule(protocol, from, to, Rule.Source.PREFIX_LIST, prefixList.getPrefixListId()));
+            for (UserIdGroupPair pair : permission.getUserIdGroupPairs())
+                rules.add(new Rule(protocol, from, to, Rule.Source.GROUP, pair.getGroupId()));
+        }
+        return rules;
+    }
+
+    static List<IpPermission> permissions(Collection<Rule> rules) {
+        Map<List<Object>, List<Rule>> byPorts = rules.stream().collect(Collectors.groupingBy(
+                rule -> Arrays.asList(rule.protocol, rule.fromPort, rule.toPort), LinkedHashMap::new, Collectors.toList()));
+        List<IpPermission> permissions = new ArrayList<>();
+        for (List<Rule> group : byPorts.values()) {
+            Rule first = group.get(0);
+            IpPermission permission = new IpPermission()
+                    .withIpProtocol(first.protocol)
+                    .withFromPort(first.fromPort)
+                    .withToPort(first.toPort);
+            for (Rule rule : group) {
+                switch (rule.sourceType) {
+                    case IPV4:
+                        permission.withIpv4Ranges(new IpRange().withCidrIp(rule.source));
+                        break;
+                    case IPV6:
+                        permission.withIpv6Ranges(new Ipv6Range().withCidrIpv6(rule.source));
+                        break;
+                    case PREFIX_LIST:
+                        permission.withPrefixListIds(new PrefixListId().withPrefixListId(rule.source));
+                        break;
+                    case GROUP:
+                        permission.withUserIdGroupPairs(new UserIdGroupPair().withGroupId(rule.source));
+                        break;
+                }
+            }
+            permissions.add(permission);
+        }
+        return permissions;
+    }
+
+    static class Rule {
+        enum Source { IPV4, IPV6, PREFIX_LIST, GROUP }
+
+        final String protocol;
+        final Integer fromPort;
+        final Integer toPort;
+        final Source sourceType;
+        final String source;
+
+        Rule(String protocol, Integer fromPort, Integer toPort, Source sourceType, String source) {
+            this.protocol = protocol;
+            this.fromPort = fromPort;
+            this.toPort = toPort;
+            this.sourceType = sourceType;
+            this.source = source;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Rule))
+                return false;
+            Rule other = (Rule) o;
+            return protocol.equals(other.protocol) && Objects.equals(fromPort, other.fromPort)
+                    && Objects.equals(toPort, other.toPort) && sourceType == other.sourceType
+                    && source.equals(other.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(protocol, fromPort, toPort, sourceType, source);
+        }
+    }
+}
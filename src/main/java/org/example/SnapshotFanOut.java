@@ -0,0 +1,252 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Snapshots and restores many volumes at once. Instances are snapshotted with one multi-volume CreateSnapshots
+ * call each, which gives a crash-consistent set across the instance's volumes; loose volumes get individual
+ * CreateSnapshot calls. Calls run in parallel under a concurrency limit.
+ */
+public class SnapshotFanOut {
+
+    static final int DEFAULT_PARALLELISM = 8;
+
+    private final AmazonEC2 ec2;
+    private final ResourceWaiter waiter;
+    private final int parallelism;
+
+    public SnapshotFanOut(AmazonEC2 ec2, ResourceWaiter waiter) {
+        this(ec2, waiter, DEFAULT_PARALLELISM);
+    }
+
+    public SnapshotFanOut(AmazonEC2 ec2, ResourceWaiter waiter, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.ec2 = ec2;
+        this.waiter = waiter;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Snapshots every volume attached to each instance; results are keyed by volume ID, or by instance ID
+     * when the instance's call failed.
+     */
+    public SnapshotSet snapshotInstances(Collection<String> instanceIds, String description) {
+        List<List<ResourceResult>> perInstance = parallel(new ArrayList<>(new LinkedHashSet<>(instanceIds)),
+                instanceId -> {
+                    try {
+                        List<ResourceResult> results = new ArrayList<>();
+                        for (SnapshotInfo snapshot : ec2.createSnapshots(new CreateSnapshotsRequest()
+                                .withInstanceSpecification(new InstanceSpecification().withInstanceId(instanceId))
+                                .withDescription(description)
+                                .withCopyTagsFromSource(CopyTagsFromSource.Volume)).getSnapshots())
+                            results.add(new ResourceResult(snapshot.getVolumeId(), snapshot.getSnapshotId(), null));
+                        Log.event("snapshot.set_created", "instanceId", instanceId, "snapshots", results.size());
+                        return results;
+                    } catch (AmazonServiceException e) {
+                        return Collections.singletonList(ResourceResult.failed(instanceId, e.getErrorMessage()));
+                    }
+                });
+        List<ResourceResult> results = new ArrayList<>();
+        for (List<ResourceResult> instanceResults : perInstance)
+            results.addAll(instanceResults);
+        return new SnapshotSet(ec2, results);
+    }
+
+    public SnapshotSet snapshotVolumes(Collection<String> volumeIds, String description) {
+        return new SnapshotSet(ec2, parallel(new ArrayList<>(new LinkedHashSet<>(volumeIds)), volumeId -> {
+            try {
+                String snapshotId = ec2.createSnapshot(new CreateSnapshotRequest()
+                        .withVolumeId(volumeId)
+                        .withDescription(description)).getSnapshot().getSnapshotId();
+                Log.event("snapshot.created", "snapshotId", snapshotId, "volumeId", volumeId);
+                return new ResourceResult(volumeId, snapshotId, null);
+            } catch (AmazonServiceException e) {
+                return ResourceResult.failed(volumeId, e.getErrorMessage());
+            }
+        }));
+    }
+
+    /**
+     * Creates one volume per snapshot in the given zone and waits until all of them are available.
+     */
+    public List<ResourceResult> restore(Collection<String> snapshotIds, String availabilityZone) {
+        List<ResourceResult> created = parallel(new ArrayList<>(new LinkedHashSet<>(snapshotIds)), snapshotId -> {
+            try {
+                String volumeId = ec2.createVolume(new CreateVolumeRequest()
+                        .withSnapshotId(snapshotId)
+                        .withAvailabilityZone(availabilityZone)
+                        .withClientToken(UUID.randomUUID().toString())).getVolume().getVolumeId();
+                Log.event("volume.created", "volumeId", volumeId, "snapshotId", snapshotId);
+                return new ResourceResult(snapshotId, volumeId, null);
+            } catch (AmazonServiceException e) {
+                return ResourceResult.failed(snapshotId, e.getErrorMessage());
+            }
+        });
+
+        List<CompletableFuture<ResourceResult>> ready = new ArrayList<>();
+        for (ResourceResult result : created) {
+            if (result.isFailed()) {
+                ready.add(CompletableFuture.completedFuture(result));
+                continue;
+            }
+            ready.add(waiter.await(ResourceWaiter.Kind.VOLUME, result.getResourceId(), "available")
+                    .handle((state, error) -> error == null ? result : new ResourceResult(result.getSourceId(),
+                            result.getResourceId(), String.valueOf(unwrap(error).getMessage()))));
+        }
+        List<ResourceResult> results = new ArrayList<>();
+        for (CompletableFuture<ResourceResult> future : ready)
+            results.add(future.join());
+        return results;
+    }
+
+    private <T, R> List<R> parallel(List<T> items, Function<T, R> call) {
+        if (items.isEmpty())
+            return new ArrayList<>();
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, items.size()), r -> {
+            Thread thread = new Thread(r, "snapshot-fan-out-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<R>> futures = new ArrayList<>();
+            for (T item : items)
+                futures.add(executor.submit(() -> call.apply(item)));
+            List<R> results = new ArrayList<>();
+            for (Future<R> future : futures)
+                results.add(future.get());
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Snapshots started together. Progress of the whole set is read with one filtered describe per poll and
+     * weighted by volume size.
+     */
+    public static class SnapshotSet {
+        private final AmazonEC2 ec2;
+        private final List<ResourceResult> results;
+        private final Map<String, String> states = new HashMap<>();
+        private int percent;
+
+        SnapshotSet(AmazonEC2 ec2, List<ResourceResult> results) {
+            this.ec2 = ec2;
+            this.results = results;
+        }
+
+        /**
+         * Source volume to snapshot, as started; see {@link #await} for the final outcome.
+         */
+        public List<ResourceResult> getResults() {
+            return results;
+        }
+
+        public List<String> getSnapshotIds() {
+            List<String> snapshotIds = new ArrayList<>();
+            for (ResourceResult result : results) {
+                if (!result.isFailed())
+                    snapshotIds.add(result.getResourceId());
+            }
+            return snapshotIds;
+        }
+
+        public synchronized int getPercent() {
+            return percent;
+        }
+
+        /**
+         * Refreshes the state of every snapshot in the set and returns the overall percentage complete.
+         */
+        public synchronized int poll() {
+            List<String> snapshotIds = getSnapshotIds();
+            long totalSize = 0;
+            long doneSize = 0;
+            for (List<String> chunk : FleetController.partition(snapshotIds, ResourceWaiter.MAX_FILTER_VALUES)) {
+                List<Snapshot> snapshots = ec2.describeSnapshots(new DescribeSnapshotsRequest().withOwnerIds("self")
+                        .withFilters(new Filter().withName("snapshot-id").withValues(chunk))).getSnapshots();
+                for (Snapshot snapshot : snapshots) {
+                    states.put(snapshot.getSnapshotId(), snapshot.getState());
+                    long size = snapshot.getVolumeSize() == null ? 1 : snapshot.getVolumeSize();
+                    totalSize += size;
+                    doneSize += size * progress(snapshot);
+                }
+            }
+            percent = totalSize == 0 ? (snapshotIds.isEmpty() ? 100 : 0) : (int) (doneSize / totalSize);
+            return percent;
+        }
+
+        private static int progress(Snapshot snapshot) {
+            if ("completed".equals(snapshot.getState()))
+                return 100;
+            String progress = snapshot.getProgress();
+            if (progress == null || progress.isEmpty())
+                return 0;
+            return Integer.parseInt(progress.replace("%", "").trim());
+        }
+
+        public synchronized boolean isDone() {
+            for (String snapshotId : getSnapshotIds()) {
+                String state = states.get(snapshotId);
+                if (!"completed".equals(state) && !"error".equals(state))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Polls until every snapshot has completed or failed, or the timeout elapses, and returns the outcome of
+         * each source volume.
+         */
+        public List<ResourceResult> await(long pollIntervalMs, long timeoutMs) {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            int lastPercent = -1;
+            while (true) {
+                int current = poll();
+                if (current != lastPercent) {
+                    Log.event("snapshot.progress", "snapshots", getSnapshotIds().size(), "percent", current);
+                    lastPercent = current;
+                }
+                if (isDone() || System.currentTimeMillis() >= deadline)
+                    break;
+                try {
+                    Thread.sleep(pollIntervalMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+
+            List<ResourceResult> outcomes = new ArrayList<>();
+            synchronized (this) {
+                for (ResourceResult result : results) {
+                    String state = result.isFailed() ? null : states.get(result.getResourceId());
+                    if (result.isFailed() || "completed".equals(state))
+                        outcomes.add(result);
+                    else
+                        outcomes.add(new ResourceResult(result.getSourceId(), result.getResourceId(),
+                                "error".equals(state) ? "snapshot failed" : "timed out in state " + state));
+                }
+            }
+            return outcomes;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.example;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.regions.Regions;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * Measures time-to-first-API-call for a stop-instance invocation against a loopback stub.
+ * Run each mode in a fresh JVM:
+ * <pre>
+ *   java -cp ... org.example.StartupBenchmark eager   # old behaviour: credentials and both clients up front
+ *   java -cp ... org.example.StartupBenchmark lazy    # only what the first call needs
+ * </pre>
+ * The lazy run also serves as the training workload for an AppCDS archive (see README).
+ */
+public class StartupBenchmark {
+
+    static final String DRY_RUN_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<Response><Errors><Error><Code>DryRunOperation</Code>"
+            + "<Message>Request would have succeeded, but DryRun flag is set.</Message></Error></Errors>"
+            + "<RequestID>bench</RequestID></Response>";
+
+    static final String STOP_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<StopInstancesResponse xmlns=\"http://ec2.amazonaws.com/doc/2016-11-15/\">"
+            + "<requestId>bench</requestId><instancesSet><item><instanceId>i-bench</instanceId>"
+            + "<currentState><code>64</code><name>stopping</name></currentState>"
+            + "<previousState><code>16</code><name>running</name></previousState>"
+            + "</item></instancesSet></StopInstancesResponse>";
+
+    public static void main(String[] args) throws IOException {
+        long mainEntered = System.currentTimeMillis();
+        boolean eager = args.length > 0 && args[0].equals("eager");
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            boolean dryRun = body.contains("DryRun=true");
+            byte[] response = (dryRun ? DRY_RUN_RESPONSE : STOP_RESPONSE).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(dryRun ? 412 : 200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+
+        try {
+            AWSStaticCredentialsProvider credentials =
+                    new AWSStaticCredentialsProvider(new BasicAWSCredentials("bench", "bench"));
+            String endpoint = "http://127.0.0.1:" + server.getAddress().getPort();
+            ClientRegistry registry = ClientRegistry.forEndpoint(credentials, endpoint,
+                    Collections.singletonList(Regions.US_EAST_1));
+            App.useClients(registry);
+            if (eager) {
+                credentials.getCredentials();
+                registry.ec2(Regions.US_EAST_1);
+                registry.elb(Regions.US_EAST_1);
+            }
+
+            App.stopInstance("i-bench");
+
+            long now = System.currentTimeMillis();
+            long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+            System.out.printf("%n%s: first API call done %d ms after JVM start, %d ms after main%n",
+                    eager ? "eager" : "lazy", now - jvmStart, now - mainEntered);
+            registry.shutdown();
+        } finally {
+            server.stop(0);
+        }
+    }
+}
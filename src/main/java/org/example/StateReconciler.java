@@ -0,0 +1,505 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+
+import java.util.*;
+
+/**
+ * Converges the account to a {@link DesiredState}. Current state is read with one tag-filtered describe per
+ * resource kind, compared by Name tag, and turned into a minimal plan: creates for missing resources, in-place
+ * updates (tags, route table associations, volume growth, attachments) for drifted ones, and deletes for
+ * resources of the stack that are no longer declared. Creates and updates run as a {@link TaskGraph}, so
+ * independent resources are provisioned concurrently; deletes go through the {@link TeardownEngine}.
+ *
+ * <p>Drift that cannot be fixed in place, such as a different CIDR block or instance type, is reported as a
+ * conflict and blocks {@link #apply}. Tags that are not declared are left alone.
+ */
+public class StateReconciler {
+
+    public static final String STACK_TAG = "stack";
+    static final int DEFAULT_PARALLELISM = 16;
+
+    public enum Operation {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+
+    public static class Action {
+        private final Operation operation;
+        private final ResourceJournal.Kind kind;
+        private final String name;
+        private final Observed observed;
+        private final List<String> changes;
+        private final Map<String, String> tags;
+
+        Action(Operation operation, ResourceJournal.Kind kind, String name, Observed observed, List<String> changes,
+               Map<String, String> tags) {
+            this.operation = operation;
+            this.kind = kind;
+            this.name = name;
+            this.observed = observed;
+            this.changes = changes;
+            this.tags = tags;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public ResourceJournal.Kind getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * ID of the existing resource, or null for a create.
+         */
+        public String getResourceId() {
+            return observed == null ? null : observed.id;
+        }
+
+        public List<String> getChanges() {
+            return changes;
+        }
+
+        @Override
+        public String toString() {
+            return operation + " " + kind + " " + name + (observed == null ? "" : " " + observed.id)
+                    + (changes.isEmpty() ? "" : " " + changes);
+        }
+    }
+
+    public static class Plan {
+        private final DesiredState state;
+        private final Map<String, Observed> observed;
+        private final List<Action> actions;
+        private final List<String> conflicts;
+
+        Plan(DesiredState state, Map<String, Observed> observed, List<Action> actions, List<String> conflicts) {
+            this.state = state;
+            this.observed = observed;
+            this.actions = actions;
+            this.conflicts = conflicts;
+        }
+
+        public List<Action> getActions() {
+            return actions;
+        }
+
+        public List<String> getConflicts() {
+            return conflicts;
+        }
+
+        public boolean isEmpty() {
+            return actions.isEmpty() && conflicts.isEmpty();
+        }
+
+        Action find(String name) {
+            for (Action action : actions) {
+                if (action.operation != Operation.DELETE && action.name.equals(name))
+                    return action;
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return actions + (conflicts.isEmpty() ? "" : " conflicts=" + conflicts);
+        }
+    }
+
+    // A resource of the stack as found in the account
+    static class Observed {
+        final ResourceJournal.Kind kind;
+        final String id;
+        final String name;
+        final Map<String, String> attributes = new HashMap<>();
+        final Map<String, String> tags = new HashMap<>();
+        // Route tables only: subnet ID to association ID
+        final Map<String, String> associations = new HashMap<>();
+
+        Observed(ResourceJournal.Kind kind, String id, List<Tag> tags) {
+            this.kind = kind;
+            this.id = id;
+            for (Tag tag : tags)
+                this.tags.put(tag.getKey(), tag.getValue());
+            this.name = this.tags.get("Name");
+        }
+
+        Observed with(String attribute, String value) {
+            if (value != null)
+                attributes.put(attribute, value);
+            return this;
+        }
+    }
+
+    private final AmazonEC2 ec2;
+    private final ResourceWaiter waiter;
+    private final TeardownEngine teardown;
+    private final int parallelism;
+
+    public StateReconciler(AmazonEC2 ec2, ResourceWaiter waiter) {
+        this(ec2, waiter, new TeardownEngine(ec2, new ResourceDeleter(ec2, null, waiter)), DEFAULT_PARALLELISM);
+    }
+
+    public StateReconciler(AmazonEC2 ec2, ResourceWaiter waiter, TeardownEngine teardown, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.ec2 = ec2;
+        this.waiter = waiter;
+        this.teardown = teardown;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Every resource tagged with the stack, one filtered describe per kind.
+     */
+    List<Observed> read(String stack) {
+        Filter owned = new Filter().withName("tag:" + STACK_TAG).withValues(stack);
+        List<Observed> resources = new ArrayList<>();
+        for (Vpc vpc : ec2.describeVpcs(new DescribeVpcsRequest().withFilters(owned)).getVpcs())
+            resources.add(new Observed(ResourceJournal.Kind.VPC, vpc.getVpcId(), vpc.getTags())
+                    .with(DesiredState.CIDR, vpc.getCidrBlock()));
+        Paginators.subnets(ec2, owned).forEach(subnet -> resources.add(
+                new Observed(ResourceJournal.Kind.SUBNET, subnet.getSubnetId(), subnet.getTags())
+                        .with(DesiredState.VPC, subnet.getVpcId())
+                        .with(DesiredState.CIDR, subnet.getCidrBlock())
+                        .with(DesiredState.AVAILABILITY_ZONE, subnet.getAvailabilityZone())));
+        for (RouteTable routeTable : ec2.describeRouteTables(new DescribeRouteTablesRequest().withFilters(owned))
+                .getRouteTables()) {
+            Observed observed = new Observed(ResourceJournal.Kind.ROUTE_TABLE, routeTable.getRouteTableId(),
+                    routeTable.getTags()).with(DesiredState.VPC, routeTable.getVpcId());
+            for (RouteTableAssociation association : routeTable.getAssociations()) {
+                if (association.getSubnetId() != null)
+                    observed.associations.put(association.getSubnetId(), association.getRouteTableAssociationId());
+            }
+            resources.add(observed);
+        }
+        Paginators.instances(ec2, owned, new Filter().withName("instance-state-name")
+                .withValues("pending", "running", "stopping", "stopped")).forEach(instance -> resources.add(
+                new Observed(ResourceJournal.Kind.INSTANCE, instance.getInstanceId(), instance.getTags())
+                        .with(DesiredState.SUBNET, instance.getSubnetId())
+                        .with(DesiredState.AMI, instance.getImageId())
+                        .with(DesiredState.INSTANCE_TYPE, instance.getInstanceType())));
+        Paginators.volumes(ec2, owned).forEach(volume -> {
+            Observed observed = new Observed(ResourceJournal.Kind.VOLUME, volume.getVolumeId(), volume.getTags())
+                    .with(DesiredState.SIZE, String.valueOf(volume.getSize()))
+                    .with(DesiredState.AVAILABILITY_ZONE, volume.getAvailabilityZone());
+            if (!volume.getAttachments().isEmpty())
+                observed.with(DesiredState.INSTANCE, volume.getAttachments().get(0).getInstanceId())
+                        .with(DesiredState.DEVICE, volume.getAttachments().get(0).getDevice());
+            resources.add(observed);
+        });
+        return resources;
+    }
+
+    public Plan plan(DesiredState state) {
+        Map<String, Observed> byName = new HashMap<>();
+        List<Action> actions = new ArrayList<>();
+        List<String> conflicts = new ArrayList<>();
+        for (Observed resource : read(state.getStack())) {
+            DesiredState.Resource desired = resource.name == null ? null : state.get(resource.name);
+            if (desired != null && desired.getKind() == resource.kind && !byName.containsKey(resource.name))
+                byName.put(resource.name, resource);
+            else
+                actions.add(new Action(Operation.DELETE, resource.kind, resource.name, resource,
+                        Collections.emptyList(), Collections.emptyMap()));
+        }
+
+        for (DesiredState.Resource desired : state.getResources()) {
+            Observed observed = byName.get(desired.getName());
+            if (observed == null) {
+                actions.add(new Action(Operation.CREATE, desired.getKind(), desired.getName(), null,
+                        Collections.emptyList(), Collections.emptyMap()));
+                continue;
+            }
+            List<String> changes = new ArrayList<>();
+            compare(desired, observed, byName, changes, conflicts);
+
+            Map<String, String> tags = new TreeMap<>();
+            for (Map.Entry<String, String> tag : tags(state, desired).entrySet()) {
+                if (!tag.getValue().equals(observed.tags.get(tag.getKey())))
+                    tags.put(tag.getKey(), tag.getValue());
+            }
+            if (!tags.isEmpty())
+                changes.add("tags " + tags);
+            if (!changes.isEmpty())
+                actions.add(new Action(Operation.UPDATE, desired.getKind(), desired.getName(), observed, changes,
+                        tags));
+        }
+        Plan plan = new Plan(state, byName, actions, conflicts);
+        Log.event("reconcile.planned", "stack", state.getStack(), "actions", actions.size(),
+                "conflicts", conflicts.size());
+        return plan;
+    }
+
+    private static void compare(DesiredState.Resource desired, Observed observed, Map<String, Observed> byName,
+                                List<String> changes, List<String> conflicts) {
+        switch (desired.getKind()) {
+            case VPC:
+                immutable(desired, observed, DesiredState.CIDR, conflicts);
+                break;
+            case SUBNET:
+                immutable(desired, observed, DesiredState.CIDR, conflicts);
+                immutable(desired, observed, DesiredState.AVAILABILITY_ZONE, conflicts);
+                sameParent(desired, observed, DesiredState.VPC, byName, conflicts);
+                break;
+            case ROUTE_TABLE:
+                sameParent(desired, observed, DesiredState.VPC, byName, conflicts);
+                Set<String> associated = new HashSet<>(observed.associations.keySet());
+                for (String subnet : desired.getReferences().subList(1, desired.getReferences().size())) {
+                    Observed existing = byName.get(subnet);
+                    if (existing == null || !associated.remove(existing.id))
+                        changes.add("associate " + subnet);
+                }
+                for (String subnetId : associated)
+                    changes.add("disassociate " + subnetId);
+                break;
+            case INSTANCE:
+                immutable(desired, observed, DesiredState.INSTANCE_TYPE, conflicts);
+                immutable(desired, observed, DesiredState.AMI, conflicts);
+                sameParent(desired, observed, DesiredState.SUBNET, byName, conflicts);
+                break;
+            case VOLUME:
+                immutable(desired, observed, DesiredState.AVAILABILITY_ZONE, conflicts);
+                int size = Integer.parseInt(desired.get(DesiredState.SIZE));
+                int current = Integer.parseInt(observed.attributes.get(DesiredState.SIZE));
+                if (size > current)
+                    changes.add("grow " + current + " -> " + size + " GiB");
+                else if (size < current)
+                    conflicts.add(desired.getName() + ": volumes cannot shrink from " + current + " GiB");
+                String instance = desired.get(DesiredState.INSTANCE);
+                String attachedTo = observed.attributes.get(DesiredState.INSTANCE);
+                Observed owner = instance == null ? null : byName.get(instance);
+                if (instance != null && (owner == null || !owner.id.equals(attachedTo))) {
+                    if (attachedTo == null)
+                        changes.add("attach to " + instance);
+                    else
+                        conflicts.add(desired.getName() + ": attached to " + attachedTo + ", not " + instance);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported kind " + desired.getKind());
+        }
+    }
+
+    private static void immutable(DesiredState.Resource desired, Observed observed, String attribute,
+                                  List<String> conflicts) {
+        String wanted = desired.get(attribute);
+        String actual = observed.attributes.get(attribute);
+        if (wanted != null && !wanted.equals(actual))
+            conflicts.add(desired.getName() + ": " + attribute + " is " + actual + ", wanted " + wanted);
+    }
+
+    private static void sameParent(DesiredState.Resource desired, Observed observed, String attribute,
+                                   Map<String, Observed> byName, List<String> conflicts) {
+        Observed parent = byName.get(desired.get(attribute));
+        String actual = observed.attributes.get(attribute);
+        if (parent == null || !parent.id.equals(actual))
+            conflicts.add(desired.getName() + ": " + attribute + " is " + actual + ", wanted "
+                    + desired.get(attribute));
+    }
+
+    private static Map<String, String> tags(DesiredState state, DesiredState.Resource desired) {
+        Map<String, String> tags = new TreeMap<>(desired.getTags());
+        tags.put("Name", desired.getName());
+        tags.put(STACK_TAG, state.getStack());
+        return tags;
+    }
+
+    private static TagSpecification tagSpecification(ResourceType type, DesiredState state,
+                                                     DesiredState.Resource desired) {
+        List<Tag> tags = new ArrayList<>();
+        for (Map.Entry<String, String> tag : tags(state, desired).entrySet())
+            tags.add(new Tag(tag.getKey(), tag.getValue()));
+        return new TagSpecification().withResourceType(type).withTags(tags);
+    }
+
+    /**
+     * Reads, plans and applies in one go.
+     */
+    public TaskGraph.Result reconcile(DesiredState state) {
+        return apply(plan(state));
+    }
+
+    /**
+     * Runs the plan and returns the resource ID of every declared resource, keyed by name.
+     */
+    public TaskGraph.Result apply(Plan plan) {
+        if (!plan.conflicts.isEmpty())
+            throw new IllegalStateException("Plan has conflicts: " + plan.conflicts);
+
+        List<ResourceJournal.Entry> deletes = new ArrayList<>();
+        Map<Map<String, String>, List<String>> retags = new LinkedHashMap<>();
+        for (Action action : plan.actions) {
+            if (action.operation == Operation.DELETE)
+                deletes.add(new ResourceJournal.Entry(null, action.kind, action.observed.id,
+                        action.observed.attributes.get(DesiredState.VPC), null, 0));
+            else if (!action.tags.isEmpty())
+                retags.computeIfAbsent(action.tags, k -> new ArrayList<>()).add(action.observed.id);
+        }
+        if (!deletes.isEmpty())
+            teardown.teardown(deletes, resourceId -> { });
+        // Existing resources needing the same tag change share one request
+        for (Map.Entry<Map<String, String>, List<String>> group : retags.entrySet()) {
+            List<Tag> tags = new ArrayList<>();
+            for (Map.Entry<String, String> tag : group.getKey().entrySet())
+                tags.add(new Tag(tag.getKey(), tag.getValue()));
+            for (List<String> resources : FleetController.partition(group.getValue(),
+                    TagCoalescer.MAX_RESOURCES_PER_REQUEST))
+                ec2.createTags(new CreateTagsRequest().withResources(resources).withTags(tags));
+        }
+
+        TaskGraph graph = new TaskGraph();
+        for (DesiredState.Resource desired : plan.state.getResources()) {
+            Action action = plan.find(desired.getName());
+            Observed observed = plan.observed.get(desired.getName());
+            graph.add(desired.getName(), inputs -> {
+                if (action == null)
+                    return observed.id;
+                return action.operation == Operation.CREATE
+                        ? create(plan, desired, inputs)
+                        : update(plan, desired, observed, inputs);
+            }, desired.getReferences().toArray(new String[0]));
+        }
+        TaskGraph.Result result = graph.execute(Math.max(1, Math.min(parallelism, graph.getNodeNames().size())));
+        Log.event("reconcile.applied", "stack", plan.state.getStack(), "actions", plan.actions.size(),
+                "wallClockMs", result.getWallClockMillis());
+        return result;
+    }
+
+    private String create(Plan plan, DesiredState.Resource desired, Map<String, String> inputs) {
+        DesiredState state = plan.state;
+        switch (desired.getKind()) {
+            case VPC:
+                return ec2.createVpc(new CreateVpcRequest()
+                        .withCidrBlock(desired.get(DesiredState.CIDR))
+                        .withTagSpecifications(tagSpecification(ResourceType.Vpc, state, desired)))
+                        .getVpc().getVpcId();
+            case SUBNET:
+                return ec2.createSubnet(new CreateSubnetRequest()
+                        .withVpcId(inputs.get(desired.get(DesiredState.VPC)))
+                        .withCidrBlock(desired.get(DesiredState.CIDR))
+                        .withAvailabilityZone(desired.get(DesiredState.AVAILABILITY_ZONE))
+                        .withTagSpecifications(tagSpecification(ResourceType.Subnet, state, desired)))
+                        .getSubnet().getSubnetId();
+            case ROUTE_TABLE:
+                String routeTableId = ec2.createRouteTable(new CreateRouteTableRequest()
+                        .withVpcId(inputs.get(desired.get(DesiredState.VPC)))
+                        .withTagSpecifications(tagSpecification(ResourceType.RouteTable, state, desired)))
+                        .getRouteTable().getRouteTableId();
+                for (String subnet : desired.getReferences().subList(1, desired.getReferences().size()))
+                    associate(routeTableId, inputs.get(subnet));
+                return routeTableId;
+            case INSTANCE:
+                return ec2.runInstances(new RunInstancesRequest()
+                        .withImageId(desired.get(DesiredState.AMI))
+                        .withInstanceType(desired.get(DesiredState.INSTANCE_TYPE))
+                        .withKeyName(desired.get(DesiredState.KEY_NAME))
+                        .withSubnetId(inputs.get(desired.get(DesiredState.SUBNET)))
+                        .withMinCount(1)
+                        .withMaxCount(1)
+                        .withClientToken(UUID.randomUUID().toString())
+                        .withTagSpecifications(tagSpecification(ResourceType.Instance, state, desired)))
+                        .getReservation().getInstances().get(0).getInstanceId();
+            case VOLUME:
+                String volumeId = ec2.createVolume(new CreateVolumeRequest()
+                        .withAvailabilityZone(desired.get(DesiredState.AVAILABILITY_ZONE))
+                        .withSize(Integer.parseInt(desired.get(DesiredState.SIZE)))
+                        .withClientToken(UUID.randomUUID().toString())
+                        .withTagSpecifications(tagSpecification(ResourceType.Volume, state, desired)))
+                        .getVolume().getVolumeId();
+                if (desired.get(DesiredState.INSTANCE) != null) {
+                    waiter.await(ResourceWaiter.Kind.VOLUME, volumeId, "available").join();
+                    attach(plan, desired, volumeId, inputs);
+                }
+                return volumeId;
+            default:
+                throw new IllegalArgumentException("Unsupported kind " + desired.getKind());
+        }
+    }
+
+    private String update(Plan plan, DesiredState.Resource desired, Observed observed, Map<String, String> inputs) {
+        switch (desired.getKind()) {
+            case ROUTE_TABLE:
+                Set<String> wanted = new HashSet<>();
+                for (String subnet : desired.getReferences().subList(1, desired.getReferences().size())) {
+                    String subnetId = inputs.get(subnet);
+                    wanted.add(subnetId);
+                    if (!observed.associations.containsKey(subnetId))
+                        associate(observed.id, subnetId);
+                }
+                for (Map.Entry<String, String> association : observed.associations.entrySet()) {
+                    if (wanted.contains(association.getKey()))
+                        continue;
+                    try {
+                        ec2.disassociateRouteTable(new DisassociateRouteTableRequest()
+                                .withAssociationId(association.getValue()));
+                    } catch (AmazonServiceException e) {
+                        // Deleting the subnet earlier in this run already removed the association
+                        if (e.getErrorCode() == null || !e.getErrorCode().endsWith("NotFound"))
+                            throw e;
+                    }
+                }
+                break;
+            case VOLUME:
+                int size = Integer.parseInt(desired.get(DesiredState.SIZE));
+                if (size > Integer.parseInt(observed.attributes.get(DesiredState.SIZE)))
+                    ec2.modifyVolume(new ModifyVolumeRequest().withVolumeId(observed.id).withSize(size));
+                boolean detached = observed.attributes.get(DesiredState.INSTANCE) == null;
+                if (desired.get(DesiredState.INSTANCE) != null && detached)
+                    attach(plan, desired, observed.id, inputs);
+                break;
+            default:
+                // Tags are the only in-place change for other kinds, and were sent before the graph ran
+                break;
+        }
+        return observed.id;
+    }
+
+    // A subnet has at most one explicit association. When it is moving here from another route table, whose
+    // disassociation runs in that table's own node, the old association may still be in place; it is then moved
+    // over with ReplaceRouteTableAssociation, and the other table's disassociation finds it gone.
+    private void associate(String routeTableId, String subnetId) {
+        AssociateRouteTableRequest request = new AssociateRouteTableRequest()
+                .withRouteTableId(routeTableId).withSubnetId(subnetId);
+        try {
+            ec2.associateRouteTable(request);
+            return;
+        } catch (AmazonServiceException e) {
+            if (!"Resource.AlreadyAssociated".equals(e.getErrorCode()))
+                throw e;
+        }
+        for (RouteTable current : ec2.describeRouteTables(new DescribeRouteTablesRequest().withFilters(
+                new Filter().withName("association.subnet-id").withValues(subnetId))).getRouteTables()) {
+            for (RouteTableAssociation association : current.getAssociations()) {
+                if (!subnetId.equals(association.getSubnetId()))
+                    continue;
+                if (!routeTableId.equals(current.getRouteTableId()))
+                    ec2.replaceRouteTableAssociation(new ReplaceRouteTableAssociationRequest()
+                            .withAssociationId(association.getRouteTableAssociationId())
+                            .withRouteTableId(routeTableId));
+                return;
+            }
+        }
+        // Disassociated in the meantime
+        ec2.associateRouteTable(request);
+    }
+
+    private void attach(Plan plan, DesiredState.Resource desired, String volumeId, Map<String, String> inputs) {
+        String instance = desired.get(DesiredState.INSTANCE);
+        String instanceId = inputs.get(instance);
+        Action instanceAction = plan.find(instance);
+        // A volume cannot be attached while its instance is still pending
+        if (instanceAction != null && instanceAction.operation == Operation.CREATE)
+            waiter.await(ResourceWaiter.Kind.INSTANCE, instanceId, "running").join();
+        ec2.attachVolume(new AttachVolumeRequest()
+                .withVolumeId(volumeId).withInstanceId(instanceId).withDevice(desired.get(DesiredState.DEVICE)));
+    }
+}
@@ -0,0 +1,222 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.DeleteTagsRequest;
+import com.amazonaws.services.ec2.model.Tag;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Buffers tag set/delete operations and writes them with as few CreateTags/DeleteTags calls as possible.
+ * Later operations on the same resource and key replace earlier ones; resources that end up with an identical
+ * tag change are merged into one multi-resource request. The buffer is flushed when it reaches a size limit,
+ * on a fixed interval, or explicitly; only an explicit {@link #flush()} reports failed writes to its caller.
+ */
+public class TagCoalescer implements AutoCloseable {
+
+    static final int MAX_RESOURCES_PER_REQUEST = 1000;
+    static final int DEFAULT_MAX_PENDING = 1000;
+    static final long DEFAULT_FLUSH_INTERVAL_MS = 500;
+
+    private final AmazonEC2 ec2;
+    private final int maxPending;
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<String> onWritten;
+    private Map<String, Map<String, PendingTag>> pending = new LinkedHashMap<>();
+    private final Object flushLock = new Object();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public TagCoalescer(AmazonEC2 ec2) {
+        this(ec2, DEFAULT_MAX_PENDING, DEFAULT_FLUSH_INTERVAL_MS, resourceId -> { });
+    }
+
+    /**
+     * @param onWritten called with each resource ID once its tag changes have been sent
+     */
+    public TagCoalescer(AmazonEC2 ec2, int maxPending, long flushIntervalMs, Consumer<String> onWritten) {
+        this.ec2 = ec2;
+        this.maxPending = maxPending;
+        this.onWritten = onWritten;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tag-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void set(String resourceId, Collection<Tag> tags) {
+        for (Tag tag : tags)
+            add(resourceId, tag.getKey(), new PendingTag(false, tag.getValue()));
+    }
+
+    /**
+     * Tags with a null value are removed whatever their value; with a value, only when it matches.
+     */
+    public void delete(String resourceId, Collection<Tag> tags) {
+        for (Tag tag : tags)
+            add(resourceId, tag.getKey(), new PendingTag(true, tag.getValue()));
+    }
+
+    private void add(String resourceId, String key, PendingTag tag) {
+        boolean full;
+        synchronized (this) {
+            pending.computeIfAbsent(resourceId, k -> new LinkedHashMap<>()).put(key, tag);
+            operations.incrementAndGet();
+            full = pending.size() >= maxPending;
+        }
+        if (full)
+            scheduler.execute(this::flushQuietly);
+    }
+
+    public synchronized int getPendingResources() {
+        return pending.size();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getOperations() {
+        return operations.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            Log.event("tags.flush_failed", "error", e);
+        }
+    }
+
+    /**
+     * Sends everything buffered so far and returns the number of requests made. Flushes are serialized, so when
+     * this returns, every change queued before the call has been written, including changes a concurrent flush
+     * had already taken.
+     *
+     * <p>Writes that fail with a throttling or other transient error are queued again behind any newer change to
+     * the same tag. Any other error on a multi-resource request is taken to name one of its resources, so the
+     * request is split in halves until only the offending resources fail; their changes are dropped. Either way
+     * the first failure is thrown once the rest of the batch has been sent, with any further ones attached as
+     * suppressed exceptions.
+     */
+    public int flush() {
+        synchronized (flushLock) {
+            Map<String, Map<String, PendingTag>> batch;
+            synchronized (this) {
+                if (pending.isEmpty())
+                    return 0;
+                batch = pending;
+                pending = new LinkedHashMap<>();
+            }
+
+            // Group resources by their exact set of changes, keyed separately for creates and deletes
+            Map<List<Tag>, List<String>> creates = new LinkedHashMap<>();
+            Map<List<Tag>, List<String>> deletes = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<String, PendingTag>> entry : batch.entrySet()) {
+                List<Tag> toSet = new ArrayList<>();
+                List<Tag> toDelete = new ArrayList<>();
+                for (Map.Entry<String, PendingTag> tag : new TreeMap<>(entry.getValue()).entrySet()) {
+                    Tag value = new Tag().withKey(tag.getKey()).withValue(tag.getValue().value);
+                    (tag.getValue().delete ? toDelete : toSet).add(value);
+                }
+                if (!toSet.isEmpty())
+                    creates.computeIfAbsent(toSet, k -> new ArrayList<>()).add(entry.getKey());
+                if (!toDelete.isEmpty())
+                    deletes.computeIfAbsent(toDelete, k -> new ArrayList<>()).add(entry.getKey());
+            }
+
+            long before = requests.get();
+            RuntimeException failure = null;
+            for (Map.Entry<List<Tag>, List<String>> group : creates.entrySet()) {
+                for (List<String> resources : FleetController.partition(group.getValue(), MAX_RESOURCES_PER_REQUEST)) {
+                    failure = send(resources, group.getKey(), false, failure, ids -> ec2.createTags(
+                            new CreateTagsRequest().withResources(ids).withTags(group.getKey())));
+                }
+            }
+            for (Map.Entry<List<Tag>, List<String>> group : deletes.entrySet()) {
+                for (List<String> resources : FleetController.partition(group.getValue(), MAX_RESOURCES_PER_REQUEST)) {
+                    failure = send(resources, group.getKey(), true, failure, ids -> ec2.deleteTags(
+                            new DeleteTagsRequest().withResources(ids).withTags(group.getKey())));
+                }
+            }
+            if (failure != null)
+                throw failure;
+            return (int) (requests.get() - before);
+        }
+    }
+
+    // Returns the flush's first failure so far, this call's if it is the first
+    private RuntimeException send(List<String> resources, List<Tag> tags, boolean delete, RuntimeException failure,
+                                  Consumer<List<String>> call) {
+        requests.incrementAndGet();
+        try {
+            call.accept(resources);
+        } catch (RuntimeException e) {
+            boolean retry = !(e instanceof AmazonServiceException)
+                    || RetryUtils.isRetryableServiceException((AmazonServiceException) e)
+                    || RetryUtils.isThrottlingException((AmazonServiceException) e);
+            if (!retry && resources.size() > 1) {
+                // One bad ID rejects the whole request; split it so only the offending IDs fail
+                for (List<String> half : FleetController.bisect(resources))
+                    failure = send(half, tags, delete, failure, call);
+                return failure;
+            }
+            failures.incrementAndGet();
+            Log.event("tags.write_failed", "resources", resources.size(),
+                    "error", e instanceof AmazonServiceException ? ((AmazonServiceException) e).getErrorCode() : e,
+                    "requeued", retry);
+            if (retry)
+                requeue(resources, tags, delete);
+            if (failure == null)
+                return e;
+            failure.addSuppressed(e);
+            return failure;
+        }
+        for (String resourceId : resources)
+            onWritten.accept(resourceId);
+        return failure;
+    }
+
+    // Puts failed changes back unless a newer change to the same tag has been queued meanwhile
+    private synchronized void requeue(List<String> resources, List<Tag> tags, boolean delete) {
+        for (String resourceId : resources) {
+            Map<String, PendingTag> changes = pending.computeIfAbsent(resourceId, k -> new LinkedHashMap<>());
+            for (Tag tag : tags)
+                changes.putIfAbsent(tag.getKey(), new PendingTag(delete, tag.getValue()));
+        }
+    }
+
+    /**
+     * Stops the background flush and sends what is left; failures of this last flush are only logged.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        flushQuietly();
+    }
+
+    private static class PendingTag {
+        final boolean delete;
+        final String value;
+
+        PendingTag(boolean delete, String value) {
+            this.delete = delete;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.example;
+
+public class TargetActionResult {
+
+    public enum Status {
+        REGISTERED,
+        DEREGISTERED,
+        UNCHANGED,
+        FAILED
+    }
+
+    private final String targetGroupArn;
+    private final String targetId;
+    private final Status status;
+    private final String reason;
+
+    public TargetActionResult(String targetGroupArn, String targetId, Status status, String reason) {
+        this.targetGroupArn = targetGroupArn;
+        this.targetId = targetId;
+        this.status = status;
+        this.reason = reason;
+    }
+
+    public static TargetActionResult failed(String targetGroupArn, String targetId, String reason) {
+        return new TargetActionResult(targetGroupArn, targetId, Status.FAILED, reason);
+    }
+
+    public String getTargetGroupArn() {
+        return targetGroupArn;
+    }
+
+    public String getTargetId() {
+        return targetId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public boolean isFailed() {
+        return status == Status.FAILED;
+    }
+
+    @Override
+    public String toString() {
+        return reason == null ? targetId + "=" + status : targetId + "=" + status + " (" + reason + ")";
+    }
+}
@@ -0,0 +1,150 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.elasticloadbalancingv2.AmazonElasticLoadBalancing;
+import com.amazonaws.services.elasticloadbalancingv2.model.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Brings the registered targets of many target groups to a desired set. Current targets are read with
+ * DescribeTargetHealth, and only the difference is registered or deregistered, in chunks that run in parallel
+ * across all groups. Targets that are draining count as absent, so a desired target that is draining is
+ * registered again.
+ */
+public class TargetGroupReconciler {
+
+    static final int MAX_TARGETS_PER_REQUEST = 100;
+    static final int DEFAULT_PARALLELISM = 4;
+
+    private final AmazonElasticLoadBalancing elb;
+    private final int chunkSize;
+    private final int parallelism;
+
+    public TargetGroupReconciler(AmazonElasticLoadBalancing elb) {
+        this(elb, MAX_TARGETS_PER_REQUEST, DEFAULT_PARALLELISM);
+    }
+
+    public TargetGroupReconciler(AmazonElasticLoadBalancing elb, int chunkSize, int parallelism) {
+        if (chunkSize < 1 || chunkSize > MAX_TARGETS_PER_REQUEST)
+            throw new IllegalArgumentException("chunkSize must be between 1 and " + MAX_TARGETS_PER_REQUEST);
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.elb = elb;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param desired the complete set of target IDs for each target group ARN; targets not listed are deregistered
+     * @return per-target outcomes for each group, covering both desired targets and removed ones
+     */
+    public Map<String, List<TargetActionResult>> reconcile(Map<String, ? extends Collection<String>> desired) {
+        Map<String, List<TargetActionResult>> ordered = new LinkedHashMap<>();
+        if (desired.isEmpty())
+            return ordered;
+        Map<String, Map<String, TargetActionResult>> results = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            // Read all groups concurrently, then queue every register/deregister chunk on the same pool
+            Map<String, Future<Set<String>>> current = new LinkedHashMap<>();
+            for (String targetGroupArn : desired.keySet())
+                current.put(targetGroupArn, executor.submit(() -> registeredTargets(targetGroupArn)));
+
+            List<Future<?>> changes = new ArrayList<>();
+            for (Map.Entry<String, ? extends Collection<String>> entry : desired.entrySet()) {
+                String targetGroupArn = entry.getKey();
+                Map<String, TargetActionResult> groupResults = new ConcurrentHashMap<>();
+                results.put(targetGroupArn, groupResults);
+                Set<String> wanted = new LinkedHashSet<>(entry.getValue());
+                Set<String> registered;
+                try {
+                    registered = current.get(targetGroupArn).get();
+                } catch (ExecutionException e) {
+                    String reason = message(e.getCause());
+                    for (String targetId : wanted)
+                        groupResults.put(targetId, TargetActionResult.failed(targetGroupArn, targetId, reason));
+                    continue;
+                }
+
+                List<String> toRegister = new ArrayList<>();
+                for (String targetId : wanted) {
+                    if (registered.contains(targetId))
+                        groupResults.put(targetId, new TargetActionResult(targetGroupArn, targetId,
+                                TargetActionResult.Status.UNCHANGED, null));
+                    else
+                        toRegister.add(targetId);
+                }
+                List<String> toDeregister = new ArrayList<>(registered);
+                toDeregister.removeAll(wanted);
+
+                for (List<String> chunk : FleetController.partition(toRegister, chunkSize))
+                    changes.add(executor.submit(() -> apply(targetGroupArn, chunk, true, groupResults)));
+                for (List<String> chunk : FleetController.partition(toDeregister, chunkSize))
+                    changes.add(executor.submit(() -> apply(targetGroupArn, chunk, false, groupResults)));
+            }
+            for (Future<?> change : changes)
+                change.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (Map.Entry<String, ? extends Collection<String>> entry : desired.entrySet()) {
+            Map<String, TargetActionResult> groupResults = results.get(entry.getKey());
+            List<TargetActionResult> list = new ArrayList<>();
+            for (String targetId : new LinkedHashSet<>(entry.getValue()))
+                list.add(groupResults.remove(targetId));
+            list.addAll(groupResults.values());
+            ordered.put(entry.getKey(), list);
+        }
+        return ordered;
+    }
+
+    private static String message(Throwable error) {
+        if (error instanceof AmazonServiceException)
+            return ((AmazonServiceException) error).getErrorMessage();
+        return String.valueOf(error);
+    }
+
+    private Set<String> registeredTargets(String targetGroupArn) {
+        Set<String> targets = new LinkedHashSet<>();
+        for (TargetHealthDescription description : elb.describeTargetHealth(
+                new DescribeTargetHealthRequest().withTargetGroupArn(targetGroupArn)).getTargetHealthDescriptions()) {
+            if (!TargetHealthStateEnum.Draining.toString().equals(description.getTargetHealth().getState()))
+                targets.add(description.getTarget().getId());
+        }
+        return targets;
+    }
+
+    private void apply(String targetGroupArn, List<String> targetIds, boolean register,
+                       Map<String, TargetActionResult> results) {
+        List<TargetDescription> targets = new ArrayList<>();
+        for (String targetId : targetIds)
+            targets.add(new TargetDescription().withId(targetId));
+        try {
+            if (register)
+                elb.registerTargets(new RegisterTargetsRequest()
+                        .withTargetGroupArn(targetGroupArn).withTargets(targets));
+            else
+                elb.deregisterTargets(new DeregisterTargetsRequest()
+                        .withTargetGroupArn(targetGroupArn).withTargets(targets));
+        } catch (RuntimeException e) {
+            // Timeouts and reset connections included, so one chunk cannot discard every other outcome
+            for (String targetId : targetIds)
+                results.put(targetId, TargetActionResult.failed(targetGroupArn, targetId, message(e)));
+            return;
+        }
+        TargetActionResult.Status status = register
+                ? TargetActionResult.Status.REGISTERED : TargetActionResult.Status.DEREGISTERED;
+        for (String targetId : targetIds)
+            results.put(targetId, new TargetActionResult(targetGroupArn, targetId, status, null));
+        Log.event(register ? "target_group.registered" : "target_group.deregistered",
+                "targetGroupArn", targetGroupArn, "targets", targetIds.size());
+    }
+}
@@ -0,0 +1,200 @@
+package org.example;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Small DAG executor. Each node runs as soon as all of its dependencies have finished and receives their
+ * outputs (resource IDs) keyed by node name. Timings are recorded so the critical path can be reported.
+ */
+public class TaskGraph {
+
+    public interface Task {
+        String run(Map<String, String> inputs) throws Exception;
+    }
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+    public TaskGraph add(String name, Task task, String... dependsOn) {
+        if (nodes.containsKey(name))
+            throw new IllegalArgumentException("Duplicate node " + name);
+        nodes.put(name, new Node(name, task, Arrays.asList(dependsOn)));
+        return this;
+    }
+
+    public Set<String> getNodeNames() {
+        return Collections.unmodifiableSet(nodes.keySet());
+    }
+
+    public Result execute(int parallelism) {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            return execute(executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Like {@link #execute(int)}, except that a failure only skips the failed node's dependents: every other node
+     * still runs to completion, and the first failure is thrown once all of them have finished. Nothing in
+     * progress is interrupted.
+     */
+    public Result executeAll(int parallelism) {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            return execute(executor, true);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public Result execute(Executor executor) {
+        return execute(executor, false);
+    }
+
+    private Result execute(Executor executor, boolean settle) {
+        List<Node> order = topologicalOrder();
+        Map<String, CompletableFuture<String>> futures = new HashMap<>();
+        Map<String, long[]> timings = new ConcurrentHashMap<>();
+        long started = System.nanoTime();
+
+        for (Node node : order) {
+            CompletableFuture<?>[] deps = new CompletableFuture<?>[node.dependsOn.size()];
+            for (int i = 0; i < deps.length; i++)
+                deps[i] = futures.get(node.dependsOn.get(i));
+            // Inputs come from the captured deps, never from futures, which is still being filled on this thread
+            CompletableFuture<String> future = CompletableFuture.allOf(deps).thenApplyAsync(ignored -> {
+                Map<String, String> inputs = new HashMap<>();
+                for (int i = 0; i < deps.length; i++)
+                    inputs.put(node.dependsOn.get(i), (String) deps[i].join());
+                long start = System.nanoTime();
+                try {
+                    return node.task.run(inputs);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                } finally {
+                    timings.put(node.name, new long[]{start - started, System.nanoTime() - started});
+                }
+            }, executor);
+            futures.put(node.name, future);
+        }
+
+        if (settle)
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0]))
+                    .handle((ignored, e) -> null).join();
+        Map<String, String> outputs = new LinkedHashMap<>();
+        for (Node node : order) {
+            try {
+                outputs.put(node.name, futures.get(node.name).join());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+                throw new IllegalStateException("Node " + node.name + " failed", cause);
+            }
+        }
+        return new Result(outputs, timings, criticalPath(timings), System.nanoTime() - started);
+    }
+
+    private List<Node> topologicalOrder() {
+        List<Node> order = new ArrayList<>();
+        Map<String, Integer> marks = new HashMap<>();
+        for (Node node : nodes.values())
+            visit(node, marks, order);
+        return order;
+    }
+
+    private void visit(Node node, Map<String, Integer> marks, List<Node> order) {
+        Integer mark = marks.get(node.name);
+        if (mark != null && mark == 2)
+            return;
+        if (mark != null)
+            throw new IllegalArgumentException("Cycle through node " + node.name);
+        marks.put(node.name, 1);
+        for (String dep : node.dependsOn) {
+            Node depNode = nodes.get(dep);
+            if (depNode == null)
+                throw new IllegalArgumentException("Node " + node.name + " depends on unknown node " + dep);
+            visit(depNode, marks, order);
+        }
+        marks.put(node.name, 2);
+        order.add(node);
+    }
+
+    private List<String> criticalPath(Map<String, long[]> timings) {
+        String current = null;
+        for (String name : timings.keySet()) {
+            if (current == null || timings.get(name)[1] > timings.get(current)[1])
+                current = name;
+        }
+        LinkedList<String> path = new LinkedList<>();
+        while (current != null) {
+            path.addFirst(current);
+            String next = null;
+            for (String dep : nodes.get(current).dependsOn) {
+                if (next == null || timings.get(dep)[1] > timings.get(next)[1])
+                    next = dep;
+            }
+            current = next;
+        }
+        return path;
+    }
+
+    private static class Node {
+        final String name;
+        final Task task;
+        final List<String> dependsOn;
+
+        Node(String name, Task task, List<String> dependsOn) {
+            this.name = name;
+            this.task = task;
+            this.dependsOn = dependsOn;
+        }
+    }
+
+    public static class Result {
+        private final Map<String, String> outputs;
+        private final Map<String, long[]> timings;
+        private final List<String> criticalPath;
+        private final long wallClockNanos;
+
+        Result(Map<String, String> outputs, Map<String, long[]> timings, List<String> criticalPath,
+               long wallClockNanos) {
+            this.outputs = outputs;
+            this.timings = timings;
+            this.criticalPath = criticalPath;
+            this.wallClockNanos = wallClockNanos;
+        }
+
+        public String get(String node) {
+            return outputs.get(node);
+        }
+
+        public Map<String, String> getOutputs() {
+            return outputs;
+        }
+
+        public long getDurationMillis(String node) {
+            long[] timing = timings.get(node);
+            return TimeUnit.NANOSECONDS.toMillis(timing[1] - timing[0]);
+        }
+
+        public List<String> getCriticalPath() {
+            return criticalPath;
+        }
+
+        public long getWallClockMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(wallClockNanos);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Wall clock %d ms, critical path:%n", getWallClockMillis()));
+            for (String node : criticalPath)
+                sb.append(String.format("  %-20s %6d ms%n", node, getDurationMillis(node)));
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+import com.amazonaws.services.elasticloadbalancingv2.AmazonElasticLoadBalancing;
+import com.amazonaws.services.elasticloadbalancingv2.model.DescribeLoadBalancersRequest;
+import com.amazonaws.services.elasticloadbalancingv2.model.DescribeLoadBalancersResult;
+import com.amazonaws.services.elasticloadbalancingv2.model.DescribeTargetGroupsRequest;
+import com.amazonaws.services.elasticloadbalancingv2.model.DescribeTargetGroupsResult;
+import com.amazonaws.services.elasticloadbalancingv2.model.LoadBalancer;
+import com.amazonaws.services.elasticloadbalancingv2.model.TargetGroup;
+
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Deletes a set of resources as a {@link TaskGraph} in reverse dependency order: a resource is deleted once
+ * everything that blocks it (instances in a subnet, NAT gateways holding an EIP, ...) is gone, and independent
+ * resources are deleted concurrently. The set comes from a VPC, a tag, or a {@link ResourceJournal}.
+ *
+ * <p>Dependencies are derived from resource kinds, which is exact within one VPC and conservative across several.
+ * EC2 sometimes reports a DependencyViolation for a few seconds after the blocker is gone; such deletes are
+ * retried with jittered backoff. A delete that still fails only holds back what depends on it; every other delete
+ * runs to completion before the failure is reported.
+ */
+public class TeardownEngine {
+
+    static final long DEFAULT_BASE_DELAY_MS = 1000;
+    static final long DEFAULT_MAX_DELAY_MS = 15000;
+    static final long DEFAULT_RETRY_TIMEOUT_MS = 5 * 60 * 1000;
+    static final int DEFAULT_PARALLELISM = 16;
+
+    // Kinds whose deletion must wait for the listed kinds to be deleted first
+    private static final Map<ResourceJournal.Kind, EnumSet<ResourceJournal.Kind>> BLOCKERS =
+            new EnumMap<>(ResourceJournal.Kind.class);
+
+    static {
+        BLOCKERS.put(ResourceJournal.Kind.VPC, EnumSet.of(ResourceJournal.Kind.SUBNET,
+                ResourceJournal.Kind.INTERNET_GATEWAY, ResourceJournal.Kind.ROUTE_TABLE,
+                ResourceJournal.Kind.SECURITY_GROUP, ResourceJournal.Kind.TARGET_GROUP));
+        BLOCKERS.put(ResourceJournal.Kind.SUBNET, EnumSet.of(ResourceJournal.Kind.INSTANCE,
+                ResourceJournal.Kind.NAT_GATEWAY, ResourceJournal.Kind.LOAD_BALANCER));
+        // Detaching fails while the VPC still has public addresses mapped
+        BLOCKERS.put(ResourceJournal.Kind.INTERNET_GATEWAY, EnumSet.of(ResourceJournal.Kind.INSTANCE,
+                ResourceJournal.Kind.NAT_GATEWAY, ResourceJournal.Kind.ELASTIC_IP, ResourceJournal.Kind.LOAD_BALANCER));
+        BLOCKERS.put(ResourceJournal.Kind.ELASTIC_IP, EnumSet.of(ResourceJournal.Kind.NAT_GATEWAY,
+                ResourceJournal.Kind.INSTANCE));
+        BLOCKERS.put(ResourceJournal.Kind.SECURITY_GROUP, EnumSet.of(ResourceJournal.Kind.INSTANCE,
+                ResourceJournal.Kind.LOAD_BALANCER));
+        BLOCKERS.put(ResourceJournal.Kind.VOLUME, EnumSet.of(ResourceJournal.Kind.INSTANCE));
+        BLOCKERS.put(ResourceJournal.Kind.TARGET_GROUP, EnumSet.of(ResourceJournal.Kind.LOAD_BALANCER));
+    }
+
+    private final AmazonEC2 ec2;
+    private final AmazonElasticLoadBalancing elb;
+    private final ResourceDeleter deleter;
+    private final int parallelism;
+    private long baseDelayMs = DEFAULT_BASE_DELAY_MS;
+    private long maxDelayMs = DEFAULT_MAX_DELAY_MS;
+    private long retryTimeoutMs = DEFAULT_RETRY_TIMEOUT_MS;
+
+    public TeardownEngine(AmazonEC2 ec2, ResourceDeleter deleter) {
+        this(ec2, deleter, DEFAULT_PARALLELISM);
+    }
+
+    public TeardownEngine(AmazonEC2 ec2, ResourceDeleter deleter, int parallelism) {
+        this(ec2, null, deleter, parallelism);
+    }
+
+    /**
+     * @param elb used to discover load balancers and target groups in a VPC; null to leave them out
+     */
+    public TeardownEngine(AmazonEC2 ec2, AmazonElasticLoadBalancing elb, ResourceDeleter deleter, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.ec2 = ec2;
+        this.elb = elb;
+        this.deleter = deleter;
+        this.parallelism = parallelism;
+    }
+
+    TeardownEngine retryDelays(long baseDelayMs, long maxDelayMs, long retryTimeoutMs) {
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.retryTimeoutMs = retryTimeoutMs;
+        return this;
+    }
+
+    /**
+     * Everything in the VPC that blocks its deletion, plus the VPC itself, found with one filtered describe per
+     * resource kind. Default security groups and main route tables go away with the VPC and are left out. Load
+     * balancers and target groups are only found when the engine has an ELB client; without one, a VPC that
+     * still has them fails to delete.
+     */
+    public List<ResourceJournal.Entry> discoverVpc(String vpcId) {
+        List<ResourceJournal.Entry> resources = new ArrayList<>();
+        Filter inVpc = new Filter().withName("vpc-id").withValues(vpcId);
+
+        List<String> instanceIds = new ArrayList<>();
+        Paginators.instances(ec2, inVpc, liveInstances()).forEach(instance -> {
+            instanceIds.add(instance.getInstanceId());
+            resources.add(entry(ResourceJournal.Kind.INSTANCE, instance.getInstanceId(), instance.getSubnetId()));
+        });
+        resources.addAll(dataVolumes(instanceIds));
+
+        for (NatGateway natGateway : ec2.describeNatGateways(new DescribeNatGatewaysRequest().withFilter(inVpc,
+                new Filter().withName("state").withValues("pending", "available"))).getNatGateways()) {
+            resources.add(entry(ResourceJournal.Kind.NAT_GATEWAY, natGateway.getNatGatewayId(),
+                    natGateway.getSubnetId()));
+            for (NatGatewayAddress address : natGateway.getNatGatewayAddresses())
+                resources.add(entry(ResourceJournal.Kind.ELASTIC_IP, address.getAllocationId(), null));
+        }
+        for (InternetGateway gateway : ec2.describeInternetGateways(new DescribeInternetGatewaysRequest()
+                .withFilters(new Filter().withName("attachment.vpc-id").withValues(vpcId))).getInternetGateways())
+            resources.add(entry(ResourceJournal.Kind.INTERNET_GATEWAY, gateway.getInternetGatewayId(), vpcId));
+        if (elb != null)
+            resources.addAll(loadBalancing(vpcId));
+        Paginators.subnets(ec2, inVpc).forEach(subnet ->
+                resources.add(entry(ResourceJournal.Kind.SUBNET, subnet.getSubnetId(), vpcId)));
+        for (RouteTable routeTable : ec2.describeRouteTables(new DescribeRouteTablesRequest().withFilters(inVpc))
+                .getRouteTables()) {
+            boolean main = routeTable.getAssociations().stream().anyMatch(a -> Boolean.TRUE.equals(a.getMain()));
+            if (!main)
+                resources.add(entry(ResourceJournal.Kind.ROUTE_TABLE, routeTable.getRouteTableId(), vpcId));
+        }
+        Paginators.securityGroups(ec2, inVpc).forEach(group -> {
+            if (!"default".equals(group.getGroupName()))
+                resources.add(entry(ResourceJournal.Kind.SECURITY_GROUP, group.getGroupId(), vpcId));
+        });
+        resources.add(entry(ResourceJournal.Kind.VPC, vpcId, null));
+        return resources;
+    }
+
+    /**
+     * Every resource carrying the tag, found with one filtered describe per resource kind.
+     */
+    public List<ResourceJournal.Entry> discoverTagged(String key, String value) {
+        List<ResourceJournal.Entry> resources = new ArrayList<>();
+        Filter tag = new Filter().withName("tag:" + key).withValues(value);
+
+        List<String> instanceIds = new ArrayList<>();
+        Paginators.instances(ec2, tag, liveInstances()).forEach(instance -> {
+            instanceIds.add(instance.getInstanceId());
+            resources.add(entry(ResourceJournal.Kind.INSTANCE, instance.getInstanceId(), instance.getSubnetId()));
+        });
+        Paginators.volumes(ec2, tag).forEach(volume ->
+                resources.add(entry(ResourceJournal.Kind.VOLUME, volume.getVolumeId(), null)));
+        Paginators.snapshots(ec2, tag).forEach(snapshot ->
+                resources.add(entry(ResourceJournal.Kind.SNAPSHOT, snapshot.getSnapshotId(), snapshot.getVolumeId())));
+        for (NatGateway natGateway : ec2.describeNatGateways(new DescribeNatGatewaysRequest().withFilter(tag,
+                new Filter().withName("state").withValues("pending", "available"))).getNatGateways())
+            resources.add(entry(ResourceJournal.Kind.NAT_GATEWAY, natGateway.getNatGatewayId(),
+                    natGateway.getSubnetId()));
+        for (Address address : ec2.describeAddresses(new DescribeAddressesRequest().withFilters(tag)).getAddresses())
+            resources.add(entry(ResourceJournal.Kind.ELASTIC_IP, address.getAllocationId(), null));
+        for (InternetGateway gateway : ec2.describeInternetGateways(new DescribeInternetGatewaysRequest()
+                .withFilters(tag)).getInternetGateways()) {
+            String vpcId = gateway.getAttachments().isEmpty() ? null : gateway.getAttachments().get(0).getVpcId();
+            resources.add(entry(ResourceJournal.Kind.INTERNET_GATEWAY, gateway.getInternetGatewayId(), vpcId));
+        }
+        Paginators.subnets(ec2, tag).forEach(subnet ->
+                resources.add(entry(ResourceJournal.Kind.SUBNET, subnet.getSubnetId(), subnet.getVpcId())));
+        for (RouteTable routeTable : ec2.describeRouteTables(new DescribeRouteTablesRequest().withFilters(tag))
+                .getRouteTables())
+            resources.add(entry(ResourceJournal.Kind.ROUTE_TABLE, routeTable.getRouteTableId(), routeTable.getVpcId()));
+        Paginators.securityGroups(ec2, tag).forEach(group ->
+                resources.add(entry(ResourceJournal.Kind.SECURITY_GROUP, group.getGroupId(), group.getVpcId())));
+        for (KeyPairInfo keyPair : ec2.describeKeyPairs(new DescribeKeyPairsRequest().withFilters(tag)).getKeyPairs())
+            resources.add(entry(ResourceJournal.Kind.KEY_PAIR, keyPair.getKeyName(), null));
+        for (Vpc vpc : ec2.describeVpcs(new DescribeVpcsRequest().withFilters(tag)).getVpcs())
+            resources.add(entry(ResourceJournal.Kind.VPC, vpc.getVpcId(), null));
+        return resources;
+    }
+
+    // ELBv2 describes cannot filter by VPC, so every page is read and filtered here
+    private List<ResourceJournal.Entry> loadBalancing(String vpcId) {
+        List<ResourceJournal.Entry> resources = new ArrayList<>();
+        String marker = null;
+        do {
+            DescribeLoadBalancersResult page = elb.describeLoadBalancers(
+                    new DescribeLoadBalancersRequest().withMarker(marker));
+            for (LoadBalancer loadBalancer : page.getLoadBalancers()) {
+                if (vpcId.equals(loadBalancer.getVpcId()))
+                    resources.add(entry(ResourceJournal.Kind.LOAD_BALANCER, loadBalancer.getLoadBalancerArn(), vpcId));
+            }
+            marker = page.getNextMarker();
+        } while (marker != null);
+        do {
+            DescribeTargetGroupsResult page = elb.describeTargetGroups(
+                    new DescribeTargetGroupsRequest().withMarker(marker));
+            for (TargetGroup targetGroup : page.getTargetGroups()) {
+                if (vpcId.equals(targetGroup.getVpcId()))
+                    resources.add(entry(ResourceJournal.Kind.TARGET_GROUP, targetGroup.getTargetGroupArn(), vpcId));
+            }
+            marker = page.getNextMarker();
+        } while (marker != null);
+        return resources;
+    }
+
+    private static Filter liveInstances() {
+        return new Filter().withName("instance-state-name").withValues("pending", "running", "stopping", "stopped");
+    }
+
+    // Volumes that would survive their instance's termination
+    private List<ResourceJournal.Entry> dataVolumes(List<String> instanceIds) {
+        List<ResourceJournal.Entry> volumes = new ArrayList<>();
+        for (List<String> chunk : FleetController.partition(instanceIds, ResourceWaiter.MAX_FILTER_VALUES)) {
+            Paginators.volumes(ec2, new Filter().withName("attachment.instance-id").withValues(chunk),
+                    new Filter().withName("attachment.delete-on-termination").withValues("false"))
+                    .forEach(volume -> volumes.add(entry(ResourceJournal.Kind.VOLUME, volume.getVolumeId(),
+                            volume.getAttachments().get(0).getInstanceId())));
+        }
+        return volumes;
+    }
+
+    private static ResourceJournal.Entry entry(ResourceJournal.Kind kind, String resourceId, String parentId) {
+        return new ResourceJournal.Entry(null, kind, resourceId, parentId, null, 0);
+    }
+
+    /**
+     * The deletion graph: one node per resource, named by resource ID, depending on the resources that block it.
+     */
+    public TaskGraph plan(Collection<ResourceJournal.Entry> resources, Consumer<String> onDeleted) {
+        Map<String, ResourceJournal.Entry> unique = new LinkedHashMap<>();
+        for (ResourceJournal.Entry resource : resources) {
+            if (resource.getKind() != ResourceJournal.Kind.OTHER)
+                unique.putIfAbsent(resource.getResourceId(), resource);
+        }
+        Map<ResourceJournal.Kind, List<String>> byKind = unique.values().stream().collect(Collectors.groupingBy(
+                ResourceJournal.Entry::getKind, () -> new EnumMap<>(ResourceJournal.Kind.class),
+                Collectors.mapping(ResourceJournal.Entry::getResourceId, Collectors.toList())));
+
+        TaskGraph graph = new TaskGraph();
+        for (ResourceJournal.Entry resource : unique.values()) {
+            List<String> dependsOn = new ArrayList<>();
+            for (ResourceJournal.Kind blocker : BLOCKERS.getOrDefault(resource.getKind(),
+                    EnumSet.noneOf(ResourceJournal.Kind.class)))
+                dependsOn.addAll(byKind.getOrDefault(blocker, Collections.emptyList()));
+            graph.add(resource.getResourceId(), inputs -> {
+                deleteWithRetry(resource);
+                onDeleted.accept(resource.getResourceId());
+                return resource.getKind().name();
+            }, dependsOn.toArray(new String[0]));
+        }
+        return graph;
+    }
+
+    public TaskGraph.Result teardown(Collection<ResourceJournal.Entry> resources, Consumer<String> onDeleted) {
+        TaskGraph graph = plan(resources, onDeleted);
+        if (graph.getNodeNames().isEmpty())
+            return graph.execute(1);
+        // Interrupting deletes in flight would leave them half done and unjournaled
+        TaskGraph.Result result = graph.executeAll(Math.min(parallelism, graph.getNodeNames().size()));
+        Log.event("teardown.completed", "resources", graph.getNodeNames().size(),
+                "wallClockMs", result.getWallClockMillis());
+        return result;
+    }
+
+    private void deleteWithRetry(ResourceJournal.Entry resource) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + retryTimeoutMs;
+        long delay = baseDelayMs;
+        while (true) {
+            try {
+                deleter.delete(resource.getKind(), resource.getResourceId(), resource.getParentId());
+                return;
+            } catch (AmazonServiceException e) {
+                // ELBv2 reports a target group still held by a just-deleted load balancer as ResourceInUse
+                if (!"DependencyViolation".equals(e.getErrorCode()) && !"ResourceInUse".equals(e.getErrorCode())
+                        || System.currentTimeMillis() >= deadline)
+                    throw e;
+                Log.event("teardown.blocked", "resourceId", resource.getResourceId(), "error", e.getErrorMessage());
+            } catch (CompletionException e) {
+                // A waiter inside the deleter failed or timed out
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+            Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            delay = Math.min(delay * 2, maxDelayMs);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.example;
+
+import com.amazonaws.regions.Regions;
+
+import java.util.concurrent.CompletionException;
+
+/**
+ * Declarative VPC topology. Each call adds a node whose output is the created resource ID; references to
+ * other nodes become edges, so independent steps (subnets in different AZs, EIPs, key pairs) run in parallel.
+ *
+ * <pre>
+ * TaskGraph.Result result = new TopologyBuilder()
+ *         .vpc("vpc", "testVPC")
+ *         .subnet("public-a", "vpc", "10.0.0.0/27", "us-east-1a")
+ *         .internetGateway("igw", "vpc")
+ *         .publicRouteTable("public-rt", "vpc", "public-a", "igw")
+ *         .elasticIp("nat-eip")
+ *         .natGateway("nat", "public-a", "nat-eip")
+ *         .provision(8);
+ * </pre>
+ */
+public class TopologyBuilder {
+
+    private final TaskGraph graph = new TaskGraph();
+    private final Regions region;
+
+    public TopologyBuilder() {
+        this(App.currentRegion());
+    }
+
+    public TopologyBuilder(Regions region) {
+        this.region = region;
+    }
+
+    // With a journal in use (App.useJournal), nodes completed by an earlier run return their recorded IDs
+    private void add(String node, ResourceJournal.Kind kind, TaskGraph.Task task, String... dependsOn) {
+        graph.add(node, inputs -> App.inRegion(region, () -> App.journaled(node, kind, () -> {
+            try {
+                return task.run(inputs);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        })), dependsOn);
+    }
+
+    public TopologyBuilder vpc(String node, String name) {
+        add(node, ResourceJournal.Kind.VPC, inputs -> App.createVpc(name));
+        return this;
+    }
+
+    public TopologyBuilder subnet(String node, String vpcNode, String cidr, String availabilityZone) {
+        add(node, ResourceJournal.Kind.SUBNET,
+                inputs -> App.createSubnet(node, inputs.get(vpcNode), cidr, availabilityZone), vpcNode);
+        return this;
+    }
+
+    public TopologyBuilder internetGateway(String node, String vpcNode) {
+        add(node, ResourceJournal.Kind.INTERNET_GATEWAY,
+                inputs -> App.createIGW(node, inputs.get(vpcNode)), vpcNode);
+        return this;
+    }
+
+    public TopologyBuilder publicRouteTable(String node, String vpcNode, String subnetNode, String igwNode) {
+        add(node, ResourceJournal.Kind.ROUTE_TABLE, inputs -> App.createRouteTableWithIGW(node, inputs.get(vpcNode),
+                inputs.get(subnetNode), inputs.get(igwNode)), vpcNode, subnetNode, igwNode);
+        return this;
+    }
+
+    public TopologyBuilder elasticIp(String node) {
+        add(node, ResourceJournal.Kind.ELASTIC_IP, inputs -> App.createElasticAddress(node));
+        return this;
+    }
+
+    /**
+     * The node completes only once the NAT gateway is available, so private route tables can use it directly.
+     */
+    public TopologyBuilder natGateway(String node, String subnetNode, String eipNode) {
+        add(node, ResourceJournal.Kind.NAT_GATEWAY, inputs -> {
+            String natGatewayId = App.createNATGateway(node, inputs.get(subnetNode), inputs.get(eipNode));
+            App.waitFor(ResourceWaiter.Kind.NAT_GATEWAY, natGatewayId, "available");
+            return natGatewayId;
+        }, subnetNode, eipNode);
+        return this;
+    }
+
+    public TopologyBuilder privateRouteTable(String node, String vpcNode, String subnetNode, String natNode) {
+        add(node, ResourceJournal.Kind.ROUTE_TABLE, inputs -> App.createRouteTableWithNGW(node, inputs.get(vpcNode),
+                inputs.get(subnetNode), inputs.get(natNode)), vpcNode, subnetNode, natNode);
+        return this;
+    }
+
+    public TopologyBuilder keyPair(String node, String keyName) {
+        add(node, ResourceJournal.Kind.KEY_PAIR, inputs -> {
+            App.createKeyPair(keyName);
+            return keyName;
+        });
+        return this;
+    }
+
+    public TopologyBuilder instance(String node, String amiId, String subnetNode, String keyPairNode) {
+        add(node, ResourceJournal.Kind.INSTANCE,
+                inputs -> App.createInstance(node, amiId, inputs.get(subnetNode), inputs.get(keyPairNode)),
+                subnetNode, keyPairNode);
+        return this;
+    }
+
+    /**
+     * Adds a custom step, for operations the builder does not cover.
+     */
+    public TopologyBuilder step(String node, TaskGraph.Task task, String... dependsOn) {
+        add(node, ResourceJournal.Kind.OTHER, task, dependsOn);
+        return this;
+    }
+
+    public TaskGraph build() {
+        return graph;
+    }
+
+    public TaskGraph.Result provision(int parallelism) {
+        TaskGraph.Result result = graph.execute(parallelism);
+        Log.event("topology.provisioned", "wallClockMs", result.getWallClockMillis(),
+                "criticalPath", result.getCriticalPath());
+        return result;
+    }
+}
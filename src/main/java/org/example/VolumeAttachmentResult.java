@@ -0,0 +1,77 @@
+package org.example;
+
+public class VolumeAttachmentResult {
+
+    private final String instanceId;
+    private final String device;
+    private final String volumeId;
+    private final long createMillis;
+    private final long availableMillis;
+    private final long attachMillis;
+    private final String error;
+
+    public VolumeAttachmentResult(String instanceId, String device, String volumeId, long createMillis,
+                                  long availableMillis, long attachMillis, String error) {
+        this.instanceId = instanceId;
+        this.device = device;
+        this.volumeId = volumeId;
+        this.createMillis = createMillis;
+        this.availableMillis = availableMillis;
+        this.attachMillis = attachMillis;
+        this.error = error;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public String getDevice() {
+        return device;
+    }
+
+    /**
+     * Null when the volume was never created.
+     */
+    public String getVolumeId() {
+        return volumeId;
+    }
+
+    /**
+     * Time spent in CreateVolume.
+     */
+    public long getCreateMillis() {
+        return createMillis;
+    }
+
+    /**
+     * Time from CreateVolume returning until the volume was seen available.
+     */
+    public long getAvailableMillis() {
+        return availableMillis;
+    }
+
+    /**
+     * Time spent in AttachVolume.
+     */
+    public long getAttachMillis() {
+        return attachMillis;
+    }
+
+    public long getTotalMillis() {
+        return createMillis + availableMillis + attachMillis;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    @Override
+    public String toString() {
+        String target = instanceId + ":" + device + "=" + volumeId;
+        return error == null ? target + " " + getTotalMillis() + "ms" : target + " FAILED (" + error + ")";
+    }
+}
@@ -0,0 +1,184 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates and attaches data volumes for many (instance, device) pairs. Every volume moves through
+ * create, wait for available and attach on its own, so the first volumes are attached while later ones are
+ * still being created. Availability is tracked by the shared {@link ResourceWaiter}, which polls all pending
+ * volumes with one describe per tick.
+ */
+public class VolumePipeline {
+
+    public static class Spec {
+        final String instanceId;
+        final String device;
+        final int sizeGiB;
+        final String volumeType;
+        final String name;
+
+        public Spec(String instanceId, String device, int sizeGiB) {
+            this(instanceId, device, sizeGiB, VolumeType.Gp2.toString(), null);
+        }
+
+        public Spec(String instanceId, String device, int sizeGiB, String volumeType, String name) {
+            this.instanceId = instanceId;
+            this.device = device;
+            this.sizeGiB = sizeGiB;
+            this.volumeType = volumeType;
+            this.name = name;
+        }
+    }
+
+    static final int DEFAULT_PARALLELISM = 8;
+
+    private final AmazonEC2 ec2;
+    private final ResourceWaiter waiter;
+    private final int parallelism;
+
+    public VolumePipeline(AmazonEC2 ec2, ResourceWaiter waiter) {
+        this(ec2, waiter, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param parallelism maximum number of CreateVolume/AttachVolume calls in flight
+     */
+    public VolumePipeline(AmazonEC2 ec2, ResourceWaiter waiter, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.ec2 = ec2;
+        this.waiter = waiter;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns one result per spec, in the same order. Volumes are created in each instance's availability zone.
+     */
+    public List<VolumeAttachmentResult> createAndAttach(List<Spec> specs) {
+        if (specs.isEmpty())
+            return new ArrayList<>();
+        Set<String> instanceIds = new LinkedHashSet<>();
+        for (Spec spec : specs)
+            instanceIds.add(spec.instanceId);
+        Map<String, String> zones = availabilityZones(instanceIds);
+
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, specs.size()), r -> {
+            Thread thread = new Thread(r, "volume-pipeline-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<CompletableFuture<VolumeAttachmentResult>> futures = new ArrayList<>();
+            for (Spec spec : specs)
+                futures.add(run(spec, zones.get(spec.instanceId), executor));
+            List<VolumeAttachmentResult> results = new ArrayList<>();
+            for (CompletableFuture<VolumeAttachmentResult> future : futures)
+                results.add(future.join());
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Map<String, String> availabilityZones(Collection<String> instanceIds) {
+        Map<String, String> zones = new HashMap<>();
+        for (List<String> chunk : FleetController.partition(instanceIds, ResourceWaiter.MAX_FILTER_VALUES)) {
+            Paginators.instances(ec2, new Filter().withName("instance-id").withValues(chunk))
+                    .forEach(instance -> zones.put(instance.getInstanceId(),
+                            instance.getPlacement() == null ? null : instance.getPlacement().getAvailabilityZone()));
+        }
+        return zones;
+    }
+
+    private CompletableFuture<VolumeAttachmentResult> run(Spec spec, String zone, Executor executor) {
+        Timings timings = new Timings();
+        if (zone == null)
+            return CompletableFuture.completedFuture(timings.failed(spec, null, "instance not found"));
+
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            String volumeId = create(spec, zone);
+            timings.create = elapsedMillis(start);
+            timings.mark = System.nanoTime();
+            return volumeId;
+        }, executor).thenCompose(volumeId -> waiter.await(ResourceWaiter.Kind.VOLUME, volumeId, "available")
+                .handle((state, error) -> {
+                    timings.available = elapsedMillis(timings.mark);
+                    if (error != null)
+                        throw new PipelineException(volumeId, error instanceof CompletionException ? error.getCause() : error);
+                    return volumeId;
+                })).thenApplyAsync(volumeId -> {
+            long start = System.nanoTime();
+            try {
+                ec2.attachVolume(new AttachVolumeRequest()
+                        .withVolumeId(volumeId).withInstanceId(spec.instanceId).withDevice(spec.device));
+            } catch (RuntimeException e) {
+                // Keep the volume ID whatever failed, so the created volume is never orphaned silently
+                throw new PipelineException(volumeId, e);
+            }
+            timings.attach = elapsedMillis(start);
+            Log.event("volume.attached", "volumeId", volumeId, "instanceId", spec.instanceId, "device", spec.device);
+            return new VolumeAttachmentResult(spec.instanceId, spec.device, volumeId,
+                    timings.create, timings.available, timings.attach, null);
+        }, executor).exceptionally(error -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof PipelineException)
+                return timings.failed(spec, ((PipelineException) cause).volumeId, message(cause.getCause()));
+            return timings.failed(spec, null, message(cause));
+        });
+    }
+
+    private String create(Spec spec, String zone) {
+        CreateVolumeRequest request = new CreateVolumeRequest()
+                .withAvailabilityZone(zone)
+                .withSize(spec.sizeGiB)
+                .withVolumeType(spec.volumeType)
+                .withClientToken(UUID.randomUUID().toString());
+        if (spec.name != null)
+            request.withTagSpecifications(new TagSpecification()
+                    .withResourceType(ResourceType.Volume)
+                    .withTags(new Tag().withKey("Name").withValue(spec.name)));
+        String volumeId = ec2.createVolume(request).getVolume().getVolumeId();
+        Log.event("volume.created", "volumeId", volumeId, "az", zone);
+        return volumeId;
+    }
+
+    private static String message(Throwable error) {
+        if (error instanceof AmazonServiceException)
+            return ((AmazonServiceException) error).getErrorMessage();
+        return String.valueOf(error.getMessage());
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    // Written by the successive stages of one volume, which may run on different threads
+    private static class Timings {
+        volatile long mark;
+        volatile long create;
+        volatile long available;
+        volatile long attach;
+
+        VolumeAttachmentResult failed(Spec spec, String volumeId, String error) {
+            return new VolumeAttachmentResult(spec.instanceId, spec.device, volumeId, create, available, attach, error);
+        }
+    }
+
+    // Carries the ID of a volume that was created before a later stage failed
+    private static class PipelineException extends RuntimeException {
+        final String volumeId;
+
+        PipelineException(String volumeId, Throwable cause) {
+            super(cause);
+            this.volumeId = volumeId;
+        }
+    }
+}
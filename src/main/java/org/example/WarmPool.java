@@ -0,0 +1,344 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.AssociateAddressRequest;
+import com.amazonaws.services.ec2.model.DisassociateAddressRequest;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
+import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a number of launched-then-stopped instances and unassociated Elastic IPs ready, so serving capacity costs
+ * a StartInstances and an AssociateAddress instead of a full launch and boot. Pools are topped up in the
+ * background after every acquisition; when a pool runs dry the caller falls back to launching or allocating
+ * directly, which counts as a miss.
+ */
+public class WarmPool implements AutoCloseable {
+
+    public static class Lease {
+        private final String instanceId;
+        private final String allocationId;
+        private final boolean warm;
+        private final long millis;
+
+        Lease(String instanceId, String allocationId, boolean warm, long millis) {
+            this.instanceId = instanceId;
+            this.allocationId = allocationId;
+            this.warm = warm;
+            this.millis = millis;
+        }
+
+        public String getInstanceId() {
+            return instanceId;
+        }
+
+        public String getAllocationId() {
+            return allocationId;
+        }
+
+        /**
+         * Whether the instance came from the pool rather than a cold launch.
+         */
+        public boolean isWarm() {
+            return warm;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return instanceId + " " + allocationId + (warm ? " warm " : " cold ") + millis + " ms";
+        }
+    }
+
+    // An instance that has been started with an address associated, and the association to undo if it fails
+    private static final class Started {
+        final String instanceId;
+        final String associationId;
+
+        Started(String instanceId, String associationId) {
+            this.instanceId = instanceId;
+            this.associationId = associationId;
+        }
+    }
+
+    static final int DEFAULT_REFILL_PARALLELISM = 4;
+
+    private final AmazonEC2 ec2;
+    private final ResourceWaiter waiter;
+    private final Supplier<String> launcher;
+    private final Supplier<String> allocator;
+    private final int targetInstances;
+    private final int targetAddresses;
+    private final BlockingQueue<String> instances = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> addresses = new LinkedBlockingQueue<>();
+    private final AtomicInteger instancesInFlight = new AtomicInteger();
+    private final AtomicInteger addressesInFlight = new AtomicInteger();
+    private final ExecutorService refiller;
+    private final AtomicLong instanceHits = new AtomicLong();
+    private final AtomicLong instanceMisses = new AtomicLong();
+    private final AtomicLong addressHits = new AtomicLong();
+    private final AtomicLong addressMisses = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public WarmPool(AmazonEC2 ec2, ResourceWaiter waiter, Supplier<String> launcher, Supplier<String> allocator,
+                    int targetInstances, int targetAddresses) {
+        this(ec2, waiter, launcher, allocator, targetInstances, targetAddresses, DEFAULT_REFILL_PARALLELISM);
+    }
+
+    /**
+     * @param launcher launches one instance and returns its ID
+     * @param allocator allocates one Elastic IP and returns its allocation ID
+     */
+    public WarmPool(AmazonEC2 ec2, ResourceWaiter waiter, Supplier<String> launcher, Supplier<String> allocator,
+                    int targetInstances, int targetAddresses, int refillParallelism) {
+        if (refillParallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.ec2 = ec2;
+        this.waiter = waiter;
+        this.launcher = launcher;
+        this.allocator = allocator;
+        this.targetInstances = targetInstances;
+        this.targetAddresses = targetAddresses;
+        this.refiller = Executors.newFixedThreadPool(refillParallelism, r -> {
+            Thread thread = new Thread(r, "warm-pool-refill");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts topping both pools up to their targets in the background. The returned future completes once the
+     * instances and addresses started by this call have been added (or have failed).
+     */
+    public synchronized CompletableFuture<Void> refill() {
+        List<CompletableFuture<Void>> added = new ArrayList<>();
+        while (instances.size() + instancesInFlight.get() < targetInstances) {
+            instancesInFlight.incrementAndGet();
+            added.add(CompletableFuture.runAsync(() -> add(instancesInFlight, this::prepareInstance), refiller));
+        }
+        while (addresses.size() + addressesInFlight.get() < targetAddresses) {
+            addressesInFlight.incrementAndGet();
+            added.add(CompletableFuture.runAsync(() -> add(addressesInFlight, () -> addresses.add(allocator.get())),
+                    refiller));
+        }
+        return CompletableFuture.allOf(added.toArray(new CompletableFuture[0]));
+    }
+
+    private void add(AtomicInteger inFlight, Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            Log.event("warmpool.refill_failed", "error", e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    // Launch, let it finish booting once so first-boot initialization is done, then park it stopped
+    private void prepareInstance() {
+        String instanceId = launcher.get();
+        try {
+            waiter.await(ResourceWaiter.Kind.INSTANCE, instanceId, "running").join();
+            ec2.stopInstances(new StopInstancesRequest().withInstanceIds(instanceId));
+            waiter.await(ResourceWaiter.Kind.INSTANCE, instanceId, "stopped").join();
+        } catch (RuntimeException e) {
+            park(instanceId);
+            throw e;
+        }
+        instances.add(instanceId);
+        Log.event("warmpool.instance_ready", "instanceId", instanceId);
+    }
+
+    /**
+     * Associates a pooled Elastic IP with a pooled instance and starts it (or launches one if the pool is empty),
+     * and returns once it is running. If anything fails, the address goes back to its pool and the instance goes
+     * back to its pool or is stopped and parked there (terminated if it cannot be stopped), so nothing is left
+     * running unowned.
+     */
+    public Lease acquire() {
+        long start = System.nanoTime();
+        String allocationId = addresses.poll();
+        if (allocationId != null) {
+            addressHits.incrementAndGet();
+        } else {
+            addressMisses.incrementAndGet();
+            allocationId = allocator.get();
+        }
+
+        // On failure, each step below puts the address back in the pool unless it could not be freed
+        Started started;
+        boolean warm;
+        try {
+            started = startPooledInstance(allocationId);
+            warm = started != null;
+            if (warm) {
+                instanceHits.incrementAndGet();
+            } else {
+                instanceMisses.incrementAndGet();
+                started = launchCold(allocationId);
+            }
+        } finally {
+            refill();
+        }
+        String instanceId = started.instanceId;
+        try {
+            waiter.await(ResourceWaiter.Kind.INSTANCE, instanceId, "running").join();
+        } catch (RuntimeException e) {
+            if (disassociate(started.associationId))
+                addresses.add(allocationId);
+            park(instanceId);
+            throw e;
+        }
+
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        latency.record(micros);
+        Lease lease = new Lease(instanceId, allocationId, warm, micros / 1000);
+        Log.event("warmpool.acquired", "instanceId", instanceId, "warm", warm, "ms", lease.getMillis());
+        return lease;
+    }
+
+    // Associates the address while the pooled instance is still stopped, which VPC addresses allow, and only then
+    // starts it, so a failed association never leaves a running instance behind. Returns null when no pooled
+    // instance could be used.
+    private Started startPooledInstance(String allocationId) {
+        String instanceId;
+        while ((instanceId = instances.poll()) != null) {
+            String associationId;
+            try {
+                associationId = associate(instanceId, allocationId);
+            } catch (RuntimeException e) {
+                String code = e instanceof AmazonServiceException ? ((AmazonServiceException) e).getErrorCode() : "";
+                if (code.startsWith("InvalidInstanceID") || "IncorrectInstanceState".equals(code)) {
+                    // Terminated or otherwise broken while parked; drop it and try the next one
+                    Log.event("warmpool.start_failed", "instanceId", instanceId, "error", code);
+                    continue;
+                }
+                instances.add(instanceId);
+                addresses.add(allocationId);
+                throw e;
+            }
+            try {
+                ec2.startInstances(new StartInstancesRequest().withInstanceIds(instanceId));
+                return new Started(instanceId, associationId);
+            } catch (RuntimeException e) {
+                // Still stopped, so it can go straight back
+                instances.add(instanceId);
+                if (disassociate(associationId))
+                    addresses.add(allocationId);
+                throw e;
+            }
+        }
+        return null;
+    }
+
+    private Started launchCold(String allocationId) {
+        String instanceId;
+        try {
+            instanceId = launcher.get();
+        } catch (RuntimeException e) {
+            addresses.add(allocationId);
+            throw e;
+        }
+        try {
+            return new Started(instanceId, associate(instanceId, allocationId));
+        } catch (RuntimeException e) {
+            addresses.add(allocationId);
+            park(instanceId);
+            throw e;
+        }
+    }
+
+    private String associate(String instanceId, String allocationId) {
+        return ec2.associateAddress(new AssociateAddressRequest()
+                .withInstanceId(instanceId).withAllocationId(allocationId)).getAssociationId();
+    }
+
+    // Whether the address is free for the pool again; if not, it stays with the parked instance
+    private boolean disassociate(String associationId) {
+        try {
+            ec2.disassociateAddress(new DisassociateAddressRequest().withAssociationId(associationId));
+            return true;
+        } catch (RuntimeException e) {
+            Log.event("warmpool.disassociate_failed", "associationId", associationId, "error", e);
+            return false;
+        }
+    }
+
+    // Stops an instance that could not be handed out and adds it to the pool once it is stopped. One that cannot
+    // be stopped is terminated instead, so it is not left running outside the pool.
+    private void park(String instanceId) {
+        instancesInFlight.incrementAndGet();
+        refiller.execute(() -> add(instancesInFlight, () -> {
+            try {
+                ec2.stopInstances(new StopInstancesRequest().withInstanceIds(instanceId));
+                waiter.await(ResourceWaiter.Kind.INSTANCE, instanceId, "stopped").join();
+            } catch (RuntimeException e) {
+                Log.event("warmpool.park_failed", "instanceId", instanceId, "error", e);
+                ec2.terminateInstances(new TerminateInstancesRequest().withInstanceIds(instanceId));
+                Log.event("warmpool.instance_terminated", "instanceId", instanceId);
+                return;
+            }
+            instances.add(instanceId);
+            Log.event("warmpool.instance_parked", "instanceId", instanceId);
+        }));
+    }
+
+    public int getIdleInstances() {
+        return instances.size();
+    }
+
+    public int getIdleAddresses() {
+        return addresses.size();
+    }
+
+    public long getInstanceHits() {
+        return instanceHits.get();
+    }
+
+    public long getInstanceMisses() {
+        return instanceMisses.get();
+    }
+
+    public long getAddressHits() {
+        return addressHits.get();
+    }
+
+    public long getAddressMisses() {
+        return addressMisses.get();
+    }
+
+    /**
+     * Fraction of acquisitions served by a pooled instance, or 0 before the first one.
+     */
+    public double getHitRate() {
+        long hits = instanceHits.get();
+        long total = hits + instanceMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Acquisition latency in microseconds.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Stops refilling. Pooled instances and addresses are left in place; tear them down through the journal.
+     */
+    @Override
+    public void close() {
+        refiller.shutdownNow();
+    }
+}
@@ -0,0 +1,70 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.services.ec2.model.DescribeVolumesRequest;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AdaptiveRateLimiterTest
+{
+    private final AtomicLong now = new AtomicLong();
+    private final AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(
+            new AdaptiveRateLimiter.Limits(10, 2, 20),
+            new AdaptiveRateLimiter.Limits(2, 1, 4),
+            now::get);
+
+    @Test
+    public void separatesDescribeAndMutatingBuckets()
+    {
+        assertTrue(AdaptiveRateLimiter.isMutating("AmazonEC2.RunInstances"));
+        assertFalse(AdaptiveRateLimiter.isMutating("AmazonEC2.DescribeSnapshots"));
+        assertEquals(10, limiter.getRate("AmazonEC2.DescribeSnapshots"), 0.001);
+        assertEquals(2, limiter.getRate("AmazonEC2.CreateTags"), 0.001);
+    }
+
+    @Test
+    public void waitsOnceBurstIsSpent()
+    {
+        assertEquals(0, limiter.reserve("AmazonEC2.DescribeVolumes"));
+        assertEquals(0, limiter.reserve("AmazonEC2.DescribeVolumes"));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.reserve("AmazonEC2.DescribeVolumes"));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(0, limiter.reserve("AmazonEC2.DescribeVolumes"));
+    }
+
+    @Test
+    public void halvesOnThrottleAndRecoversAdditively()
+    {
+        limiter.onThrottle("AmazonEC2.CreateTags");
+        assertEquals(1, limiter.getRate("AmazonEC2.CreateTags"), 0.001);
+        for (int i = 0; i < 50; i++)
+            limiter.onSuccess("AmazonEC2.CreateTags");
+        assertEquals(4, limiter.getRate("AmazonEC2.CreateTags"), 0.001);
+    }
+
+    @Test
+    public void keepsRegionsInSeparateBuckets()
+    {
+        DefaultRequest<DescribeVolumesRequest> east = new DefaultRequest<>(new DescribeVolumesRequest(), "AmazonEC2");
+        east.setEndpoint(URI.create("https://ec2.us-east-1.amazonaws.com"));
+        DefaultRequest<DescribeVolumesRequest> west = new DefaultRequest<>(new DescribeVolumesRequest(), "AmazonEC2");
+        west.setEndpoint(URI.create("https://ec2.us-west-2.amazonaws.com"));
+        String eastKey = RateLimitRequestHandler.key(east);
+        String westKey = RateLimitRequestHandler.key(west);
+
+        limiter.onThrottle(eastKey);
+
+        assertEquals("ec2.us-east-1.amazonaws.com/AmazonEC2.DescribeVolumes", eastKey);
+        assertEquals(5, limiter.getRate(eastKey), 0.001);
+        assertEquals(10, limiter.getRate(westKey), 0.001);
+        assertFalse(AdaptiveRateLimiter.isMutating(westKey));
+    }
+}
@@ -0,0 +1,83 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.regions.Regions;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AppAsyncTest
+{
+    private final FakeEc2 east = new FakeEc2().withInstance("i-1", "running");
+    private final FakeEc2 west = new FakeEc2().withInstance("i-1", "running").withInstance("i-2", "stopped");
+
+    @After
+    public void reset()
+    {
+        App.useClients(null);
+    }
+
+    private void useFakes()
+    {
+        App.useClients(new ClientRegistry(region -> region == Regions.EU_WEST_1 ? west : east, region -> null,
+                Arrays.asList(Regions.US_EAST_1, Regions.EU_WEST_1)));
+    }
+
+    @Test
+    public void runsOnTheSuppliedExecutorInTheCallersRegion()
+    {
+        useFakes();
+        AtomicInteger submitted = new AtomicInteger();
+        Executor executor = task -> {
+            submitted.incrementAndGet();
+            new Thread(task, "supplied").start();
+        };
+        AppAsync async = new AppAsync(executor);
+
+        CompletableFuture<Void> stop = App.inRegion(Regions.EU_WEST_1, () -> async.stopInstance("i-1"));
+        stop.join();
+
+        assertEquals(1, submitted.get());
+        assertEquals("stopping", west.instanceStates.get("i-1"));
+        assertEquals("running", east.instanceStates.get("i-1"));
+        assertEquals(Regions.US_EAST_1, App.currentRegion());
+    }
+
+    @Test
+    public void completesWithTheOperationsResult()
+    {
+        useFakes();
+        try (AppAsync async = new AppAsync(2)) {
+            Map<String, InstanceActionResult> results =
+                    App.inRegion(Regions.EU_WEST_1, () -> async.startInstances(Arrays.asList("i-1", "i-2"))).join();
+
+            assertEquals(InstanceActionResult.Status.ALREADY_RUNNING, results.get("i-1").getStatus());
+            assertEquals(InstanceActionResult.Status.STARTED, results.get("i-2").getStatus());
+        }
+    }
+
+    @Test
+    public void completesExceptionallyWhenTheOperationFails()
+    {
+        useFakes();
+        east.denyDryRun = true;
+        try (AppAsync async = new AppAsync(2)) {
+            async.stopInstance("i-1").join();
+            fail("expected the dry run denial");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof AmazonServiceException);
+            assertEquals("UnauthorizedOperation", ((AmazonServiceException) e.getCause()).getErrorCode());
+        }
+        assertEquals("running", east.instanceStates.get("i-1"));
+    }
+}
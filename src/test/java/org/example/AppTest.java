@@ -1,9 +1,14 @@
 package org.example;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import com.amazonaws.regions.Regions;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Unit test for simple App.
  */
@@ -17,4 +22,25 @@ public class AppTest
     {
         assertTrue( true );
     }
+
+    @Test
+    public void buildsOnlyTheClientAnOperationNeeds()
+    {
+        AtomicInteger ec2Built = new AtomicInteger();
+        AtomicInteger elbBuilt = new AtomicInteger();
+        FakeEc2 ec2 = new FakeEc2().withInstance("i-1", "running");
+        App.useClients(new ClientRegistry(region -> {
+            ec2Built.incrementAndGet();
+            return ec2;
+        }, region -> {
+            elbBuilt.incrementAndGet();
+            return null;
+        }, Collections.singletonList(Regions.US_EAST_1)));
+
+        App.stopInstance("i-1");
+
+        assertEquals(1, ec2Built.get());
+        assertEquals(0, elbBuilt.get());
+        assertEquals("stopping", ec2.instanceStates.get("i-1"));
+    }
 }
@@ -0,0 +1,64 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.Request;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
+import org.junit.Test;
+
+public class AwsMetricsTest
+{
+    @Test
+    public void histogramPercentilesStayWithinBucketError()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10000; micros++)
+            histogram.record(micros);
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p50 >= 5000 && p50 <= 5000 * 1.07);
+        assertTrue(p99 >= 9900 && p99 <= 10000);
+    }
+
+    @Test
+    public void handlerCountsRetriesThrottlesAndLatency()
+    {
+        AwsMetrics metrics = new AwsMetrics(false);
+        MetricsRequestHandler handler = new MetricsRequestHandler(metrics);
+        Request<StopInstancesRequest> request = new DefaultRequest<>(new StopInstancesRequest(), "AmazonEC2");
+        AmazonServiceException throttled = new AmazonServiceException("slow down");
+        throttled.setErrorCode("RequestLimitExceeded");
+
+        handler.beforeRequest(request);
+        assertEquals(1, metrics.operation("StopInstances").getInFlight());
+        handler.beforeAttempt(HandlerBeforeAttemptContext.builder().withRequest(request).build());
+        handler.afterAttempt(HandlerAfterAttemptContext.builder().withRequest(request).withException(throttled).build());
+        handler.beforeAttempt(HandlerBeforeAttemptContext.builder().withRequest(request).build());
+        handler.afterAttempt(HandlerAfterAttemptContext.builder().withRequest(request).build());
+        handler.afterResponse(request, null);
+
+        AwsMetrics.Operation operation = metrics.operation("StopInstances");
+        assertEquals(1, operation.getCount());
+        assertEquals(1, operation.getRetries());
+        assertEquals(1, operation.getThrottles());
+        assertEquals(0, operation.getErrors());
+        assertEquals(0, operation.getInFlight());
+        assertTrue(metrics.toPrometheus().contains("aws_request_throttles_total{action=\"StopInstances\"} 1"));
+    }
+
+    @Test
+    public void metricsServerListensOnLoopbackByDefault() throws Exception
+    {
+        try (MetricsServer server = new MetricsServer(0, new AwsMetrics(false))) {
+            assertTrue(server.getAddress().getAddress().isLoopbackAddress());
+        }
+    }
+}
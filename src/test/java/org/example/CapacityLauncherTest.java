@@ -0,0 +1,146 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.RunInstancesResult;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CapacityLauncherTest
+{
+    private final FakeEc2 ec2 = new FakeEc2();
+
+    @Test
+    public void spreadsTheCountEvenlyAcrossSubnets()
+    {
+        LaunchResult result = new CapacityLauncher(ec2, "ami-1", Arrays.asList("subnet-a", "subnet-b", "subnet-c"),
+                Collections.singletonList("m5.large")).launch(10);
+
+        assertTrue(result.isComplete());
+        assertEquals(10, result.getInstanceIds().size());
+        assertEquals(Integer.valueOf(4), result.getLaunchedBySubnetAndType().get("subnet-a/m5.large"));
+        assertEquals(Integer.valueOf(3), result.getLaunchedBySubnetAndType().get("subnet-b/m5.large"));
+        assertEquals(Integer.valueOf(3), result.getLaunchedBySubnetAndType().get("subnet-c/m5.large"));
+        assertEquals(3, ec2.calls("RunInstances"));
+    }
+
+    @Test
+    public void batchesLargeSharesAndTagsAtLaunch()
+    {
+        new CapacityLauncher(ec2, "ami-1", Collections.singletonList("subnet-a"),
+                Collections.singletonList("m5.large")).batchSize(4).tag("Name", "web").launch(10);
+
+        assertEquals(3, ec2.calls("RunInstances"));
+        RunInstancesRequest request = (RunInstancesRequest) ec2.requests.get(0);
+        assertEquals(Integer.valueOf(1), request.getMinCount());
+        assertEquals(Integer.valueOf(4), request.getMaxCount());
+        assertEquals("web", request.getTagSpecifications().get(0).getTags().get(0).getValue());
+        assertNotNull(request.getClientToken());
+        assertEquals(0, ec2.calls("CreateTags"));
+    }
+
+    @Test
+    public void rerunWithTheSameTokenReturnsTheSameInstances()
+    {
+        CapacityLauncher launcher = new CapacityLauncher(ec2, "ami-1", Arrays.asList("subnet-a", "subnet-b"),
+                Collections.singletonList("m5.large")).batchSize(2).clientToken("step-token");
+
+        LaunchResult first = launcher.launch(6);
+        LaunchResult second = launcher.launch(6);
+
+        assertEquals(6, first.getInstanceIds().size());
+        assertEquals(new HashSet<>(first.getInstanceIds()), new HashSet<>(second.getInstanceIds()));
+        assertEquals(6, ec2.instanceStates.size());
+        for (String instanceId : first.getInstanceIds())
+            assertEquals(ec2.instances.get(instanceId).getSubnetId(), first.getSubnetId(instanceId));
+    }
+
+    @Test
+    public void fallsBackToTheNextInstanceType()
+    {
+        ec2.capacity.put("subnet-a/m5.large", 0);
+        ec2.capacity.put("subnet-b/m5.large", 2);
+
+        LaunchResult result = new CapacityLauncher(ec2, "ami-1", Arrays.asList("subnet-a", "subnet-b"),
+                Arrays.asList("m5.large", "m5a.large")).launch(8);
+
+        assertTrue(result.isComplete());
+        assertEquals(Integer.valueOf(4), result.getLaunchedBySubnetAndType().get("subnet-a/m5a.large"));
+        assertEquals(Integer.valueOf(2), result.getLaunchedBySubnetAndType().get("subnet-b/m5.large"));
+        assertEquals(Integer.valueOf(2), result.getLaunchedBySubnetAndType().get("subnet-b/m5a.large"));
+        assertEquals(Collections.singletonList("subnet-a/m5.large: InsufficientInstanceCapacity"), result.getErrors());
+    }
+
+    @Test
+    public void movesTheShortfallToSubnetsWithCapacityLeft()
+    {
+        ec2.capacity.put("subnet-a/m5.large", 1);
+
+        LaunchResult result = new CapacityLauncher(ec2, "ami-1", Arrays.asList("subnet-a", "subnet-b"),
+                Collections.singletonList("m5.large")).launch(6);
+
+        assertTrue(result.isComplete());
+        assertEquals(Integer.valueOf(1), result.getLaunchedBySubnetAndType().get("subnet-a/m5.large"));
+        assertEquals(Integer.valueOf(5), result.getLaunchedBySubnetAndType().get("subnet-b/m5.large"));
+    }
+
+    @Test
+    public void reportsTheShortfallWhenEverythingIsExhausted()
+    {
+        ec2.capacity.put("subnet-a/m5.large", 2);
+        ec2.capacity.put("subnet-b/m5.large", 1);
+
+        LaunchResult result = new CapacityLauncher(ec2, "ami-1", Arrays.asList("subnet-a", "subnet-b"),
+                Collections.singletonList("m5.large")).launch(6);
+
+        assertFalse(result.isComplete());
+        assertEquals(3, result.getShortfall());
+    }
+
+    @Test
+    public void stopsOnErrorsOtherThanCapacity()
+    {
+        FakeEc2 badAmi = new FakeEc2() {
+            @Override
+            public RunInstancesResult runInstances(RunInstancesRequest request) {
+                count("RunInstances");
+                throw error("InvalidAMIID.NotFound", "The image id '[ami-1]' does not exist");
+            }
+        };
+
+        LaunchResult result = new CapacityLauncher(badAmi, "ami-1", Collections.singletonList("subnet-a"),
+                Arrays.asList("m5.large", "m5a.large", "c5.large")).launch(4);
+
+        assertEquals(1, badAmi.calls("RunInstances"));
+        assertEquals("InvalidAMIID.NotFound", ((AmazonServiceException) result.getFailure()).getErrorCode());
+        assertEquals(4, result.getShortfall());
+    }
+
+    @Test
+    public void returnsInstancesLaunchedBeforeAClientError()
+    {
+        AtomicInteger launches = new AtomicInteger();
+        FakeEc2 flaky = new FakeEc2() {
+            @Override
+            public RunInstancesResult runInstances(RunInstancesRequest request) {
+                if (launches.incrementAndGet() > 1)
+                    throw new SdkClientException("Unable to execute HTTP request: Connection reset");
+                return super.runInstances(request);
+            }
+        };
+
+        LaunchResult result = new CapacityLauncher(flaky, "ami-1", Collections.singletonList("subnet-a"),
+                Collections.singletonList("m5.large")).batchSize(2).launch(6);
+
+        assertEquals(2, result.getInstanceIds().size());
+        assertTrue(result.getFailure() instanceof SdkClientException);
+        assertEquals(2, launches.get());
+    }
+}
@@ -0,0 +1,57 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+public class ClientRegistryTest
+{
+    @Test
+    public void buildsClientsLazilyAndReusesThem()
+    {
+        AtomicInteger built = new AtomicInteger();
+        ClientRegistry registry = new ClientRegistry(region -> {
+            built.incrementAndGet();
+            return new FakeEc2();
+        }, region -> null, Arrays.asList(Regions.US_EAST_1, Regions.EU_WEST_1));
+
+        assertFalse(registry.isInitialized(Regions.US_EAST_1));
+        AmazonEC2 first = registry.ec2(Regions.US_EAST_1);
+        assertSame(first, registry.ec2(Regions.US_EAST_1));
+        assertTrue(registry.isInitialized(Regions.US_EAST_1));
+        assertFalse(registry.isInitialized(Regions.EU_WEST_1));
+        assertEquals(1, built.get());
+    }
+
+    @Test
+    public void fansOutAcrossRegionsAndMergesResults()
+    {
+        ClientRegistry registry = new ClientRegistry(
+                region -> new FakeEc2().withInstance("i-" + region.getName(), "running"),
+                region -> null, Arrays.asList(Regions.US_EAST_1, Regions.EU_WEST_1, Regions.AP_SOUTH_1));
+
+        List<String> ids = registry.fanOut(client -> {
+            List<Instance> instances = new ArrayList<>();
+            for (Reservation reservation : client.describeInstances(
+                    new DescribeInstancesRequest()).getReservations())
+                instances.addAll(reservation.getInstances());
+            return instances;
+        }).map(Instance::getInstanceId).sorted().collect(Collectors.toList());
+
+        assertEquals(Arrays.asList("i-ap-south-1", "i-eu-west-1", "i-us-east-1"), ids);
+    }
+}
@@ -0,0 +1,192 @@
+package org.example;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CommandServerTest
+{
+    private static final String TOKEN = "secret";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CommandServer server;
+    private Socket socket;
+
+    @After
+    public void close() throws IOException
+    {
+        if (socket != null)
+            socket.close();
+        if (server != null)
+            server.close();
+        App.useClients(null);
+    }
+
+    private BufferedReader connect() throws IOException
+    {
+        return connect(TOKEN);
+    }
+
+    private BufferedReader connect(String token) throws IOException
+    {
+        socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        send(token);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private void send(String... lines) throws IOException
+    {
+        Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        for (String line : lines)
+            out.write(line + "\n");
+        out.flush();
+    }
+
+    @Test
+    public void answersPipelinedRequestsAsTheyComplete() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        server = new CommandServer(0, 4, TOKEN)
+                .register("slow", args -> release.await(5, TimeUnit.SECONDS) ? "done" : "timeout")
+                .register("echo", args -> String.join(",", args));
+        BufferedReader in = connect();
+
+        send("1 slow", "2 echo a b", "3 ping");
+
+        Map<String, String> responses = new HashMap<>();
+        for (int i = 0; i < 2; i++) {
+            String[] parts = in.readLine().split(" ", 4);
+            assertEquals("OK", parts[1]);
+            responses.put(parts[0], parts[3]);
+        }
+        assertEquals("a,b", responses.get("2"));
+        assertEquals("pong", responses.get("3"));
+
+        release.countDown();
+        String[] slow = in.readLine().split(" ", 4);
+        assertEquals("1", slow[0]);
+        assertEquals("done", slow[3]);
+    }
+
+    @Test
+    public void pendingAsyncCommandsHoldNoWorker() throws Exception
+    {
+        CompletableFuture<String> done = new CompletableFuture<>();
+        server = new CommandServer(0, 1, TOKEN).registerAsync("hold", args -> done.thenApply(v -> v + args.get(0)));
+        BufferedReader in = connect();
+
+        send("1 hold a", "2 hold b", "3 ping");
+
+        String[] ping = in.readLine().split(" ", 4);
+        assertEquals("3", ping[0]);
+        assertEquals("pong", ping[3]);
+
+        done.complete("done-");
+        Set<String> responses = new HashSet<>();
+        for (int i = 0; i < 2; i++)
+            responses.add(in.readLine().replaceFirst(" \\d+ ", " _ "));
+        assertEquals(new HashSet<>(Arrays.asList("1 OK _ done-a", "2 OK _ done-b")), responses);
+    }
+
+    @Test
+    public void reportsErrorsAndUnknownCommands() throws Exception
+    {
+        server = new CommandServer(0, TOKEN).register("fail", args -> {
+            throw FakeEc2.error("InvalidVolume.NotFound", "no such volume");
+        });
+        BufferedReader in = connect();
+
+        send("7 fail", "8 nope");
+
+        Set<String> responses = new HashSet<>();
+        for (int i = 0; i < 2; i++)
+            responses.add(in.readLine().replaceFirst(" \\d+ ", " _ "));
+        assertTrue(responses.toString(), responses.contains("7 ERR _ InvalidVolume.NotFound no such volume"));
+        assertTrue(responses.toString(), responses.contains("8 ERR _ UnknownCommand nope"));
+    }
+
+    @Test
+    public void tracksLatencyPerCommand() throws Exception
+    {
+        server = new CommandServer(0, TOKEN);
+        BufferedReader in = connect();
+
+        send("1 ping", "2 ping", "3 ping");
+        for (int i = 0; i < 3; i++)
+            in.readLine();
+        send("4 stats");
+
+        String stats = in.readLine().split(" ", 4)[3];
+        assertTrue(stats, stats.startsWith("ping:3:"));
+        assertEquals(3, server.getLatencies().get("ping").getCount());
+    }
+
+    @Test
+    public void daemonRunsAppOperations() throws Exception
+    {
+        FakeEc2 ec2 = new FakeEc2().withInstance("i-1", "stopped").withInstance("i-2", "stopped");
+        App.useClients(new ClientRegistry(r -> ec2, r -> null, Collections.singletonList(App.DEFAULT_REGION)));
+        Path tokenFile = folder.getRoot().toPath().resolve("daemon.token");
+        server = App.startDaemon(0, tokenFile);
+        BufferedReader in = connect(new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8));
+
+        send("1 start i-1", "2 describe-instance i-2");
+
+        Map<String, String> responses = new HashMap<>();
+        for (int i = 0; i < 2; i++) {
+            String[] parts = in.readLine().split(" ", 4);
+            responses.put(parts[0], parts[1] + (parts.length > 3 ? " " + parts[3] : ""));
+        }
+        assertEquals("OK", responses.get("1"));
+        assertEquals("OK stopped", responses.get("2"));
+        assertEquals("pending", ec2.instanceStates.get("i-1"));
+    }
+
+    @Test
+    public void answersEveryRequestSentBeforeTheClientShutsDownOutput() throws Exception
+    {
+        server = new CommandServer(0, TOKEN).register("slow", args -> {
+            Thread.sleep(200);
+            return "done";
+        });
+        BufferedReader in = connect();
+
+        send("1 slow", "2 ping");
+        socket.shutdownOutput();
+
+        Set<String> responses = new HashSet<>();
+        for (int i = 0; i < 2; i++) {
+            String line = in.readLine();
+            assertNotNull(line);
+            responses.add(line.split(" ", 4)[0]);
+        }
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), responses);
+        assertNull(in.readLine());
+    }
+
+    @Test
+    public void rejectsConnectionsWithoutTheToken() throws Exception
+    {
+        server = new CommandServer(0, TOKEN);
+        BufferedReader in = connect("guess");
+
+        assertEquals("0 ERR 0 Unauthorized", in.readLine());
+        assertNull(in.readLine());
+    }
+}
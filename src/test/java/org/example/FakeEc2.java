@@ -0,0 +1,557 @@
+package org.example;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.ec2.AbstractAmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory stand-in for EC2 that keeps instance state and counts calls per action.
+ */
+class FakeEc2 extends AbstractAmazonEC2 {
+
+    final Map<String, String> instanceStates = new ConcurrentHashMap<>();
+    final Map<String, String> snapshotStates = new ConcurrentHashMap<>();
+    final Map<String, String> volumeStates = new ConcurrentHashMap<>();
+    final Map<String, String> natGatewayStates = new ConcurrentHashMap<>();
+    final Map<String, Set<SecurityGroupSync.Rule>> securityGroupRules = new ConcurrentHashMap<>();
+    final Map<String, Map<String, String>> tags = new ConcurrentHashMap<>();
+    final List<AmazonWebServiceRequest> requests = Collections.synchronizedList(new ArrayList<>());
+    final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    final Map<String, String> snapshotProgress = new ConcurrentHashMap<>();
+    final Map<String, String> volumeAttachments = new ConcurrentHashMap<>();
+    final Map<String, String> addressAssociations = new ConcurrentHashMap<>();
+    final Map<String, String> associationAllocations = new ConcurrentHashMap<>();
+    final Map<String, Vpc> vpcs = new ConcurrentHashMap<>();
+    final Map<String, Subnet> subnets = new ConcurrentHashMap<>();
+    final Map<String, RouteTable> routeTables = new ConcurrentHashMap<>();
+    final Map<String, Instance> instances = new ConcurrentHashMap<>();
+    final Map<String, Integer> volumeSizes = new ConcurrentHashMap<>();
+    final Map<String, RunInstancesResult> launchesByToken = new ConcurrentHashMap<>();
+    final AtomicInteger nextId = new AtomicInteger();
+    final Map<String, Integer> capacity = new ConcurrentHashMap<>();
+    volatile String newVolumeState = "available";
+    volatile boolean denyDryRun;
+
+    FakeEc2 withInstance(String instanceId, String state) {
+        instanceStates.put(instanceId, state);
+        return this;
+    }
+
+    int calls(String action) {
+        AtomicInteger count = calls.get(action);
+        return count == null ? 0 : count.get();
+    }
+
+    int totalCalls() {
+        int total = 0;
+        for (AtomicInteger count : calls.values())
+            total += count.get();
+        return total;
+    }
+
+    void count(String action) {
+        calls.computeIfAbsent(action, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    static AmazonServiceException error(String code, String message) {
+        AmazonServiceException e = new AmazonServiceException(message);
+        e.setErrorCode(code);
+        e.setStatusCode(400);
+        return e;
+    }
+
+    @Override
+    public <X extends AmazonWebServiceRequest> DryRunResult<X> dryRun(DryRunSupportedRequest<X> request) {
+        count("DryRun");
+        if (denyDryRun)
+            return new DryRunResult<>(false, request, "UnauthorizedOperation", error("UnauthorizedOperation", "denied"));
+        // Like AmazonEC2Client, any answer other than DryRunOperation or a permission error is rethrown wrapped
+        AmazonWebServiceRequest original = request.getDryRunRequest().getOriginalRequest();
+        List<String> instanceIds = original instanceof StartInstancesRequest
+                ? ((StartInstancesRequest) original).getInstanceIds()
+                : original instanceof StopInstancesRequest
+                ? ((StopInstancesRequest) original).getInstanceIds()
+                : Collections.emptyList();
+        for (String instanceId : instanceIds) {
+            if (!instanceStates.containsKey(instanceId))
+                throw new AmazonClientException("Unrecognized service response for the dry-run request.",
+                        error("InvalidInstanceID.NotFound", "The instance ID '" + instanceId + "' does not exist"));
+        }
+        return new DryRunResult<>(true, request, "Request would have succeeded", null);
+    }
+
+    @Override
+    public StartInstancesResult startInstances(StartInstancesRequest request) {
+        count("StartInstances");
+        return new StartInstancesResult().withStartingInstances(transition(request.getInstanceIds(), "pending"));
+    }
+
+    @Override
+    public StopInstancesResult stopInstances(StopInstancesRequest request) {
+        count("StopInstances");
+        return new StopInstancesResult().withStoppingInstances(transition(request.getInstanceIds(), "stopping"));
+    }
+
+    @Override
+    public TerminateInstancesResult terminateInstances(TerminateInstancesRequest request) {
+        count("TerminateInstances");
+        return new TerminateInstancesResult()
+                .withTerminatingInstances(transition(request.getInstanceIds(), "terminated"));
+    }
+
+    private List<InstanceStateChange> transition(List<String> instanceIds, String target) {
+        for (String instanceId : instanceIds) {
+            if (!instanceStates.containsKey(instanceId))
+                throw error("InvalidInstanceID.NotFound", "The instance ID '" + instanceId + "' does not exist");
+        }
+        List<InstanceStateChange> changes = new ArrayList<>();
+        for (String instanceId : instanceIds) {
+            String previous = instanceStates.put(instanceId, target);
+            changes.add(new InstanceStateChange()
+                    .withInstanceId(instanceId)
+                    .withPreviousState(new InstanceState().withName(previous))
+                    .withCurrentState(new InstanceState().withName(target)));
+        }
+        return changes;
+    }
+
+    static List<String> filterValues(List<Filter> filters, String name) {
+        if (filters != null) {
+            for (Filter filter : filters) {
+                if (filter.getName().equals(name))
+                    return filter.getValues();
+            }
+        }
+        return null;
+    }
+
+    // Only tag:<key> filters are checked; other filters are ignored
+    private boolean tagged(String resourceId, List<Filter> filters) {
+        if (filters == null)
+            return true;
+        Map<String, String> resourceTags = tags.getOrDefault(resourceId, Collections.emptyMap());
+        for (Filter filter : filters) {
+            if (filter.getName().startsWith("tag:")
+                    && !filter.getValues().contains(resourceTags.get(filter.getName().substring(4))))
+                return false;
+        }
+        return true;
+    }
+
+    private List<Tag> tagsOf(String resourceId) {
+        List<Tag> result = new ArrayList<>();
+        for (Map.Entry<String, String> tag : tags.getOrDefault(resourceId, Collections.emptyMap()).entrySet())
+            result.add(new Tag(tag.getKey(), tag.getValue()));
+        return result;
+    }
+
+    private void tag(String resourceId, List<TagSpecification> specifications) {
+        for (TagSpecification specification : specifications) {
+            for (Tag tag : specification.getTags())
+                tags.computeIfAbsent(resourceId, k -> new ConcurrentHashMap<>()).put(tag.getKey(), tag.getValue());
+        }
+    }
+
+    private static List<String> matching(Map<String, ?> states, List<String> ids) {
+        List<String> matches = new ArrayList<>();
+        for (String id : ids == null ? states.keySet() : ids) {
+            if (states.containsKey(id))
+                matches.add(id);
+        }
+        return matches;
+    }
+
+    @Override
+    public DescribeSnapshotsResult describeSnapshots(DescribeSnapshotsRequest request) {
+        count("DescribeSnapshots");
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (String id : matching(snapshotStates, filterValues(request.getFilters(), "snapshot-id")))
+            snapshots.add(new Snapshot().withSnapshotId(id).withState(snapshotStates.get(id))
+                    .withProgress(snapshotProgress.get(id)).withVolumeSize(8));
+        return new DescribeSnapshotsResult().withSnapshots(snapshots);
+    }
+
+    @Override
+    public DescribeVolumesResult describeVolumes(DescribeVolumesRequest request) {
+        count("DescribeVolumes");
+        List<String> ids = matching(volumeStates, filterValues(request.getFilters(), "volume-id"));
+        ids.removeIf(id -> !tagged(id, request.getFilters()));
+        Collections.sort(ids);
+        int from = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken());
+        int to = request.getMaxResults() == null ? ids.size() : Math.min(ids.size(), from + request.getMaxResults());
+        List<Volume> volumes = new ArrayList<>();
+        for (String id : ids.subList(from, to)) {
+            Volume volume = new Volume().withVolumeId(id).withState(volumeStates.get(id))
+                    .withSize(volumeSizes.get(id)).withAvailabilityZone("us-east-1a").withTags(tagsOf(id));
+            String attachment = volumeAttachments.get(id);
+            if (attachment != null)
+                volume.withAttachments(new VolumeAttachment().withVolumeId(id)
+                        .withInstanceId(attachment.split(":")[0]).withDevice(attachment.split(":")[1]));
+            volumes.add(volume);
+        }
+        return new DescribeVolumesResult().withVolumes(volumes)
+                .withNextToken(to < ids.size() ? String.valueOf(to) : null);
+    }
+
+    @Override
+    public DescribeInstancesResult describeInstances(DescribeInstancesRequest request) {
+        count("DescribeInstances");
+        List<Instance> instances = new ArrayList<>();
+        List<String> states = filterValues(request.getFilters(), "instance-state-name");
+        for (String id : matching(instanceStates, filterValues(request.getFilters(), "instance-id"))) {
+            if (!tagged(id, request.getFilters()) || states != null && !states.contains(instanceStates.get(id)))
+                continue;
+            Instance details = this.instances.getOrDefault(id, new Instance());
+            instances.add(new Instance().withInstanceId(id).withPlacement(new Placement("us-east-1a"))
+                    .withState(new InstanceState().withName(instanceStates.get(id)))
+                    .withSubnetId(details.getSubnetId()).withInstanceType(details.getInstanceType())
+                    .withImageId(details.getImageId()).withTags(tagsOf(id)));
+        }
+        return new DescribeInstancesResult().withReservations(new Reservation().withInstances(instances));
+    }
+
+    @Override
+    public DescribeNatGatewaysResult describeNatGateways(DescribeNatGatewaysRequest request) {
+        count("DescribeNatGateways");
+        List<NatGateway> natGateways = new ArrayList<>();
+        for (String id : matching(natGatewayStates, filterValues(request.getFilter(), "nat-gateway-id")))
+            natGateways.add(new NatGateway().withNatGatewayId(id).withState(natGatewayStates.get(id)));
+        return new DescribeNatGatewaysResult().withNatGateways(natGateways);
+    }
+
+    @Override
+    public CreateTagsResult createTags(CreateTagsRequest request) {
+        count("CreateTags");
+        requests.add(request);
+        for (String resourceId : request.getResources()) {
+            Map<String, String> resourceTags = tags.computeIfAbsent(resourceId, k -> new ConcurrentHashMap<>());
+            for (Tag tag : request.getTags())
+                resourceTags.put(tag.getKey(), tag.getValue());
+        }
+        return new CreateTagsResult();
+    }
+
+    @Override
+    public DeleteTagsResult deleteTags(DeleteTagsRequest request) {
+        count("DeleteTags");
+        requests.add(request);
+        for (String resourceId : request.getResources()) {
+            Map<String, String> resourceTags = tags.get(resourceId);
+            if (resourceTags == null)
+                continue;
+            for (Tag tag : request.getTags()) {
+                if (tag.getValue() == null)
+                    resourceTags.remove(tag.getKey());
+                else
+                    resourceTags.remove(tag.getKey(), tag.getValue());
+            }
+        }
+        return new DeleteTagsResult();
+    }
+
+    @Override
+    public DescribeSecurityGroupsResult describeSecurityGroups(DescribeSecurityGroupsRequest request) {
+        count("DescribeSecurityGroups");
+        List<SecurityGroup> groups = new ArrayList<>();
+        for (String id : matching(securityGroupRules, filterValues(request.getFilters(), "group-id")))
+            groups.add(new SecurityGroup().withGroupId(id)
+                    .withIpPermissions(SecurityGroupSync.permissions(securityGroupRules.get(id))));
+        return new DescribeSecurityGroupsResult().withSecurityGroups(groups);
+    }
+
+    @Override
+    public AuthorizeSecurityGroupIngressResult authorizeSecurityGroupIngress(AuthorizeSecurityGroupIngressRequest request) {
+        count("AuthorizeSecurityGroupIngress");
+        Set<SecurityGroupSync.Rule> rules = securityGroupRules.get(request.getGroupId());
+        for (SecurityGroupSync.Rule rule : SecurityGroupSync.rules(request.getIpPermissions())) {
+            if (rules.contains(rule))
+                throw error("InvalidPermission.Duplicate", "the specified rule already exists");
+        }
+        rules.addAll(SecurityGroupSync.rules(request.getIpPermissions()));
+        return new AuthorizeSecurityGroupIngressResult().withReturn(true);
+    }
+
+    @Override
+    public RevokeSecurityGroupIngressResult revokeSecurityGroupIngress(RevokeSecurityGroupIngressRequest request) {
+        count("RevokeSecurityGroupIngress");
+        securityGroupRules.get(request.getGroupId()).removeAll(SecurityGroupSync.rules(request.getIpPermissions()));
+        return new RevokeSecurityGroupIngressResult().withReturn(true);
+    }
+
+    /**
+     * Launches up to MaxCount from the capacity left for {@code subnetId/instanceType}; unlimited if none is set.
+     * A repeated client token returns the original reservation.
+     */
+    @Override
+    public RunInstancesResult runInstances(RunInstancesRequest request) {
+        count("RunInstances");
+        requests.add(request);
+        if (request.getClientToken() == null)
+            return launch(request);
+        synchronized (launchesByToken) {
+            return launchesByToken.computeIfAbsent(request.getClientToken(), token -> launch(request));
+        }
+    }
+
+    private RunInstancesResult launch(RunInstancesRequest request) {
+        String pool = request.getSubnetId() + "/" + request.getInstanceType();
+        int launched;
+        synchronized (capacity) {
+            int available = capacity.getOrDefault(pool, Integer.MAX_VALUE);
+            if (available < request.getMinCount())
+                throw error("InsufficientInstanceCapacity", "Insufficient capacity for " + pool);
+            launched = Math.min(available, request.getMaxCount());
+            if (capacity.containsKey(pool))
+                capacity.put(pool, available - launched);
+        }
+        List<Instance> instances = new ArrayList<>();
+        for (int i = 0; i < launched; i++) {
+            String instanceId = "i-" + nextId.incrementAndGet();
+            instanceStates.put(instanceId, "pending");
+            Instance instance = new Instance().withInstanceId(instanceId).withInstanceType(request.getInstanceType())
+                    .withSubnetId(request.getSubnetId()).withImageId(request.getImageId());
+            this.instances.put(instanceId, instance);
+            tag(instanceId, request.getTagSpecifications());
+            instances.add(instance);
+        }
+        return new RunInstancesResult().withReservation(new Reservation().withInstances(instances));
+    }
+
+    @Override
+    public AllocateAddressResult allocateAddress(AllocateAddressRequest request) {
+        count("AllocateAddress");
+        String allocationId = "eipalloc-" + nextId.incrementAndGet();
+        addressAssociations.put(allocationId, "");
+        return new AllocateAddressResult().withAllocationId(allocationId);
+    }
+
+    @Override
+    public AssociateAddressResult associateAddress(AssociateAddressRequest request) {
+        count("AssociateAddress");
+        if (!addressAssociations.containsKey(request.getAllocationId()))
+            throw error("InvalidAllocationID.NotFound", "The allocation ID '" + request.getAllocationId()
+                    + "' does not exist");
+        if (!instanceStates.containsKey(request.getInstanceId()))
+            throw error("InvalidInstanceID.NotFound", "The instance ID '" + request.getInstanceId()
+                    + "' does not exist");
+        addressAssociations.put(request.getAllocationId(), request.getInstanceId());
+        String associationId = "eipassoc-" + nextId.incrementAndGet();
+        associationAllocations.put(associationId, request.getAllocationId());
+        return new AssociateAddressResult().withAssociationId(associationId);
+    }
+
+    @Override
+    public DisassociateAddressResult disassociateAddress(DisassociateAddressRequest request) {
+        count("DisassociateAddress");
+        String allocationId = associationAllocations.remove(request.getAssociationId());
+        if (allocationId == null)
+            throw error("InvalidAssociationID.NotFound", "The association ID '" + request.getAssociationId()
+                    + "' does not exist");
+        addressAssociations.put(allocationId, "");
+        return new DisassociateAddressResult();
+    }
+
+    @Override
+    public CreateVolumeResult createVolume(CreateVolumeRequest request) {
+        count("CreateVolume");
+        String volumeId = "vol-" + nextId.incrementAndGet();
+        volumeStates.put(volumeId, newVolumeState);
+        if (request.getSize() != null)
+            volumeSizes.put(volumeId, request.getSize());
+        tag(volumeId, request.getTagSpecifications());
+        return new CreateVolumeResult().withVolume(new Volume().withVolumeId(volumeId)
+                .withAvailabilityZone(request.getAvailabilityZone()).withState(newVolumeState));
+    }
+
+    @Override
+    public ModifyVolumeResult modifyVolume(ModifyVolumeRequest request) {
+        count("ModifyVolume");
+        volumeSizes.put(request.getVolumeId(), request.getSize());
+        return new ModifyVolumeResult();
+    }
+
+    @Override
+    public DescribeInternetGatewaysResult describeInternetGateways(DescribeInternetGatewaysRequest request) {
+        count("DescribeInternetGateways");
+        return new DescribeInternetGatewaysResult();
+    }
+
+    @Override
+    public DescribeVpcsResult describeVpcs(DescribeVpcsRequest request) {
+        count("DescribeVpcs");
+        List<Vpc> result = new ArrayList<>();
+        for (Vpc vpc : vpcs.values()) {
+            if (tagged(vpc.getVpcId(), request.getFilters()))
+                result.add(vpc.clone().withTags(tagsOf(vpc.getVpcId())));
+        }
+        return new DescribeVpcsResult().withVpcs(result);
+    }
+
+    @Override
+    public CreateVpcResult createVpc(CreateVpcRequest request) {
+        count("CreateVpc");
+        Vpc vpc = new Vpc().withVpcId("vpc-" + nextId.incrementAndGet()).withCidrBlock(request.getCidrBlock());
+        vpcs.put(vpc.getVpcId(), vpc);
+        tag(vpc.getVpcId(), request.getTagSpecifications());
+        return new CreateVpcResult().withVpc(vpc);
+    }
+
+    @Override
+    public DescribeSubnetsResult describeSubnets(DescribeSubnetsRequest request) {
+        count("DescribeSubnets");
+        List<Subnet> result = new ArrayList<>();
+        for (Subnet subnet : subnets.values()) {
+            if (tagged(subnet.getSubnetId(), request.getFilters()))
+                result.add(subnet.clone().withTags(tagsOf(subnet.getSubnetId())));
+        }
+        return new DescribeSubnetsResult().withSubnets(result);
+    }
+
+    @Override
+    public CreateSubnetResult createSubnet(CreateSubnetRequest request) {
+        count("CreateSubnet");
+        Subnet subnet = new Subnet().withSubnetId("subnet-" + nextId.incrementAndGet()).withVpcId(request.getVpcId())
+                .withCidrBlock(request.getCidrBlock()).withAvailabilityZone(request.getAvailabilityZone());
+        subnets.put(subnet.getSubnetId(), subnet);
+        tag(subnet.getSubnetId(), request.getTagSpecifications());
+        return new CreateSubnetResult().withSubnet(subnet);
+    }
+
+    @Override
+    public DeleteSubnetResult deleteSubnet(DeleteSubnetRequest request) {
+        count("DeleteSubnet");
+        if (subnets.remove(request.getSubnetId()) == null)
+            throw error("InvalidSubnetID.NotFound", "The subnet ID '" + request.getSubnetId() + "' does not exist");
+        return new DeleteSubnetResult();
+    }
+
+    @Override
+    public DescribeRouteTablesResult describeRouteTables(DescribeRouteTablesRequest request) {
+        count("DescribeRouteTables");
+        List<RouteTable> result = new ArrayList<>();
+        List<String> subnetIds = filterValues(request.getFilters(), "association.subnet-id");
+        synchronized (routeTables) {
+            for (RouteTable routeTable : routeTables.values()) {
+                if (subnetIds != null && routeTable.getAssociations().stream()
+                        .noneMatch(association -> subnetIds.contains(association.getSubnetId())))
+                    continue;
+                if (tagged(routeTable.getRouteTableId(), request.getFilters()))
+                    result.add(routeTable.clone().withAssociations(new ArrayList<>(routeTable.getAssociations()))
+                            .withTags(tagsOf(routeTable.getRouteTableId())));
+            }
+        }
+        return new DescribeRouteTablesResult().withRouteTables(result);
+    }
+
+    @Override
+    public CreateRouteTableResult createRouteTable(CreateRouteTableRequest request) {
+        count("CreateRouteTable");
+        RouteTable routeTable = new RouteTable().withRouteTableId("rtb-" + nextId.incrementAndGet())
+                .withVpcId(request.getVpcId()).withAssociations(new ArrayList<>());
+        routeTables.put(routeTable.getRouteTableId(), routeTable);
+        tag(routeTable.getRouteTableId(), request.getTagSpecifications());
+        return new CreateRouteTableResult().withRouteTable(routeTable);
+    }
+
+    @Override
+    public AssociateRouteTableResult associateRouteTable(AssociateRouteTableRequest request) {
+        count("AssociateRouteTable");
+        String associationId = "rtbassoc-" + nextId.incrementAndGet();
+        RouteTable routeTable = routeTables.get(request.getRouteTableId());
+        synchronized (routeTables) {
+            // A subnet can have only one explicit association
+            for (RouteTable other : routeTables.values()) {
+                for (RouteTableAssociation association : other.getAssociations()) {
+                    if (request.getSubnetId().equals(association.getSubnetId()))
+                        throw error("Resource.AlreadyAssociated", "the specified association for route table "
+                                + request.getRouteTableId() + " conflicts with an existing association");
+                }
+            }
+            routeTable.getAssociations().add(new RouteTableAssociation().withRouteTableAssociationId(associationId)
+                    .withRouteTableId(request.getRouteTableId()).withSubnetId(request.getSubnetId()));
+        }
+        return new AssociateRouteTableResult().withAssociationId(associationId);
+    }
+
+    @Override
+    public ReplaceRouteTableAssociationResult replaceRouteTableAssociation(
+            ReplaceRouteTableAssociationRequest request) {
+        count("ReplaceRouteTableAssociation");
+        String associationId = "rtbassoc-" + nextId.incrementAndGet();
+        synchronized (routeTables) {
+            for (RouteTable routeTable : routeTables.values()) {
+                for (RouteTableAssociation association : routeTable.getAssociations()) {
+                    if (!association.getRouteTableAssociationId().equals(request.getAssociationId()))
+                        continue;
+                    routeTable.getAssociations().remove(association);
+                    routeTables.get(request.getRouteTableId()).getAssociations().add(new RouteTableAssociation()
+                            .withRouteTableAssociationId(associationId).withRouteTableId(request.getRouteTableId())
+                            .withSubnetId(association.getSubnetId()));
+                    return new ReplaceRouteTableAssociationResult().withNewAssociationId(associationId);
+                }
+            }
+        }
+        throw error("InvalidAssociationID.NotFound", "The association ID '" + request.getAssociationId()
+                + "' does not exist");
+    }
+
+    @Override
+    public DisassociateRouteTableResult disassociateRouteTable(DisassociateRouteTableRequest request) {
+        count("DisassociateRouteTable");
+        synchronized (routeTables) {
+            for (RouteTable routeTable : routeTables.values())
+                routeTable.getAssociations().removeIf(association ->
+                        association.getRouteTableAssociationId().equals(request.getAssociationId()));
+        }
+        return new DisassociateRouteTableResult();
+    }
+
+    @Override
+    public AttachVolumeResult attachVolume(AttachVolumeRequest request) {
+        count("AttachVolume");
+        if (!"available".equals(volumeStates.get(request.getVolumeId())))
+            throw error("IncorrectState", "vol is not available");
+        volumeStates.put(request.getVolumeId(), "in-use");
+        volumeAttachments.put(request.getVolumeId(), request.getInstanceId() + ":" + request.getDevice());
+        return new AttachVolumeResult().withAttachment(new VolumeAttachment()
+                .withVolumeId(request.getVolumeId()).withInstanceId(request.getInstanceId()).withState("attaching"));
+    }
+
+    @Override
+    public CreateSnapshotResult createSnapshot(CreateSnapshotRequest request) {
+        count("CreateSnapshot");
+        if (!volumeStates.containsKey(request.getVolumeId()))
+            throw error("InvalidVolume.NotFound", "The volume '" + request.getVolumeId() + "' does not exist");
+        return new CreateSnapshotResult().withSnapshot(newSnapshot(request.getVolumeId()));
+    }
+
+    @Override
+    public CreateSnapshotsResult createSnapshots(CreateSnapshotsRequest request) {
+        count("CreateSnapshots");
+        String instanceId = request.getInstanceSpecification().getInstanceId();
+        if (!instanceStates.containsKey(instanceId))
+            throw error("InvalidInstanceID.NotFound", "The instance ID '" + instanceId + "' does not exist");
+        List<SnapshotInfo> snapshots = new ArrayList<>();
+        for (Map.Entry<String, String> attachment : volumeAttachments.entrySet()) {
+            if (attachment.getValue().startsWith(instanceId + ":")) {
+                Snapshot snapshot = newSnapshot(attachment.getKey());
+                snapshots.add(new SnapshotInfo().withSnapshotId(snapshot.getSnapshotId())
+                        .withVolumeId(attachment.getKey()).withState(snapshot.getState()));
+            }
+        }
+        return new CreateSnapshotsResult().withSnapshots(snapshots);
+    }
+
+    private Snapshot newSnapshot(String volumeId) {
+        String snapshotId = "snap-" + nextId.incrementAndGet();
+        snapshotStates.put(snapshotId, "pending");
+        snapshotProgress.put(snapshotId, "0%");
+        return new Snapshot().withSnapshotId(snapshotId).withVolumeId(volumeId).withState("pending");
+    }
+}
@@ -0,0 +1,158 @@
+package org.example;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.elasticloadbalancingv2.AbstractAmazonElasticLoadBalancing;
+import com.amazonaws.services.elasticloadbalancingv2.model.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory stand-in for ELBv2 that keeps registered targets per target group and counts calls per action.
+ */
+class FakeElb extends AbstractAmazonElasticLoadBalancing {
+
+    final Map<String, Map<String, String>> targets = new ConcurrentHashMap<>();
+    final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    final Map<String, CreateLoadBalancerRequest> loadBalancers = new ConcurrentHashMap<>();
+    final Map<String, CreateListenerRequest> listeners = new ConcurrentHashMap<>();
+    final Set<String> invalidTargets = ConcurrentHashMap.newKeySet();
+    final Map<String, String> loadBalancerVpcs = new ConcurrentHashMap<>();
+    final Map<String, String> targetGroupVpcs = new ConcurrentHashMap<>();
+    final AtomicInteger nextId = new AtomicInteger();
+    volatile int maxTargetsPerCall = Integer.MAX_VALUE;
+    /** Number of DescribeLoadBalancers calls that still report provisioning before the load balancer is active. */
+    volatile int provisioningPolls = 2;
+
+    FakeElb withTargetGroup(String targetGroupArn, String... targetIds) {
+        Map<String, String> health = new ConcurrentHashMap<>();
+        for (String targetId : targetIds)
+            health.put(targetId, "healthy");
+        targets.put(targetGroupArn, health);
+        return this;
+    }
+
+    int calls(String action) {
+        AtomicInteger count = calls.get(action);
+        return count == null ? 0 : count.get();
+    }
+
+    void count(String action) {
+        calls.computeIfAbsent(action, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private Map<String, String> group(String targetGroupArn) {
+        Map<String, String> group = targets.get(targetGroupArn);
+        if (group == null) {
+            AmazonServiceException e = new AmazonServiceException("Target group '" + targetGroupArn + "' not found");
+            e.setErrorCode("TargetGroupNotFound");
+            e.setStatusCode(400);
+            throw e;
+        }
+        return group;
+    }
+
+    private void check(List<TargetDescription> descriptions) {
+        if (descriptions.size() > maxTargetsPerCall)
+            throw FakeEc2.error("ValidationError", "too many targets");
+        for (TargetDescription description : descriptions) {
+            if (invalidTargets.contains(description.getId()))
+                throw FakeEc2.error("InvalidTarget", "The following targets are not in a running state: "
+                        + description.getId());
+        }
+    }
+
+    @Override
+    public CreateTargetGroupResult createTargetGroup(CreateTargetGroupRequest request) {
+        count("CreateTargetGroup");
+        String targetGroupArn = "arn:aws:elasticloadbalancing:us-east-1:123456789012:targetgroup/"
+                + request.getName() + "/" + nextId.incrementAndGet();
+        targets.put(targetGroupArn, new ConcurrentHashMap<>());
+        return new CreateTargetGroupResult().withTargetGroups(new TargetGroup()
+                .withTargetGroupArn(targetGroupArn).withTargetGroupName(request.getName()));
+    }
+
+    @Override
+    public DescribeTargetHealthResult describeTargetHealth(DescribeTargetHealthRequest request) {
+        count("DescribeTargetHealth");
+        List<TargetHealthDescription> descriptions = new ArrayList<>();
+        for (Map.Entry<String, String> target : group(request.getTargetGroupArn()).entrySet())
+            descriptions.add(new TargetHealthDescription()
+                    .withTarget(new TargetDescription().withId(target.getKey()))
+                    .withTargetHealth(new TargetHealth().withState(target.getValue())));
+        return new DescribeTargetHealthResult().withTargetHealthDescriptions(descriptions);
+    }
+
+    @Override
+    public RegisterTargetsResult registerTargets(RegisterTargetsRequest request) {
+        count("RegisterTargets");
+        Map<String, String> group = group(request.getTargetGroupArn());
+        check(request.getTargets());
+        for (TargetDescription description : request.getTargets())
+            group.put(description.getId(), "initial");
+        return new RegisterTargetsResult();
+    }
+
+    @Override
+    public DeregisterTargetsResult deregisterTargets(DeregisterTargetsRequest request) {
+        count("DeregisterTargets");
+        Map<String, String> group = group(request.getTargetGroupArn());
+        check(request.getTargets());
+        for (TargetDescription description : request.getTargets())
+            group.put(description.getId(), "draining");
+        return new DeregisterTargetsResult();
+    }
+
+    @Override
+    public CreateLoadBalancerResult createLoadBalancer(CreateLoadBalancerRequest request) {
+        count("CreateLoadBalancer");
+        String loadBalancerArn = "arn:aws:elasticloadbalancing:us-east-1:123456789012:loadbalancer/net/"
+                + request.getName() + "/" + nextId.incrementAndGet();
+        loadBalancers.put(loadBalancerArn, request);
+        return new CreateLoadBalancerResult().withLoadBalancers(new LoadBalancer()
+                .withLoadBalancerArn(loadBalancerArn)
+                .withState(new LoadBalancerState().withCode(LoadBalancerStateEnum.Provisioning)));
+    }
+
+    @Override
+    public DescribeLoadBalancersResult describeLoadBalancers(DescribeLoadBalancersRequest request) {
+        count("DescribeLoadBalancers");
+        List<LoadBalancer> found = new ArrayList<>();
+        if (request.getLoadBalancerArns() == null) {
+            for (Map.Entry<String, String> entry : loadBalancerVpcs.entrySet())
+                found.add(new LoadBalancer().withLoadBalancerArn(entry.getKey()).withVpcId(entry.getValue()));
+            return new DescribeLoadBalancersResult().withLoadBalancers(found);
+        }
+        for (String loadBalancerArn : request.getLoadBalancerArns()) {
+            CreateLoadBalancerRequest created = loadBalancers.get(loadBalancerArn);
+            if (created == null)
+                continue;
+            LoadBalancerStateEnum state = calls("DescribeLoadBalancers") > provisioningPolls
+                    ? LoadBalancerStateEnum.Active : LoadBalancerStateEnum.Provisioning;
+            found.add(new LoadBalancer().withLoadBalancerArn(loadBalancerArn)
+                    .withDNSName(created.getName() + ".elb.amazonaws.com")
+                    .withState(new LoadBalancerState().withCode(state)));
+        }
+        return new DescribeLoadBalancersResult().withLoadBalancers(found);
+    }
+
+    @Override
+    public CreateListenerResult createListener(CreateListenerRequest request) {
+        count("CreateListener");
+        String listenerArn = request.getLoadBalancerArn().replace(":loadbalancer/", ":listener/") + "/"
+                + nextId.incrementAndGet();
+        listeners.put(listenerArn, request);
+        return new CreateListenerResult().withListeners(new Listener().withListenerArn(listenerArn)
+                .withLoadBalancerArn(request.getLoadBalancerArn()).withPort(request.getPort()));
+    }
+
+    @Override
+    public DescribeTargetGroupsResult describeTargetGroups(DescribeTargetGroupsRequest request) {
+        count("DescribeTargetGroups");
+        List<TargetGroup> found = new ArrayList<>();
+        for (Map.Entry<String, String> entry : targetGroupVpcs.entrySet())
+            found.add(new TargetGroup().withTargetGroupArn(entry.getKey()).withVpcId(entry.getValue()));
+        return new DescribeTargetGroupsResult().withTargetGroups(found);
+    }
+}
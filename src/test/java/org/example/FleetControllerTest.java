@@ -0,0 +1,106 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StartInstancesResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class FleetControllerTest
+{
+    @Test
+    public void startsFleetWithOneDryRunPerBatch()
+    {
+        FakeEc2 ec2 = new FakeEc2();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            String id = "i-" + i;
+            ec2.withInstance(id, i % 4 == 0 ? "running" : "stopped");
+            ids.add(id);
+        }
+
+        Map<String, InstanceActionResult> results = new FleetController(ec2, 100, 4).startInstances(ids);
+
+        assertEquals(400, results.size());
+        assertEquals(4, ec2.calls("DryRun"));
+        assertEquals(4, ec2.calls("StartInstances"));
+        assertEquals(InstanceActionResult.Status.ALREADY_RUNNING, results.get("i-0").getStatus());
+        assertEquals(InstanceActionResult.Status.STARTED, results.get("i-1").getStatus());
+    }
+
+    @Test
+    public void isolatesUnknownInstanceInBatch()
+    {
+        FakeEc2 ec2 = new FakeEc2().withInstance("i-1", "running").withInstance("i-2", "stopped");
+
+        Map<String, InstanceActionResult> results =
+                new FleetController(ec2).stopInstances(Arrays.asList("i-1", "i-missing", "i-2"));
+
+        assertEquals(InstanceActionResult.Status.STOPPED, results.get("i-1").getStatus());
+        assertEquals(InstanceActionResult.Status.ALREADY_STOPPED, results.get("i-2").getStatus());
+        assertTrue(results.get("i-missing").isFailed());
+    }
+
+    @Test
+    public void bisectsBatchRejectedByDryRun()
+    {
+        FakeEc2 ec2 = new FakeEc2();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String id = "i-" + i;
+            ec2.withInstance(id, "stopped");
+            ids.add(id);
+        }
+        ids.set(617, "i-stale");
+
+        Map<String, InstanceActionResult> results = new FleetController(ec2).startInstances(ids);
+
+        assertTrue(results.get("i-stale").isFailed());
+        assertEquals(999, results.values().stream().filter(r -> !r.isFailed()).count());
+        assertTrue(ec2.calls("DryRun") <= 21);
+        assertTrue(ec2.calls("StartInstances") <= 10);
+    }
+
+    @Test
+    public void failsWholeBatchWhenDryRunIsDenied()
+    {
+        FakeEc2 ec2 = new FakeEc2().withInstance("i-1", "stopped");
+        ec2.denyDryRun = true;
+
+        Map<String, InstanceActionResult> results = new FleetController(ec2).startInstances(Arrays.asList("i-1"));
+
+        assertTrue(results.get("i-1").isFailed());
+        assertEquals(0, ec2.calls("StartInstances"));
+    }
+
+    @Test
+    public void failsBatchWithoutBisectingWhenThrottled()
+    {
+        FakeEc2 ec2 = new FakeEc2()
+        {
+            @Override
+            public StartInstancesResult startInstances(StartInstancesRequest request)
+            {
+                count("StartInstances");
+                throw error("RequestLimitExceeded", "Request limit exceeded.");
+            }
+        };
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String id = "i-" + i;
+            ec2.withInstance(id, "stopped");
+            ids.add(id);
+        }
+
+        Map<String, InstanceActionResult> results = new FleetController(ec2).startInstances(ids);
+
+        assertEquals(1, ec2.calls("StartInstances"));
+        assertEquals(100, results.values().stream().filter(InstanceActionResult::isFailed).count());
+    }
+}
@@ -0,0 +1,62 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class InventoryCacheTest
+{
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private String load(String value)
+    {
+        loads.incrementAndGet();
+        return value;
+    }
+
+    @Test
+    public void servesHitsUntilTtlExpires()
+    {
+        InventoryCache cache = new InventoryCache(10, now::get);
+        cache.setTtl(InventoryCache.Type.SUBNET, 100);
+
+        assertEquals("a", cache.get(InventoryCache.Type.SUBNET, "vpc-1", () -> load("a")));
+        assertEquals("a", cache.get(InventoryCache.Type.SUBNET, "vpc-1", () -> load("b")));
+        now.addAndGet(100);
+        assertEquals("c", cache.get(InventoryCache.Type.SUBNET, "vpc-1", () -> load("c")));
+
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void invalidationForcesReload()
+    {
+        InventoryCache cache = new InventoryCache(10, now::get);
+        cache.get(InventoryCache.Type.INSTANCE, "i-1", () -> load("running"));
+        cache.invalidate(InventoryCache.Type.INSTANCE, "i-1");
+
+        assertEquals("stopped", cache.get(InventoryCache.Type.INSTANCE, "i-1", () -> load("stopped")));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed()
+    {
+        InventoryCache cache = new InventoryCache(2, now::get);
+        cache.get(InventoryCache.Type.VOLUME, "vol-1", () -> load("1"));
+        cache.get(InventoryCache.Type.VOLUME, "vol-2", () -> load("2"));
+        cache.get(InventoryCache.Type.VOLUME, "vol-1", () -> load("1"));
+        cache.get(InventoryCache.Type.VOLUME, "vol-3", () -> load("3"));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        cache.get(InventoryCache.Type.VOLUME, "vol-1", () -> load("1"));
+        assertEquals(3, loads.get());
+    }
+}
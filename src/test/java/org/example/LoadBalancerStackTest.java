@@ -0,0 +1,83 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.elasticloadbalancingv2.model.CreateListenerRequest;
+import com.amazonaws.services.elasticloadbalancingv2.model.CreateLoadBalancerRequest;
+import com.amazonaws.services.elasticloadbalancingv2.model.DescribeLoadBalancersRequest;
+import com.amazonaws.services.elasticloadbalancingv2.model.DescribeLoadBalancersResult;
+import com.amazonaws.services.elasticloadbalancingv2.model.LoadBalancerNotFoundException;
+import com.amazonaws.services.elasticloadbalancingv2.model.LoadBalancerSchemeEnum;
+import com.amazonaws.services.elasticloadbalancingv2.model.LoadBalancerTypeEnum;
+import com.amazonaws.services.elasticloadbalancingv2.model.ProtocolEnum;
+import com.amazonaws.services.elasticloadbalancingv2.model.SubnetMapping;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoadBalancerStackTest
+{
+    private final FakeElb elb = new FakeElb();
+
+    private static Subnet subnet(String subnetId, String zone, boolean mapPublicIp)
+    {
+        return new Subnet().withSubnetId(subnetId).withAvailabilityZone(zone).withMapPublicIpOnLaunch(mapPublicIp);
+    }
+
+    @Test
+    public void provisionsLoadBalancerTargetGroupAndListener()
+    {
+        List<Subnet> subnets = Arrays.asList(
+                subnet("subnet-a-private", "us-east-1a", false),
+                subnet("subnet-a-public", "us-east-1a", true),
+                subnet("subnet-b-private", "us-east-1b", false));
+
+        TaskGraph.Result result = new LoadBalancerStack(elb, () -> subnets, "web", "vpc-1",
+                LoadBalancerTypeEnum.Network, LoadBalancerSchemeEnum.InternetFacing)
+                .pollDelays(1, 5)
+                .targetGroup("web-tg", ProtocolEnum.TCP, 80, "i-1", "i-2")
+                .listener(ProtocolEnum.TCP, 80, "web-tg")
+                .provision();
+
+        assertEquals("web.elb.amazonaws.com", result.get(LoadBalancerStack.ACTIVE));
+        CreateLoadBalancerRequest created = elb.loadBalancers.get(result.get(LoadBalancerStack.LOAD_BALANCER));
+        List<String> subnetIds = new ArrayList<>();
+        for (SubnetMapping mapping : created.getSubnetMappings())
+            subnetIds.add(mapping.getSubnetId());
+        assertEquals(Arrays.asList("subnet-a-public", "subnet-b-private"), subnetIds);
+
+        String targetGroupArn = result.get("web-tg");
+        assertEquals(new HashSet<>(Arrays.asList("i-1", "i-2")), elb.targets.get(targetGroupArn).keySet());
+        CreateListenerRequest listener = elb.listeners.get(result.get("listener-80"));
+        assertEquals(targetGroupArn, listener.getDefaultActions().get(0).getTargetGroupArn());
+        assertEquals(3, elb.calls("DescribeLoadBalancers"));
+    }
+
+    @Test
+    public void keepsPollingWhileANewLoadBalancerIsNotYetVisible()
+    {
+        AtomicInteger misses = new AtomicInteger(2);
+        FakeElb laggingElb = new FakeElb() {
+            @Override
+            public DescribeLoadBalancersResult describeLoadBalancers(DescribeLoadBalancersRequest request) {
+                int miss = misses.getAndDecrement();
+                if (miss == 2)
+                    throw new LoadBalancerNotFoundException("One or more load balancers not found");
+                if (miss == 1)
+                    return new DescribeLoadBalancersResult();
+                return super.describeLoadBalancers(request);
+            }
+        };
+        laggingElb.provisioningPolls = 0;
+
+        TaskGraph.Result result = new LoadBalancerStack(laggingElb,
+                () -> Collections.singletonList(subnet("subnet-a", "us-east-1a", false)), "web", "vpc-1",
+                LoadBalancerTypeEnum.Network, LoadBalancerSchemeEnum.Internal)
+                .pollDelays(1, 5)
+                .provision();
+
+        assertEquals("web.elb.amazonaws.com", result.get(LoadBalancerStack.ACTIVE));
+    }
+}
@@ -0,0 +1,44 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+
+import com.amazonaws.services.ec2.model.Volume;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class PaginatorsTest
+{
+    @Test
+    public void followsNextTokenAcrossPages()
+    {
+        FakeEc2 ec2 = new FakeEc2();
+        for (int i = 0; i < 1234; i++)
+            ec2.volumeStates.put(String.format("vol-%05d", i), "available");
+
+        List<String> ids = Paginators.volumes(ec2).map(Volume::getVolumeId).collect(Collectors.toList());
+
+        assertEquals(1234, ids.size());
+        assertEquals("vol-00000", ids.get(0));
+        assertEquals("vol-01233", ids.get(1233));
+        assertEquals(3, ec2.calls("DescribeVolumes"));
+    }
+
+    @Test
+    public void fetchesNoMoreThanOnePageAhead() throws Exception
+    {
+        FakeEc2 ec2 = new FakeEc2();
+        for (int i = 0; i < 2000; i++)
+            ec2.volumeStates.put(String.format("vol-%05d", i), "available");
+
+        try (Stream<Volume> volumes = Paginators.volumes(ec2)) {
+            Iterator<Volume> iterator = volumes.iterator();
+            assertEquals("vol-00000", iterator.next().getVolumeId());
+            Thread.sleep(50);
+            assertEquals(2, ec2.calls("DescribeVolumes"));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.example;
+
+import com.amazonaws.services.ec2.model.*;
+import org.junit.Test;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RequestHedgerTest
+{
+    private static class SlowEc2 extends FakeEc2
+    {
+        final Queue<Long> delays = new ConcurrentLinkedQueue<>();
+        // Calls that block until the test releases them, taken before any delays
+        final Queue<CountDownLatch> holds = new ConcurrentLinkedQueue<>();
+
+        private void pause()
+        {
+            CountDownLatch hold = holds.poll();
+            Long delay = hold == null ? delays.poll() : null;
+            try {
+                if (hold != null)
+                    hold.await(5, TimeUnit.SECONDS);
+                else if (delay != null)
+                    TimeUnit.MILLISECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public RunInstancesResult runInstances(RunInstancesRequest request)
+        {
+            pause();
+            return super.runInstances(request);
+        }
+
+        @Override
+        public CreateVpcResult createVpc(CreateVpcRequest request)
+        {
+            pause();
+            return super.createVpc(request);
+        }
+    }
+
+    private final SlowEc2 ec2 = new SlowEc2();
+    private final AwsMetrics metrics = new AwsMetrics(false);
+
+    private RequestHedger hedger(String action, int samples)
+    {
+        for (int i = 0; i < samples; i++)
+            metrics.operation(action).getLatency().record(10_000);
+        return new RequestHedger(ec2, metrics, 95, 20, 1);
+    }
+
+    private static RunInstancesRequest launch()
+    {
+        return new RunInstancesRequest().withImageId("ami-1").withMinCount(1).withMaxCount(1);
+    }
+
+    @Test
+    public void hedgesSlowCallsAndKeepsTheFirstResponse()
+    {
+        RequestHedger hedger = hedger("RunInstances", 20);
+        CountDownLatch original = new CountDownLatch(1);
+        ec2.holds.add(original);
+
+        try {
+            RunInstancesResult result = hedger.client().runInstances(launch());
+
+            // The original is still held, so the only launch so far is the hedge's
+            assertEquals(1, ec2.calls("RunInstances"));
+            assertEquals(1, hedger.getHedged());
+            assertEquals(1, hedger.getHedgeWins());
+            assertNotNull(result.getReservation().getInstances().get(0).getInstanceId());
+        } finally {
+            original.countDown();
+        }
+    }
+
+    @Test
+    public void bothCopiesShareTheClientToken() throws Exception
+    {
+        RequestHedger hedger = hedger("RunInstances", 20);
+        CountDownLatch original = new CountDownLatch(1);
+        ec2.holds.add(original);
+
+        hedger.client().runInstances(launch());
+        // Let the held original land too
+        original.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ec2.calls("RunInstances") < 2) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        assertEquals(2, ec2.calls("RunInstances"));
+        assertEquals(((RunInstancesRequest) ec2.requests.get(0)).getClientToken(),
+                ((RunInstancesRequest) ec2.requests.get(1)).getClientToken());
+        assertEquals(1, ec2.instanceStates.size());
+    }
+
+    @Test
+    public void fastCallsAreNotHedged()
+    {
+        RequestHedger hedger = hedger("RunInstances", 20);
+
+        hedger.client().runInstances(launch());
+
+        assertEquals(0, hedger.getHedged());
+        assertEquals(1, ec2.calls("RunInstances"));
+    }
+
+    @Test
+    public void waitsForEnoughSamplesBeforeHedging()
+    {
+        RequestHedger hedger = hedger("RunInstances", 5);
+        ec2.delays.add(100L);
+
+        hedger.client().runInstances(launch());
+
+        assertEquals(0, hedger.getHedged());
+        assertEquals(1, ec2.calls("RunInstances"));
+    }
+
+    @Test
+    public void neverHedgesCallsWithoutIdempotency()
+    {
+        RequestHedger hedger = hedger("CreateVpc", 20);
+        ec2.delays.add(100L);
+
+        hedger.client().createVpc(new CreateVpcRequest().withCidrBlock("10.0.0.0/16"));
+
+        assertEquals(0, hedger.getHedged());
+        assertEquals(1, ec2.calls("CreateVpc"));
+    }
+
+    @Test
+    public void tokenHandlerKeepsTokensAlreadySet()
+    {
+        ClientTokenRequestHandler handler = new ClientTokenRequestHandler();
+        CreateVolumeRequest fresh = new CreateVolumeRequest();
+        CreateVolumeRequest preset = new CreateVolumeRequest().withClientToken("step-token");
+
+        handler.beforeExecution(fresh);
+        handler.beforeExecution(preset);
+
+        assertNotNull(fresh.getClientToken());
+        assertEquals("step-token", preset.getClientToken());
+        assertFalse(ClientTokenRequestHandler.ensureToken(new CreateVpcRequest()));
+    }
+}
@@ -0,0 +1,183 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.elasticloadbalancingv2.model.LoadBalancerSchemeEnum;
+import com.amazonaws.services.elasticloadbalancingv2.model.LoadBalancerTypeEnum;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResourceJournalTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysCreatedDeletedAndPendingSteps() throws Exception
+    {
+        Path path = folder.getRoot().toPath().resolve("run.journal");
+        String token;
+        try (ResourceJournal journal = ResourceJournal.open(path)) {
+            journal.begin("vpc");
+            journal.created("vpc", ResourceJournal.Kind.VPC, "vpc-1", null);
+            journal.begin("subnet");
+            journal.created("subnet", ResourceJournal.Kind.SUBNET, "subnet-1", "vpc-1");
+            journal.created(null, ResourceJournal.Kind.VOLUME, "vol-1", null);
+            journal.deleted("vol-1");
+            token = journal.begin("nat");
+        }
+
+        try (ResourceJournal journal = ResourceJournal.open(path)) {
+            List<ResourceJournal.Entry> live = journal.getLiveResources();
+            assertEquals(2, live.size());
+            assertEquals("vpc-1", live.get(0).getResourceId());
+            assertEquals("vpc-1", live.get(1).getParentId());
+            assertEquals(ResourceJournal.Kind.SUBNET, journal.completed("subnet").getKind());
+            assertNull(journal.completed("nat"));
+            // A step begun before the crash keeps its client token
+            assertEquals(token, journal.begin("nat"));
+        }
+    }
+
+    @Test
+    public void ignoresTornRecordAndKeepsAppending() throws Exception
+    {
+        Path path = folder.getRoot().toPath().resolve("torn.journal");
+        try (ResourceJournal journal = ResourceJournal.open(path)) {
+            journal.created("a", ResourceJournal.Kind.VPC, "vpc-1", null);
+            journal.created("b", ResourceJournal.Kind.VPC, "vpc-2", null);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            int first = file.readInt();
+            // Flip a byte inside the second record's payload
+            file.seek(ResourceJournal.HEADER_BYTES + first + ResourceJournal.HEADER_BYTES + 4);
+            int value = file.read();
+            file.seek(ResourceJournal.HEADER_BYTES + first + ResourceJournal.HEADER_BYTES + 4);
+            file.write(value ^ 0xff);
+        }
+
+        try (ResourceJournal journal = ResourceJournal.open(path)) {
+            assertEquals(1, journal.getLiveResources().size());
+            journal.created("c", ResourceJournal.Kind.VPC, "vpc-3", null);
+        }
+        try (ResourceJournal journal = ResourceJournal.open(path)) {
+            assertEquals(2, journal.getLiveResources().size());
+            assertEquals("vpc-3", journal.completed("c").getResourceId());
+        }
+    }
+
+    @Test
+    public void growsPastInitialMapping() throws Exception
+    {
+        Path path = folder.getRoot().toPath().resolve("large.journal");
+        try (ResourceJournal journal = ResourceJournal.open(path)) {
+            for (int i = 0; i < 5000; i++)
+                journal.created("step-" + i, ResourceJournal.Kind.INSTANCE, "i-" + i, "subnet-1");
+        }
+        try (ResourceJournal journal = ResourceJournal.open(path)) {
+            assertEquals(5000, journal.getLiveResources().size());
+            assertEquals("i-4999", journal.completed("step-4999").getResourceId());
+        }
+    }
+
+    @Test
+    public void journaledStepsRunOnce() throws Exception
+    {
+        AtomicInteger creates = new AtomicInteger();
+        String[] stepToken = new String[1];
+        try (ResourceJournal journal = ResourceJournal.open(folder.getRoot().toPath().resolve("app.journal"))) {
+            App.useJournal(journal);
+            String first = App.journaled("bucket", ResourceJournal.Kind.OTHER, () -> {
+                stepToken[0] = App.clientToken();
+                assertEquals(stepToken[0], App.clientToken());
+                return "res-" + creates.incrementAndGet();
+            });
+            String second = App.journaled("bucket", ResourceJournal.Kind.OTHER,
+                    () -> "res-" + creates.incrementAndGet());
+
+            assertEquals("res-1", first);
+            assertEquals("res-1", second);
+            assertEquals(1, creates.get());
+            // Outside a step every call gets its own token
+            assertNotNull(App.clientToken());
+            assertNotEquals(stepToken[0], App.clientToken());
+        } finally {
+            App.useJournal(null);
+        }
+    }
+
+    @Test
+    public void provisionsAgainAfterTeardown() throws Exception
+    {
+        Path path = folder.getRoot().toPath().resolve("again.journal");
+        AtomicInteger creates = new AtomicInteger();
+        String[] tokens = new String[2];
+        try (ResourceJournal journal = ResourceJournal.open(path)) {
+            App.useJournal(journal);
+            String first = App.journaled("vpc", ResourceJournal.Kind.VPC, () -> {
+                tokens[0] = App.clientToken();
+                return "vpc-" + creates.incrementAndGet();
+            });
+            for (ResourceJournal.Entry entry : journal.getLiveResources())
+                journal.deleted(entry.getResourceId());
+            assertNull(journal.completed("vpc"));
+
+            String second = App.journaled("vpc", ResourceJournal.Kind.VPC, () -> {
+                tokens[1] = App.clientToken();
+                return "vpc-" + creates.incrementAndGet();
+            });
+
+            assertEquals("vpc-1", first);
+            assertEquals("vpc-2", second);
+            assertNotEquals(tokens[0], tokens[1]);
+        } finally {
+            App.useJournal(null);
+        }
+
+        try (ResourceJournal journal = ResourceJournal.open(path)) {
+            assertEquals("vpc-2", journal.completed("vpc").getResourceId());
+            assertEquals(1, journal.getLiveResources().size());
+        }
+    }
+
+    @Test
+    public void journalsTheLoadBalancerAndItsTargetGroup() throws Exception
+    {
+        FakeEc2 ec2 = new FakeEc2();
+        ec2.subnets.put("subnet-1", new Subnet().withSubnetId("subnet-1").withVpcId("vpc-1")
+                .withAvailabilityZone("us-east-1a"));
+        FakeElb elb = new FakeElb();
+        elb.provisioningPolls = 0;
+        App.useClients(new ClientRegistry(region -> ec2, region -> elb, Collections.singletonList(App.DEFAULT_REGION)));
+        try (ResourceJournal journal = ResourceJournal.open(folder.getRoot().toPath().resolve("lb.journal"))) {
+            App.useJournal(journal);
+            String loadBalancerArn = App.journaled("lb", ResourceJournal.Kind.LOAD_BALANCER, () -> App.createLoadBalancer(
+                    "web", "vpc-1", LoadBalancerTypeEnum.Network, LoadBalancerSchemeEnum.Internal, 80));
+
+            assertEquals(loadBalancerArn, journal.completed("lb").getResourceId());
+            Map<ResourceJournal.Kind, ResourceJournal.Entry> byKind = new EnumMap<>(ResourceJournal.Kind.class);
+            for (ResourceJournal.Entry entry : journal.getLiveResources())
+                byKind.put(entry.getKind(), entry);
+            assertEquals(2, byKind.size());
+            assertEquals("vpc-1", byKind.get(ResourceJournal.Kind.LOAD_BALANCER).getParentId());
+            assertEquals("vpc-1", byKind.get(ResourceJournal.Kind.TARGET_GROUP).getParentId());
+            assertNull(byKind.get(ResourceJournal.Kind.TARGET_GROUP).getStep());
+        } finally {
+            App.useJournal(null);
+            App.useClients(null);
+        }
+    }
+}
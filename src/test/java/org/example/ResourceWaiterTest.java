@@ -0,0 +1,127 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsRequest;
+import com.amazonaws.services.ec2.model.DescribeSnapshotsResult;
+import com.amazonaws.services.ec2.model.DescribeVolumesRequest;
+import com.amazonaws.services.ec2.model.DescribeVolumesResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResourceWaiterTest
+{
+    @Test
+    public void coalescesPendingWaitsIntoOneDescribePerTick() throws Exception
+    {
+        FakeEc2 ec2 = new FakeEc2();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        try (ResourceWaiter waiter = new ResourceWaiter(ec2, 5, 20)) {
+            for (int i = 0; i < 50; i++) {
+                ec2.snapshotStates.put("snap-" + i, "pending");
+                futures.add(waiter.await(ResourceWaiter.Kind.SNAPSHOT, "snap-" + i, "completed"));
+            }
+            Thread.sleep(50);
+            for (int i = 0; i < 50; i++)
+                ec2.snapshotStates.put("snap-" + i, "completed");
+
+            for (CompletableFuture<String> future : futures)
+                assertEquals("completed", future.join());
+            assertEquals(waiter.getDescribeCalls(), ec2.calls("DescribeSnapshots"));
+            assertTrue(waiter.getSavedDescribeCalls() >= 49);
+        }
+    }
+
+    @Test
+    public void failsWaitWhenResourceEntersFailureState()
+    {
+        FakeEc2 ec2 = new FakeEc2();
+        ec2.volumeStates.put("vol-1", "error");
+        try (ResourceWaiter waiter = new ResourceWaiter(ec2, 5, 20)) {
+            CompletableFuture<String> future = waiter.await(ResourceWaiter.Kind.VOLUME, "vol-1", "available");
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+                return;
+            }
+            throw new AssertionError("expected failure");
+        }
+    }
+
+    @Test
+    public void keepsPollingAndEnforcesDeadlinesWhenDescribeFailsOnTheClient()
+    {
+        AtomicInteger failures = new AtomicInteger(3);
+        FakeEc2 ec2 = new FakeEc2() {
+            @Override
+            public DescribeVolumesResult describeVolumes(DescribeVolumesRequest request) {
+                if (failures.getAndDecrement() > 0)
+                    throw new SdkClientException("Unable to execute HTTP request: Read timed out");
+                return super.describeVolumes(request);
+            }
+        };
+        ec2.volumeStates.put("vol-1", "available");
+        try (ResourceWaiter waiter = new ResourceWaiter(ec2, 5, 20)) {
+            assertEquals("available", waiter.await(ResourceWaiter.Kind.VOLUME, "vol-1", "available").join());
+
+            failures.set(Integer.MAX_VALUE);
+            CompletableFuture<String> future = waiter.await(ResourceWaiter.Kind.VOLUME, "vol-1", "in-use", 50);
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+                return;
+            }
+            throw new AssertionError("expected timeout");
+        }
+    }
+
+    @Test
+    public void keepsBackingOffWhileNewWaitsKeepArriving() throws Exception
+    {
+        FakeEc2 ec2 = new FakeEc2();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        try (ResourceWaiter waiter = new ResourceWaiter(ec2, 5, 80)) {
+            for (int i = 0; i < 60; i++) {
+                ec2.volumeStates.put("vol-" + i, "creating");
+                futures.add(waiter.await(ResourceWaiter.Kind.VOLUME, "vol-" + i, "available"));
+                Thread.sleep(5);
+            }
+            // Resetting to the base delay on every arrival would poll on every one of them
+            assertTrue(String.valueOf(ec2.calls("DescribeVolumes")), ec2.calls("DescribeVolumes") < 30);
+
+            for (int i = 0; i < 60; i++)
+                ec2.volumeStates.put("vol-" + i, "available");
+            for (CompletableFuture<String> future : futures)
+                assertEquals("available", future.join());
+        }
+    }
+
+    @Test
+    public void scopesSnapshotPollsToTheAccountsOwnSnapshots()
+    {
+        List<List<String>> owners = new ArrayList<>();
+        FakeEc2 ec2 = new FakeEc2() {
+            @Override
+            public DescribeSnapshotsResult describeSnapshots(DescribeSnapshotsRequest request) {
+                owners.add(request.getOwnerIds());
+                return super.describeSnapshots(request);
+            }
+        };
+        ec2.snapshotStates.put("snap-1", "completed");
+        try (ResourceWaiter waiter = new ResourceWaiter(ec2, 5, 20)) {
+            assertEquals("completed", waiter.await(ResourceWaiter.Kind.SNAPSHOT, "snap-1", "completed").join());
+        }
+        assertEquals(Collections.singletonList("self"), owners.get(0));
+    }
+}
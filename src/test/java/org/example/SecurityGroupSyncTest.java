@@ -0,0 +1,142 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.ec2.model.AuthorizeSecurityGroupIngressRequest;
+import com.amazonaws.services.ec2.model.AuthorizeSecurityGroupIngressResult;
+import com.amazonaws.services.ec2.model.IpPermission;
+import com.amazonaws.services.ec2.model.IpRange;
+import com.amazonaws.services.ec2.model.UserIdGroupPair;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SecurityGroupSyncTest
+{
+    private final FakeEc2 ec2 = new FakeEc2();
+
+    private static IpPermission tcp(int port, String... cidrs)
+    {
+        IpPermission permission = new IpPermission().withIpProtocol("tcp").withFromPort(port).withToPort(port);
+        for (String cidr : cidrs)
+            permission.withIpv4Ranges(new IpRange().withCidrIp(cidr));
+        return permission;
+    }
+
+    private void withGroup(String groupId, IpPermission... permissions)
+    {
+        Set<SecurityGroupSync.Rule> rules = ConcurrentHashMap.newKeySet();
+        rules.addAll(SecurityGroupSync.rules(Arrays.asList(permissions)));
+        ec2.securityGroupRules.put(groupId, rules);
+    }
+
+    @Test
+    public void sendsOnlyTheDifferencePerGroup()
+    {
+        withGroup("sg-1", tcp(22, "10.0.0.1/32", "10.0.0.2/32"), tcp(443, "0.0.0.0/0"));
+        withGroup("sg-2", tcp(80, "0.0.0.0/0"));
+
+        Map<String, List<IpPermission>> desired = new LinkedHashMap<>();
+        desired.put("sg-1", Arrays.asList(tcp(22, "10.0.0.1/32", "10.0.0.3/32"), tcp(8080, "10.0.0.0/8"),
+                tcp(443, "0.0.0.0/0")));
+        desired.put("sg-2", Collections.singletonList(tcp(80, "0.0.0.0/0")));
+
+        Map<String, RuleSyncResult> results = new SecurityGroupSync(ec2).sync(desired);
+
+        assertEquals(2, results.get("sg-1").getAdded());
+        assertEquals(1, results.get("sg-1").getRemoved());
+        assertTrue(results.get("sg-2").isUnchanged());
+        assertEquals(1, ec2.calls("DescribeSecurityGroups"));
+        assertEquals(1, ec2.calls("AuthorizeSecurityGroupIngress"));
+        assertEquals(1, ec2.calls("RevokeSecurityGroupIngress"));
+        assertEquals(SecurityGroupSync.rules(desired.get("sg-1")), new HashSet<>(ec2.securityGroupRules.get("sg-1")));
+    }
+
+    @Test
+    public void comparesRulesIgnoringDescriptionsAndAllTrafficPorts()
+    {
+        IpPermission current = new IpPermission().withIpProtocol("-1").withFromPort(-1).withToPort(-1)
+                .withUserIdGroupPairs(new UserIdGroupPair().withGroupId("sg-9").withDescription("peers"));
+        withGroup("sg-1", current);
+
+        IpPermission desired = new IpPermission().withIpProtocol("-1")
+                .withUserIdGroupPairs(new UserIdGroupPair().withGroupId("sg-9"));
+        RuleSyncResult result = new SecurityGroupSync(ec2)
+                .sync(Collections.singletonMap("sg-1", Collections.singletonList(desired))).get("sg-1");
+
+        assertTrue(result.isUnchanged());
+        assertEquals(1, ec2.totalCalls());
+    }
+
+    @Test
+    public void recordsAClientFailureAgainstItsGroupOnly()
+    {
+        FakeEc2 flakyEc2 = new FakeEc2() {
+            @Override
+            public AuthorizeSecurityGroupIngressResult authorizeSecurityGroupIngress(
+                    AuthorizeSecurityGroupIngressRequest request) {
+                if ("sg-1".equals(request.getGroupId()))
+                    throw new SdkClientException("Unable to execute HTTP request: Read timed out");
+                return super.authorizeSecurityGroupIngress(request);
+            }
+        };
+        flakyEc2.securityGroupRules.put("sg-1", ConcurrentHashMap.newKeySet());
+        flakyEc2.securityGroupRules.put("sg-2", ConcurrentHashMap.newKeySet());
+
+        Map<String, List<IpPermission>> desired = new LinkedHashMap<>();
+        desired.put("sg-1", Collections.singletonList(tcp(22, "10.0.0.1/32")));
+        desired.put("sg-2", Collections.singletonList(tcp(80, "0.0.0.0/0")));
+        Map<String, RuleSyncResult> results = new SecurityGroupSync(flakyEc2).sync(desired);
+
+        assertTrue(results.get("sg-1").isFailed());
+        assertTrue(results.get("sg-1").getError(), results.get("sg-1").getError().contains("Read timed out"));
+        assertEquals(1, results.get("sg-2").getAdded());
+        assertEquals(1, flakyEc2.securityGroupRules.get("sg-2").size());
+    }
+
+    @Test
+    public void reportsMissingGroups()
+    {
+        RuleSyncResult result = new SecurityGroupSync(ec2)
+                .sync(Collections.singletonMap("sg-missing", Collections.singletonList(tcp(22, "10.0.0.1/32"))))
+                .get("sg-missing");
+
+        assertTrue(result.isFailed());
+        assertEquals(0, ec2.calls("AuthorizeSecurityGroupIngress"));
+    }
+
+    @Test
+    public void egressIpIsCachedUntilTtlExpires() throws Exception
+    {
+        AtomicInteger lookups = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = ("203.0.113." + lookups.incrementAndGet() + "\n").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        try {
+            AtomicLong now = new AtomicLong();
+            EgressIp egressIp = new EgressIp("http://127.0.0.1:" + server.getAddress().getPort() + "/", 1000, now::get);
+
+            assertEquals("203.0.113.1/32", egressIp.cidr());
+            assertEquals("203.0.113.1", egressIp.get());
+            now.addAndGet(1000);
+            assertEquals("203.0.113.2", egressIp.get());
+            assertEquals(2, lookups.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SnapshotFanOutTest
+{
+    private final FakeEc2 ec2 = new FakeEc2();
+    private final ResourceWaiter waiter = new ResourceWaiter(ec2, 5, 20);
+
+    @After
+    public void closeWaiter()
+    {
+        waiter.close();
+    }
+
+    @Test
+    public void snapshotsEachInstanceAsOneSet()
+    {
+        ec2.withInstance("i-1", "running").withInstance("i-2", "running");
+        ec2.volumeAttachments.put("vol-a", "i-1:/dev/xvda");
+        ec2.volumeAttachments.put("vol-b", "i-1:/dev/sdf");
+        ec2.volumeAttachments.put("vol-c", "i-2:/dev/xvda");
+
+        SnapshotFanOut.SnapshotSet set = new SnapshotFanOut(ec2, waiter)
+                .snapshotInstances(Arrays.asList("i-1", "i-2", "i-missing"), "nightly");
+
+        assertEquals(3, ec2.calls("CreateSnapshots"));
+        assertEquals(3, set.getSnapshotIds().size());
+        assertTrue(set.getResults().get(3).isFailed());
+        assertEquals("i-missing", set.getResults().get(3).getSourceId());
+    }
+
+    @Test
+    public void tracksProgressOfTheWholeSetWithOneDescribePerPoll()
+    {
+        List<String> volumeIds = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            ec2.volumeStates.put("vol-" + i, "in-use");
+            volumeIds.add("vol-" + i);
+        }
+        SnapshotFanOut.SnapshotSet set = new SnapshotFanOut(ec2, waiter, 16).snapshotVolumes(volumeIds, "backup");
+        assertEquals(300, ec2.calls("CreateSnapshot"));
+
+        List<String> snapshotIds = set.getSnapshotIds();
+        for (int i = 0; i < 150; i++) {
+            ec2.snapshotStates.put(snapshotIds.get(i), "completed");
+            ec2.snapshotProgress.put(snapshotIds.get(i), "100%");
+        }
+        assertEquals(50, set.poll());
+        assertFalse(set.isDone());
+        // 300 snapshots fit in two filter chunks
+        assertEquals(2, ec2.calls("DescribeSnapshots"));
+
+        for (String snapshotId : snapshotIds)
+            ec2.snapshotStates.put(snapshotId, "completed");
+        ec2.snapshotStates.put(snapshotIds.get(0), "error");
+        List<ResourceResult> outcomes = set.await(1, 1000);
+
+        assertTrue(set.isDone());
+        assertTrue(outcomes.get(0).isFailed());
+        assertFalse(outcomes.get(1).isFailed());
+        assertEquals("vol-1", outcomes.get(1).getSourceId());
+    }
+
+    @Test
+    public void restoresVolumesInBulk()
+    {
+        List<ResourceResult> restored = new SnapshotFanOut(ec2, waiter)
+                .restore(Arrays.asList("snap-1", "snap-2", "snap-3"), "us-east-1a");
+
+        assertEquals(3, restored.size());
+        assertEquals(3, ec2.calls("CreateVolume"));
+        for (ResourceResult result : restored)
+            assertEquals("available", ec2.volumeStates.get(result.getResourceId()));
+        assertEquals("snap-2", restored.get(1).getSourceId());
+    }
+}
@@ -0,0 +1,195 @@
+package org.example;
+
+import com.amazonaws.services.ec2.model.CreateRouteTableRequest;
+import com.amazonaws.services.ec2.model.ReplaceRouteTableAssociationRequest;
+import com.amazonaws.services.ec2.model.RouteTableAssociation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StateReconcilerTest
+{
+    private final FakeEc2 ec2 = new FakeEc2();
+    private final ResourceWaiter waiter = new ResourceWaiter(ec2, 5, 20);
+    private final ScheduledExecutorService hypervisor = Executors.newSingleThreadScheduledExecutor();
+    private final StateReconciler reconciler = new StateReconciler(ec2, waiter);
+
+    @Before
+    public void startHypervisor()
+    {
+        hypervisor.scheduleWithFixedDelay(() -> ec2.instanceStates.replaceAll((id, state) ->
+                "pending".equals(state) ? "running" : state), 10, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void stop()
+    {
+        hypervisor.shutdownNow();
+        waiter.close();
+    }
+
+    private static DesiredState web()
+    {
+        return new DesiredState("web")
+                .vpc("web-vpc", "10.0.0.0/16")
+                .subnet("web-a", "web-vpc", "10.0.0.0/24", "us-east-1a")
+                .subnet("web-b", "web-vpc", "10.0.1.0/24", "us-east-1a")
+                .routeTable("web-rt", "web-vpc", "web-a", "web-b")
+                .instance("web-1", "web-a", "ami-1", "t3.micro", "keypair")
+                .volume("web-1-data", 50, "web-1", "/dev/sdf")
+                .tag("web-1", "Owner", "ops");
+    }
+
+    @Test
+    public void createsEverythingOnTheFirstRun()
+    {
+        TaskGraph.Result result = reconciler.reconcile(web());
+
+        Map<String, String> ids = result.getOutputs();
+        assertEquals(6, ids.size());
+        assertEquals(1, ec2.calls("CreateVpc"));
+        assertEquals(2, ec2.calls("CreateSubnet"));
+        assertEquals(2, ec2.calls("AssociateRouteTable"));
+        assertEquals(1, ec2.calls("RunInstances"));
+        assertEquals(ids.get("web-1") + ":/dev/sdf", ec2.volumeAttachments.get(ids.get("web-1-data")));
+        assertEquals("ops", ec2.tags.get(ids.get("web-1")).get("Owner"));
+        assertEquals("web", ec2.tags.get(ids.get("web-a")).get(StateReconciler.STACK_TAG));
+        assertEquals(0, ec2.calls("CreateTags"));
+    }
+
+    @Test
+    public void secondRunOnlyDescribes()
+    {
+        Map<String, String> first = reconciler.reconcile(web()).getOutputs();
+        int before = ec2.totalCalls();
+
+        StateReconciler.Plan plan = reconciler.plan(web());
+        assertTrue(plan.toString(), plan.isEmpty());
+        Map<String, String> second = reconciler.apply(plan).getOutputs();
+
+        assertEquals(first, second);
+        assertEquals(5, ec2.totalCalls() - before);
+    }
+
+    @Test
+    public void appliesOnlyTheDrift()
+    {
+        reconciler.reconcile(web());
+        DesiredState changed = new DesiredState("web")
+                .vpc("web-vpc", "10.0.0.0/16")
+                .subnet("web-a", "web-vpc", "10.0.0.0/24", "us-east-1a")
+                .subnet("web-c", "web-vpc", "10.0.2.0/24", "us-east-1a")
+                .routeTable("web-rt", "web-vpc", "web-a", "web-c")
+                .instance("web-1", "web-a", "ami-1", "t3.micro", "keypair")
+                .volume("web-1-data", 80, "web-1", "/dev/sdf")
+                .tag("web-1", "Owner", "platform")
+                .tag("web-vpc", "Owner", "platform");
+
+        StateReconciler.Plan plan = reconciler.plan(changed);
+        Map<StateReconciler.Operation, Integer> counts = new EnumMap<>(StateReconciler.Operation.class);
+        for (StateReconciler.Action action : plan.getActions())
+            counts.merge(action.getOperation(), 1, Integer::sum);
+        assertEquals(Integer.valueOf(1), counts.get(StateReconciler.Operation.CREATE));
+        assertEquals(Integer.valueOf(4), counts.get(StateReconciler.Operation.UPDATE));
+        assertEquals(Integer.valueOf(1), counts.get(StateReconciler.Operation.DELETE));
+
+        Map<String, String> ids = reconciler.apply(plan).getOutputs();
+
+        assertEquals(3, ec2.calls("CreateSubnet"));
+        assertEquals(1, ec2.calls("DeleteSubnet"));
+        assertEquals(1, ec2.calls("ModifyVolume"));
+        assertEquals(Integer.valueOf(80), ec2.volumeSizes.get(ids.get("web-1-data")));
+        // Both resources get the same tag change, so one request covers them
+        assertEquals(1, ec2.calls("CreateTags"));
+        assertEquals("platform", ec2.tags.get(ids.get("web-vpc")).get("Owner"));
+        assertEquals(new HashSet<>(Arrays.asList(ids.get("web-a"), ids.get("web-c"))), new HashSet<>(
+                Arrays.asList(ec2.routeTables.get(ids.get("web-rt")).getAssociations().get(0).getSubnetId(),
+                        ec2.routeTables.get(ids.get("web-rt")).getAssociations().get(1).getSubnetId())));
+        assertEquals(2, ec2.routeTables.get(ids.get("web-rt")).getAssociations().size());
+        assertEquals(1, ec2.calls("RunInstances"));
+    }
+
+    @Test
+    public void movesASubnetBetweenRouteTables()
+    {
+        DesiredState before = new DesiredState("web")
+                .vpc("web-vpc", "10.0.0.0/16")
+                .subnet("web-a", "web-vpc", "10.0.0.0/24", "us-east-1a")
+                .subnet("web-b", "web-vpc", "10.0.1.0/24", "us-east-1a")
+                .routeTable("public-rt", "web-vpc", "web-a", "web-b")
+                .routeTable("private-rt", "web-vpc");
+        Map<String, String> ids = reconciler.reconcile(before).getOutputs();
+        DesiredState after = new DesiredState("web")
+                .vpc("web-vpc", "10.0.0.0/16")
+                .subnet("web-a", "web-vpc", "10.0.0.0/24", "us-east-1a")
+                .subnet("web-b", "web-vpc", "10.0.1.0/24", "us-east-1a")
+                .routeTable("public-rt", "web-vpc", "web-a")
+                .routeTable("private-rt", "web-vpc", "web-b");
+
+        reconciler.reconcile(after);
+
+        assertEquals(Arrays.asList(ids.get("web-a")), subnetsOf(ids.get("public-rt")));
+        assertEquals(Arrays.asList(ids.get("web-b")), subnetsOf(ids.get("private-rt")));
+    }
+
+    @Test
+    public void takesOverASubnetAssociatedWithAnUnmanagedRouteTable()
+    {
+        Map<String, String> ids = reconciler.reconcile(web()).getOutputs();
+        String main = ec2.createRouteTable(new CreateRouteTableRequest().withVpcId(ids.get("web-vpc")))
+                .getRouteTable().getRouteTableId();
+        String association = ec2.routeTables.get(ids.get("web-rt")).getAssociations().get(0)
+                .getRouteTableAssociationId();
+        ec2.replaceRouteTableAssociation(new ReplaceRouteTableAssociationRequest()
+                .withAssociationId(association).withRouteTableId(main));
+
+        reconciler.reconcile(web());
+
+        assertEquals(2, ec2.calls("ReplaceRouteTableAssociation"));
+        assertEquals(2, subnetsOf(ids.get("web-rt")).size());
+        assertTrue(subnetsOf(main).isEmpty());
+    }
+
+    private List<String> subnetsOf(String routeTableId)
+    {
+        List<String> subnetIds = new ArrayList<>();
+        for (RouteTableAssociation association : ec2.routeTables.get(routeTableId).getAssociations())
+            subnetIds.add(association.getSubnetId());
+        return subnetIds;
+    }
+
+    @Test
+    public void refusesChangesThatNeedReplacement()
+    {
+        reconciler.reconcile(web());
+        DesiredState changed = new DesiredState("web")
+                .vpc("web-vpc", "10.0.0.0/16")
+                .subnet("web-a", "web-vpc", "10.0.0.0/24", "us-east-1a")
+                .subnet("web-b", "web-vpc", "10.0.1.0/24", "us-east-1a")
+                .routeTable("web-rt", "web-vpc", "web-a", "web-b")
+                .instance("web-1", "web-a", "ami-1", "m5.large", "keypair");
+
+        StateReconciler.Plan plan = reconciler.plan(changed);
+
+        assertEquals(1, plan.getConflicts().size());
+        assertTrue(plan.getConflicts().get(0), plan.getConflicts().get(0).startsWith("web-1: instanceType"));
+        try {
+            reconciler.apply(plan);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals(1, ec2.calls("RunInstances"));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.CreateTagsResult;
+import com.amazonaws.services.ec2.model.Tag;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TagCoalescerTest
+{
+    private final FakeEc2 ec2 = new FakeEc2();
+    private final List<String> written = Collections.synchronizedList(new ArrayList<>());
+
+    private TagCoalescer coalescer(int maxPending)
+    {
+        return new TagCoalescer(ec2, maxPending, 60000, written::add);
+    }
+
+    @Test
+    public void mergesIdenticalTagSetsAcrossResources()
+    {
+        try (TagCoalescer tags = coalescer(10000)) {
+            for (int i = 0; i < 2500; i++)
+                tags.set("vol-" + i, Arrays.asList(new Tag("CostCenter", "42"), new Tag("Team", "infra")));
+            tags.set("vpc-1", Collections.singletonList(new Tag("CostCenter", "7")));
+
+            // 2500 volumes in chunks of 1000 plus the VPC's distinct tag set
+            assertEquals(4, tags.flush());
+        }
+        assertEquals(4, ec2.calls("CreateTags"));
+        assertEquals("42", ec2.tags.get("vol-2499").get("CostCenter"));
+        assertEquals("7", ec2.tags.get("vpc-1").get("CostCenter"));
+        assertEquals(2501, written.size());
+        for (Object request : ec2.requests)
+            assertTrue(((CreateTagsRequest) request).getResources().size() <= TagCoalescer.MAX_RESOURCES_PER_REQUEST);
+    }
+
+    @Test
+    public void laterOperationOnSameKeyWins()
+    {
+        try (TagCoalescer tags = coalescer(10000)) {
+            tags.set("i-1", Arrays.asList(new Tag("Owner", "a"), new Tag("Stage", "dev")));
+            tags.delete("i-1", Collections.singletonList(new Tag().withKey("Stage")));
+            tags.set("i-1", Collections.singletonList(new Tag("Owner", "b")));
+            assertEquals(2, tags.flush());
+        }
+        assertEquals(1, ec2.calls("CreateTags"));
+        assertEquals(1, ec2.calls("DeleteTags"));
+        assertEquals("b", ec2.tags.get("i-1").get("Owner"));
+        assertNull(ec2.tags.get("i-1").get("Stage"));
+    }
+
+    @Test
+    public void flushesInBackgroundWhenFull() throws InterruptedException
+    {
+        try (TagCoalescer tags = coalescer(3)) {
+            for (int i = 0; i < 3; i++)
+                tags.set("vpc-" + i, Collections.singletonList(new Tag("Name", "x")));
+            for (int i = 0; i < 100 && ec2.calls("CreateTags") == 0; i++)
+                Thread.sleep(10);
+            assertEquals(1, ec2.calls("CreateTags"));
+            assertEquals(0, tags.getPendingResources());
+        }
+    }
+
+    @Test
+    public void flushesOnInterval() throws InterruptedException
+    {
+        try (TagCoalescer tags = new TagCoalescer(ec2, 10000, 20, written::add)) {
+            tags.set("vpc-1", Collections.singletonList(new Tag("Name", "x")));
+            for (int i = 0; i < 100 && written.isEmpty(); i++)
+                Thread.sleep(10);
+            assertEquals(Collections.singletonList("vpc-1"), written);
+        }
+    }
+
+    @Test
+    public void waitsForAFlushInProgressSoOlderValuesCannotLandLast() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FakeEc2 slowEc2 = new FakeEc2() {
+            @Override
+            public CreateTagsResult createTags(CreateTagsRequest request) {
+                if (started.getCount() > 0) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.createTags(request);
+            }
+        };
+        try (TagCoalescer tags = new TagCoalescer(slowEc2, 10000, 60000, written::add)) {
+            tags.set("vpc-1", Collections.singletonList(new Tag("Version", "v1")));
+            CompletableFuture<Integer> first = CompletableFuture.supplyAsync(tags::flush);
+            started.await();
+            tags.set("vpc-1", Collections.singletonList(new Tag("Version", "v2")));
+            CompletableFuture<Integer> second = CompletableFuture.supplyAsync(tags::flush);
+            Thread.sleep(50);
+            assertFalse(second.isDone());
+
+            release.countDown();
+            assertEquals(1, (int) first.join());
+            assertEquals(1, (int) second.join());
+        }
+        assertEquals("v2", slowEc2.tags.get("vpc-1").get("Version"));
+    }
+
+    @Test
+    public void requeuesThrottledWritesAndReportsTheFailure()
+    {
+        AtomicInteger throttles = new AtomicInteger(1);
+        FakeEc2 throttledEc2 = new FakeEc2() {
+            @Override
+            public CreateTagsResult createTags(CreateTagsRequest request) {
+                if (throttles.getAndDecrement() > 0)
+                    throw error("RequestLimitExceeded", "Request limit exceeded.");
+                return super.createTags(request);
+            }
+        };
+        try (TagCoalescer tags = new TagCoalescer(throttledEc2, 10000, 60000, written::add)) {
+            tags.set("vpc-1", Collections.singletonList(new Tag("Owner", "a")));
+            try {
+                tags.flush();
+                fail("expected the throttled write to be reported");
+            } catch (AmazonServiceException e) {
+                assertEquals("RequestLimitExceeded", e.getErrorCode());
+            }
+            assertEquals(1, tags.getPendingResources());
+
+            // A change queued after the failure wins over the requeued one
+            tags.set("vpc-1", Collections.singletonList(new Tag("Owner", "b")));
+            assertEquals(1, tags.flush());
+        }
+        assertEquals("b", throttledEc2.tags.get("vpc-1").get("Owner"));
+        assertEquals(Collections.singletonList("vpc-1"), written);
+    }
+
+    @Test
+    public void splitsARejectedRequestSoOnlyTheBadResourceFails()
+    {
+        FakeEc2 strictEc2 = new FakeEc2() {
+            @Override
+            public CreateTagsResult createTags(CreateTagsRequest request) {
+                if (request.getResources().contains("vpc-gone")) {
+                    count("CreateTags");
+                    throw error("InvalidVpcID.NotFound", "The vpc ID 'vpc-gone' does not exist");
+                }
+                return super.createTags(request);
+            }
+        };
+        try (TagCoalescer tags = new TagCoalescer(strictEc2, 10000, 60000, written::add)) {
+            for (int i = 0; i < 8; i++)
+                tags.set(i == 5 ? "vpc-gone" : "vpc-" + i, Collections.singletonList(new Tag("Owner", "a")));
+            try {
+                tags.flush();
+                fail("expected the missing VPC to be reported");
+            } catch (AmazonServiceException e) {
+                assertEquals("InvalidVpcID.NotFound", e.getErrorCode());
+            }
+            assertEquals(0, tags.getPendingResources());
+            assertEquals(1, tags.getFailures());
+        }
+        assertEquals(7, written.size());
+        assertFalse(written.contains("vpc-gone"));
+        for (String resourceId : written)
+            assertEquals("a", strictEc2.tags.get(resourceId).get("Owner"));
+        // 1 + 2 + 2 + 2 requests to isolate one of eight resources
+        assertEquals(7, strictEc2.calls("CreateTags"));
+    }
+}
@@ -0,0 +1,121 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.elasticloadbalancingv2.model.RegisterTargetsRequest;
+import com.amazonaws.services.elasticloadbalancingv2.model.RegisterTargetsResult;
+import org.junit.Test;
+
+import java.util.*;
+
+public class TargetGroupReconcilerTest
+{
+    private final FakeElb elb = new FakeElb();
+
+    private static Map<String, TargetActionResult> byTarget(List<TargetActionResult> results)
+    {
+        Map<String, TargetActionResult> byTarget = new HashMap<>();
+        for (TargetActionResult result : results)
+            byTarget.put(result.getTargetId(), result);
+        return byTarget;
+    }
+
+    @Test
+    public void changesOnlyTheDelta()
+    {
+        elb.withTargetGroup("tg-1", "i-1", "i-2", "i-3");
+        elb.withTargetGroup("tg-2", "i-9");
+
+        Map<String, List<String>> desired = new LinkedHashMap<>();
+        desired.put("tg-1", Arrays.asList("i-2", "i-3", "i-4"));
+        desired.put("tg-2", Collections.singletonList("i-9"));
+        Map<String, List<TargetActionResult>> results = new TargetGroupReconciler(elb).reconcile(desired);
+
+        Map<String, TargetActionResult> first = byTarget(results.get("tg-1"));
+        assertEquals(TargetActionResult.Status.UNCHANGED, first.get("i-2").getStatus());
+        assertEquals(TargetActionResult.Status.REGISTERED, first.get("i-4").getStatus());
+        assertEquals(TargetActionResult.Status.DEREGISTERED, first.get("i-1").getStatus());
+        assertEquals("i-2", results.get("tg-1").get(0).getTargetId());
+        assertEquals(TargetActionResult.Status.UNCHANGED, results.get("tg-2").get(0).getStatus());
+        assertEquals(2, elb.calls("DescribeTargetHealth"));
+        assertEquals(1, elb.calls("RegisterTargets"));
+        assertEquals(1, elb.calls("DeregisterTargets"));
+    }
+
+    @Test
+    public void chunksLargeChangesAndReregistersDrainingTargets()
+    {
+        elb.withTargetGroup("tg-1");
+        elb.targets.get("tg-1").put("i-0", "draining");
+        elb.maxTargetsPerCall = 100;
+        List<String> desired = new ArrayList<>();
+        for (int i = 0; i < 450; i++)
+            desired.add("i-" + i);
+
+        List<TargetActionResult> results = new TargetGroupReconciler(elb, 100, 4)
+                .reconcile(Collections.singletonMap("tg-1", desired)).get("tg-1");
+
+        assertEquals(450, results.size());
+        for (TargetActionResult result : results)
+            assertEquals(TargetActionResult.Status.REGISTERED, result.getStatus());
+        assertEquals(5, elb.calls("RegisterTargets"));
+    }
+
+    @Test
+    public void reportsFailuresPerTarget()
+    {
+        elb.withTargetGroup("tg-1");
+        elb.invalidTargets.add("i-bad");
+        Map<String, List<String>> desired = new LinkedHashMap<>();
+        desired.put("tg-1", Arrays.asList("i-bad"));
+        desired.put("tg-missing", Arrays.asList("i-1"));
+
+        Map<String, List<TargetActionResult>> results = new TargetGroupReconciler(elb).reconcile(desired);
+
+        assertTrue(results.get("tg-1").get(0).isFailed());
+        assertTrue(results.get("tg-missing").get(0).isFailed());
+    }
+
+    @Test
+    public void reportsClientFailuresPerTargetAndKeepsOtherOutcomes()
+    {
+        FakeElb flakyElb = new FakeElb() {
+            @Override
+            public RegisterTargetsResult registerTargets(RegisterTargetsRequest request) {
+                if ("tg-1".equals(request.getTargetGroupArn()))
+                    throw new SdkClientException("Unable to execute HTTP request: Read timed out");
+                return super.registerTargets(request);
+            }
+        };
+        flakyElb.withTargetGroup("tg-1");
+        flakyElb.withTargetGroup("tg-2");
+        Map<String, List<String>> desired = new LinkedHashMap<>();
+        desired.put("tg-1", Arrays.asList("i-1", "i-2"));
+        desired.put("tg-2", Arrays.asList("i-3"));
+
+        Map<String, List<TargetActionResult>> results = new TargetGroupReconciler(flakyElb).reconcile(desired);
+
+        for (TargetActionResult result : results.get("tg-1")) {
+            assertEquals(TargetActionResult.Status.FAILED, result.getStatus());
+            assertTrue(result.getReason(), result.getReason().contains("Read timed out"));
+        }
+        assertEquals(TargetActionResult.Status.REGISTERED, results.get("tg-2").get(0).getStatus());
+    }
+
+    @Test
+    public void createTargetGroupReturnsArn()
+    {
+        App.useClients(new ClientRegistry(region -> new FakeEc2(), region -> elb,
+                Collections.singletonList(App.DEFAULT_REGION)));
+        try {
+            String targetGroupArn = App.createTargetGroup("web", "vpc-1", "i-1", "i-2");
+
+            assertTrue(targetGroupArn.startsWith("arn:aws:elasticloadbalancing:"));
+            assertEquals(new HashSet<>(Arrays.asList("i-1", "i-2")), elb.targets.get(targetGroupArn).keySet());
+        } finally {
+            App.useClients(null);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TaskGraphTest
+{
+    private static String sleepThen(long millis, String output) throws InterruptedException
+    {
+        Thread.sleep(millis);
+        return output;
+    }
+
+    // Returns only once all parties have arrived, so it fails unless they run at the same time
+    private static String together(CountDownLatch latch, String output) throws InterruptedException
+    {
+        latch.countDown();
+        if (!latch.await(5, TimeUnit.SECONDS))
+            throw new IllegalStateException(output + " did not run concurrently");
+        return output;
+    }
+
+    @Test
+    public void runsIndependentNodesConcurrentlyAndPassesOutputs()
+    {
+        CountDownLatch independent = new CountDownLatch(3);
+        TaskGraph graph = new TaskGraph()
+                .add("vpc", inputs -> "vpc-1")
+                .add("subnet-a", inputs -> together(independent, inputs.get("vpc") + "/a"), "vpc")
+                .add("subnet-b", inputs -> together(independent, inputs.get("vpc") + "/b"), "vpc")
+                .add("eip", inputs -> together(independent, "eip-1"))
+                // Also waits for subnet-b, so it is always the last node to finish
+                .add("nat", inputs -> inputs.get("subnet-a") + "+" + inputs.get("eip"), "subnet-a", "subnet-b", "eip");
+
+        TaskGraph.Result result = graph.execute(4);
+
+        assertEquals("vpc-1/a+eip-1", result.get("nat"));
+        assertEquals("vpc-1/b", result.get("subnet-b"));
+        assertEquals("nat", result.getCriticalPath().get(result.getCriticalPath().size() - 1));
+    }
+
+    @Test
+    public void passesInputsWhileLaterNodesAreStillBeingScheduled()
+    {
+        TaskGraph graph = new TaskGraph().add("root", inputs -> "r");
+        for (int i = 0; i < 500; i++)
+            graph.add("node-" + i, inputs -> inputs.get("root"), "root");
+
+        TaskGraph.Result result = graph.execute(8);
+
+        for (int i = 0; i < 500; i++)
+            assertEquals("r", result.get("node-" + i));
+    }
+
+    @Test
+    public void reportsFailedNode()
+    {
+        TaskGraph graph = new TaskGraph()
+                .add("vpc", inputs -> { throw new IllegalStateException("boom"); })
+                .add("subnet", inputs -> "subnet-1", "vpc");
+        try {
+            graph.execute(2);
+        } catch (IllegalStateException e) {
+            assertEquals("Node vpc failed", e.getMessage());
+            return;
+        }
+        throw new AssertionError("expected failure");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCycles()
+    {
+        new TaskGraph()
+                .add("a", inputs -> "a", "b")
+                .add("b", inputs -> "b", "a")
+                .execute(1);
+    }
+
+    @Test
+    public void criticalPathFollowsLatestDependency()
+    {
+        TaskGraph.Result result = new TaskGraph()
+                .add("fast", inputs -> sleepThen(5, "f"))
+                .add("slow", inputs -> sleepThen(80, "s"))
+                .add("join", inputs -> "j", "fast", "slow")
+                .execute(2);
+
+        assertEquals(Arrays.asList("slow", "join"), result.getCriticalPath());
+    }
+}
@@ -0,0 +1,193 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.amazonaws.services.ec2.model.CreateSubnetRequest;
+import com.amazonaws.services.ec2.model.CreateVpcRequest;
+import com.amazonaws.services.ec2.model.DeleteInternetGatewayRequest;
+import com.amazonaws.services.ec2.model.DeleteInternetGatewayResult;
+import com.amazonaws.services.ec2.model.DetachInternetGatewayRequest;
+import com.amazonaws.services.ec2.model.DetachInternetGatewayResult;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TeardownEngineTest
+{
+    /**
+     * Records when each delete started and finished instead of calling EC2.
+     */
+    private static class RecordingDeleter extends ResourceDeleter
+    {
+        final Map<String, long[]> timings = new ConcurrentHashMap<>();
+        final Map<String, AtomicInteger> violations = new ConcurrentHashMap<>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final Set<String> failing = ConcurrentHashMap.newKeySet();
+        // Deletes of these resources only finish once all of them are running at the same time
+        final Set<String> together = ConcurrentHashMap.newKeySet();
+        volatile CountDownLatch overlap = new CountDownLatch(0);
+
+        RecordingDeleter()
+        {
+            super(null, null, null);
+        }
+
+        @Override
+        public void delete(ResourceJournal.Kind kind, String resourceId, String parentId)
+        {
+            if (failing.contains(resourceId))
+                throw FakeEc2.error("UnauthorizedOperation", "not allowed to delete " + resourceId);
+            AtomicInteger remaining = violations.get(resourceId);
+            if (remaining != null && remaining.getAndDecrement() > 0)
+                throw FakeEc2.error("DependencyViolation", resourceId + " has a dependent object");
+            long start = System.nanoTime();
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                if (together.contains(resourceId)) {
+                    overlap.countDown();
+                    if (!overlap.await(5, TimeUnit.SECONDS))
+                        throw new IllegalStateException(resourceId + " was not deleted concurrently");
+                }
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            running.decrementAndGet();
+            timings.put(resourceId, new long[]{start, System.nanoTime()});
+        }
+    }
+
+    private static ResourceJournal.Entry entry(ResourceJournal.Kind kind, String resourceId)
+    {
+        return new ResourceJournal.Entry(null, kind, resourceId, null, null, 0);
+    }
+
+    private final RecordingDeleter deleter = new RecordingDeleter();
+
+    private void assertDeletedAfter(String resourceId, String... blockers)
+    {
+        for (String blocker : blockers)
+            assertTrue(resourceId + " before " + blocker,
+                    deleter.timings.get(resourceId)[0] >= deleter.timings.get(blocker)[1]);
+    }
+
+    @Test
+    public void deletesInReverseDependencyOrderWithIndependentLeavesInParallel()
+    {
+        List<ResourceJournal.Entry> resources = Arrays.asList(
+                entry(ResourceJournal.Kind.VPC, "vpc-1"),
+                entry(ResourceJournal.Kind.SUBNET, "subnet-1"),
+                entry(ResourceJournal.Kind.SUBNET, "subnet-2"),
+                entry(ResourceJournal.Kind.INTERNET_GATEWAY, "igw-1"),
+                entry(ResourceJournal.Kind.ROUTE_TABLE, "rtb-1"),
+                entry(ResourceJournal.Kind.SECURITY_GROUP, "sg-1"),
+                entry(ResourceJournal.Kind.NAT_GATEWAY, "nat-1"),
+                entry(ResourceJournal.Kind.ELASTIC_IP, "eipalloc-1"),
+                entry(ResourceJournal.Kind.INSTANCE, "i-1"),
+                entry(ResourceJournal.Kind.INSTANCE, "i-2"),
+                entry(ResourceJournal.Kind.INSTANCE, "i-3"),
+                entry(ResourceJournal.Kind.VOLUME, "vol-1"),
+                entry(ResourceJournal.Kind.KEY_PAIR, "keypair"),
+                entry(ResourceJournal.Kind.OTHER, "custom"));
+        List<String> deleted = Collections.synchronizedList(new ArrayList<>());
+        deleter.together.addAll(Arrays.asList("i-1", "i-2", "i-3", "nat-1"));
+        deleter.overlap = new CountDownLatch(4);
+
+        TaskGraph.Result result = new TeardownEngine(null, deleter, 8).teardown(resources, deleted::add);
+
+        assertEquals(13, deleted.size());
+        assertEquals(13, result.getOutputs().size());
+        assertDeletedAfter("vpc-1", "subnet-1", "subnet-2", "igw-1", "rtb-1", "sg-1");
+        assertDeletedAfter("subnet-1", "i-1", "i-2", "i-3", "nat-1");
+        assertDeletedAfter("igw-1", "nat-1", "eipalloc-1", "i-1");
+        assertDeletedAfter("eipalloc-1", "nat-1");
+        assertDeletedAfter("vol-1", "i-1", "i-2", "i-3");
+        assertTrue(deleter.maxRunning.get() >= 4);
+    }
+
+    @Test
+    public void retriesDependencyViolations()
+    {
+        deleter.violations.put("sg-1", new AtomicInteger(2));
+
+        new TeardownEngine(null, deleter).retryDelays(1, 5, 1000)
+                .teardown(Collections.singletonList(entry(ResourceJournal.Kind.SECURITY_GROUP, "sg-1")), id -> { });
+
+        assertEquals(-1, deleter.violations.get("sg-1").get());
+        assertTrue(deleter.timings.containsKey("sg-1"));
+    }
+
+    @Test
+    public void deletesAnInternetGatewayAnEarlierAttemptAlreadyDetached()
+    {
+        List<String> deletedGateways = new ArrayList<>();
+        FakeEc2 ec2 = new FakeEc2() {
+            @Override
+            public DetachInternetGatewayResult detachInternetGateway(DetachInternetGatewayRequest request) {
+                throw error("Gateway.NotAttached", "resource " + request.getInternetGatewayId()
+                        + " is not attached to network " + request.getVpcId());
+            }
+
+            @Override
+            public DeleteInternetGatewayResult deleteInternetGateway(DeleteInternetGatewayRequest request) {
+                deletedGateways.add(request.getInternetGatewayId());
+                return new DeleteInternetGatewayResult();
+            }
+        };
+
+        new ResourceDeleter(ec2, null, null).delete(ResourceJournal.Kind.INTERNET_GATEWAY, "igw-1", "vpc-1");
+
+        assertEquals(Collections.singletonList("igw-1"), deletedGateways);
+    }
+
+    @Test
+    public void finishesIndependentDeletesBeforeReportingAFailure()
+    {
+        deleter.failing.add("i-1");
+        List<ResourceJournal.Entry> resources = Arrays.asList(
+                entry(ResourceJournal.Kind.SUBNET, "subnet-1"),
+                entry(ResourceJournal.Kind.INSTANCE, "i-1"),
+                entry(ResourceJournal.Kind.SNAPSHOT, "snap-1"),
+                entry(ResourceJournal.Kind.SNAPSHOT, "snap-2"));
+        List<String> deleted = Collections.synchronizedList(new ArrayList<>());
+        try {
+            new TeardownEngine(null, deleter, 4).teardown(resources, deleted::add);
+            fail("expected the instance delete to fail");
+        } catch (IllegalStateException e) {
+            assertEquals("Node i-1 failed", e.getMessage());
+        }
+
+        assertTrue(deleted.containsAll(Arrays.asList("snap-1", "snap-2")));
+        assertFalse(deleted.contains("subnet-1"));
+    }
+
+    @Test
+    public void discoversLoadBalancersAndTargetGroupsInTheVpc()
+    {
+        FakeEc2 ec2 = new FakeEc2();
+        String vpcId = ec2.createVpc(new CreateVpcRequest("10.0.0.0/16")).getVpc().getVpcId();
+        String subnetId = ec2.createSubnet(new CreateSubnetRequest(vpcId, "10.0.0.0/24")).getSubnet().getSubnetId();
+        FakeElb elb = new FakeElb();
+        elb.loadBalancerVpcs.put("arn:lb/web", vpcId);
+        elb.loadBalancerVpcs.put("arn:lb/other", "vpc-other");
+        elb.targetGroupVpcs.put("arn:tg/web", vpcId);
+
+        Map<String, ResourceJournal.Kind> kinds = new HashMap<>();
+        for (ResourceJournal.Entry resource : new TeardownEngine(ec2, elb, deleter, 4).discoverVpc(vpcId))
+            kinds.put(resource.getResourceId(), resource.getKind());
+
+        assertEquals(ResourceJournal.Kind.LOAD_BALANCER, kinds.get("arn:lb/web"));
+        assertEquals(ResourceJournal.Kind.TARGET_GROUP, kinds.get("arn:tg/web"));
+        assertEquals(ResourceJournal.Kind.SUBNET, kinds.get(subnetId));
+        assertFalse(kinds.containsKey("arn:lb/other"));
+    }
+}
@@ -0,0 +1,99 @@
+package org.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.ec2.model.AttachVolumeRequest;
+import com.amazonaws.services.ec2.model.AttachVolumeResult;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class VolumePipelineTest
+{
+    private final FakeEc2 ec2 = new FakeEc2();
+    private final ResourceWaiter waiter = new ResourceWaiter(ec2, 5, 20);
+
+    @After
+    public void closeWaiter()
+    {
+        waiter.close();
+    }
+
+    @Test
+    public void createsWaitsAndAttachesEveryVolume()
+    {
+        List<VolumePipeline.Spec> specs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            ec2.withInstance("i-" + i, "running");
+            specs.add(new VolumePipeline.Spec("i-" + i, "/dev/sdf", 8));
+            specs.add(new VolumePipeline.Spec("i-" + i, "/dev/sdg", 8));
+        }
+        ec2.newVolumeState = "creating";
+        ScheduledExecutorService provisioner = Executors.newSingleThreadScheduledExecutor();
+        provisioner.scheduleWithFixedDelay(() -> ec2.volumeStates.replaceAll(
+                (id, state) -> "creating".equals(state) ? "available" : state), 10, 10, TimeUnit.MILLISECONDS);
+        try {
+            List<VolumeAttachmentResult> results = new VolumePipeline(ec2, waiter, 8).createAndAttach(specs);
+
+            assertEquals(100, results.size());
+            for (VolumeAttachmentResult result : results) {
+                assertFalse(result.toString(), result.isFailed());
+                assertEquals(result.getInstanceId() + ":" + result.getDevice(),
+                        ec2.volumeAttachments.get(result.getVolumeId()));
+            }
+            assertEquals("/dev/sdg", results.get(1).getDevice());
+            assertEquals(1, ec2.calls("DescribeInstances"));
+            // Pending volumes are polled together, not once each
+            assertTrue(ec2.calls("DescribeVolumes") < 100);
+        } finally {
+            provisioner.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reportsFailuresPerVolume()
+    {
+        ec2.withInstance("i-1", "running");
+        ec2.newVolumeState = "error";
+        List<VolumeAttachmentResult> results = new VolumePipeline(ec2, waiter).createAndAttach(Arrays.asList(
+                new VolumePipeline.Spec("i-1", "/dev/sdf", 8),
+                new VolumePipeline.Spec("i-missing", "/dev/sdf", 8)));
+
+        assertTrue(results.get(0).isFailed());
+        assertEquals("vol-1", results.get(0).getVolumeId());
+        assertTrue(results.get(0).getError().contains("error"));
+        assertTrue(results.get(1).isFailed());
+        assertNull(results.get(1).getVolumeId());
+        assertEquals(0, ec2.calls("AttachVolume"));
+    }
+
+    @Test
+    public void keepsTheVolumeIdWhenTheAttachFailsOnTheClient()
+    {
+        FakeEc2 flakyEc2 = new FakeEc2() {
+            @Override
+            public AttachVolumeResult attachVolume(AttachVolumeRequest request) {
+                throw new SdkClientException("Unable to execute HTTP request: Connection reset");
+            }
+        };
+        flakyEc2.withInstance("i-1", "running");
+        try (ResourceWaiter flakyWaiter = new ResourceWaiter(flakyEc2, 5, 20)) {
+            VolumeAttachmentResult result = new VolumePipeline(flakyEc2, flakyWaiter)
+                    .createAndAttach(Arrays.asList(new VolumePipeline.Spec("i-1", "/dev/sdf", 8))).get(0);
+
+            assertTrue(result.isFailed());
+            assertEquals("vol-1", result.getVolumeId());
+            assertTrue(result.getError(), result.getError().contains("Connection reset"));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package org.example;
+
+import com.amazonaws.services.ec2.model.AllocateAddressRequest;
+import com.amazonaws.services.ec2.model.AssociateAddressRequest;
+import com.amazonaws.services.ec2.model.AssociateAddressResult;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StartInstancesResult;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
+import com.amazonaws.services.ec2.model.StopInstancesResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class WarmPoolTest
+{
+    private final AtomicBoolean failAssociate = new AtomicBoolean();
+    private final AtomicBoolean failStart = new AtomicBoolean();
+    private final AtomicBoolean failStop = new AtomicBoolean();
+    private final AtomicBoolean failBoot = new AtomicBoolean();
+    private final FakeEc2 ec2 = new FakeEc2() {
+        @Override
+        public AssociateAddressResult associateAddress(AssociateAddressRequest request) {
+            if (failAssociate.get())
+                throw error("InternalError", "An internal error has occurred");
+            return super.associateAddress(request);
+        }
+
+        @Override
+        public StartInstancesResult startInstances(StartInstancesRequest request) {
+            if (failStart.get())
+                throw error("InsufficientInstanceCapacity", "Insufficient capacity");
+            return super.startInstances(request);
+        }
+
+        @Override
+        public StopInstancesResult stopInstances(StopInstancesRequest request) {
+            if (failStop.get())
+                throw error("InternalError", "An internal error has occurred");
+            return super.stopInstances(request);
+        }
+    };
+    private final ResourceWaiter waiter = new ResourceWaiter(ec2, 5, 20) {
+        @Override
+        public CompletableFuture<String> await(Kind kind, String resourceId, String targetState) {
+            if (failBoot.get() && "running".equals(targetState)) {
+                CompletableFuture<String> timedOut = new CompletableFuture<>();
+                timedOut.completeExceptionally(new TimeoutException(resourceId + " did not reach running"));
+                return timedOut;
+            }
+            return super.await(kind, resourceId, targetState);
+        }
+    };
+    private final ScheduledExecutorService hypervisor = Executors.newSingleThreadScheduledExecutor();
+    private WarmPool pool;
+
+    @Before
+    public void startHypervisor()
+    {
+        hypervisor.scheduleWithFixedDelay(() -> ec2.instanceStates.replaceAll((id, state) ->
+                "pending".equals(state) ? "running" : "stopping".equals(state) ? "stopped" : state),
+                10, 10, TimeUnit.MILLISECONDS);
+        pool = new WarmPool(ec2, waiter,
+                () -> ec2.runInstances(new RunInstancesRequest().withMinCount(1).withMaxCount(1))
+                        .getReservation().getInstances().get(0).getInstanceId(),
+                () -> ec2.allocateAddress(new AllocateAddressRequest()).getAllocationId(),
+                2, 2);
+    }
+
+    @After
+    public void stop()
+    {
+        pool.close();
+        hypervisor.shutdownNow();
+        waiter.close();
+    }
+
+    @Test
+    public void fillsThePoolWithStoppedInstancesAndFreeAddresses()
+    {
+        pool.refill().join();
+
+        assertEquals(2, pool.getIdleInstances());
+        assertEquals(2, pool.getIdleAddresses());
+        for (String state : ec2.instanceStates.values())
+            assertEquals("stopped", state);
+        assertEquals(2, ec2.calls("StopInstances"));
+    }
+
+    @Test
+    public void acquiresFromThePoolAndRefillsInTheBackground() throws Exception
+    {
+        pool.refill().join();
+
+        WarmPool.Lease lease = pool.acquire();
+
+        assertTrue(lease.isWarm());
+        assertEquals("running", ec2.instanceStates.get(lease.getInstanceId()));
+        assertEquals(lease.getInstanceId(), ec2.addressAssociations.get(lease.getAllocationId()));
+        assertEquals(1, ec2.calls("StartInstances"));
+        assertEquals(1.0, pool.getHitRate(), 0);
+        assertEquals(1, pool.getLatency().getCount());
+
+        pool.refill().join();
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((pool.getIdleInstances() < 2 || pool.getIdleAddresses() < 2) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(2, pool.getIdleInstances());
+        assertEquals(2, pool.getIdleAddresses());
+        assertEquals(3, ec2.calls("RunInstances"));
+    }
+
+    @Test
+    public void launchesColdWhenThePoolIsEmpty()
+    {
+        WarmPool.Lease lease = pool.acquire();
+
+        assertFalse(lease.isWarm());
+        assertEquals("running", ec2.instanceStates.get(lease.getInstanceId()));
+        assertEquals(1, pool.getInstanceMisses());
+        assertEquals(1, pool.getAddressMisses());
+        assertEquals(0.0, pool.getHitRate(), 0);
+    }
+
+    @Test
+    public void skipsPooledInstancesThatNoLongerExist()
+    {
+        pool.refill().join();
+        String gone = ec2.instanceStates.keySet().iterator().next();
+        ec2.instanceStates.remove(gone);
+
+        WarmPool.Lease lease = pool.acquire();
+
+        assertTrue(lease.isWarm());
+        assertNotEquals(gone, lease.getInstanceId());
+    }
+
+    @Test
+    public void associatesWhileStoppedAndKeepsEverythingPooledWhenTheStartFails()
+    {
+        pool.refill().join();
+        failStart.set(true);
+
+        try {
+            pool.acquire();
+            fail("expected the start to fail");
+        } catch (RuntimeException expected) {
+        }
+
+        assertEquals(2, pool.getIdleInstances());
+        assertEquals(2, pool.getIdleAddresses());
+        for (String state : ec2.instanceStates.values())
+            assertEquals("stopped", state);
+        for (String instanceId : ec2.addressAssociations.values())
+            assertEquals("", instanceId);
+    }
+
+    @Test
+    public void parksAColdInstanceWhenTheAssociationFails() throws Exception
+    {
+        failAssociate.set(true);
+
+        try {
+            pool.acquire();
+            fail("expected the association to fail");
+        } catch (RuntimeException expected) {
+        }
+
+        assertEquals(1, pool.getIdleAddresses());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ec2.instanceStates.containsValue("running") || ec2.instanceStates.containsValue("pending")
+                || ec2.instanceStates.containsValue("stopping")) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(0, ec2.calls("StartInstances"));
+    }
+
+    @Test
+    public void returnsTheAddressAndParksTheInstanceWhenItNeverReachesRunning() throws Exception
+    {
+        pool.refill().join();
+        failBoot.set(true);
+
+        try {
+            pool.acquire();
+            fail("expected the wait for running to fail");
+        } catch (RuntimeException expected) {
+        }
+
+        for (String instanceId : ec2.addressAssociations.values())
+            assertEquals("", instanceId);
+        awaitEverythingPooled();
+        // Includes the one the background refill allocated to replace it
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getIdleAddresses() < ec2.addressAssociations.size()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void parksAnInstanceThatFailsWhileBeingPrepared() throws Exception
+    {
+        failBoot.set(true);
+
+        pool.refill().join();
+
+        awaitEverythingPooled();
+        assertTrue(pool.getIdleInstances() > 0);
+    }
+
+    @Test
+    public void terminatesAnInstanceThatCannotBeParked() throws Exception
+    {
+        failBoot.set(true);
+        failStop.set(true);
+
+        pool.refill().join();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ec2.instanceStates.values().stream().anyMatch(state -> !"terminated".equals(state))) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(ec2.calls("RunInstances"), ec2.calls("TerminateInstances"));
+        assertEquals(0, pool.getIdleInstances());
+    }
+
+    // Every launched instance ends up stopped and in the pool
+    private void awaitEverythingPooled() throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getIdleInstances() < ec2.instanceStates.size()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        for (String state : ec2.instanceStates.values())
+            assertEquals("stopped", state);
+    }
+}